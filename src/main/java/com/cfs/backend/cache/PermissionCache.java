@@ -0,0 +1,103 @@
+package com.cfs.backend.cache;
+
+import com.cfs.backend.entity.PermissionType;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+// Effective permission per (user, node). An entry remembers the node's path so that grants
+// and moves can drop exactly the entries under the affected subtree. Eviction only reaches
+// this instance, so entries also expire: a change made through another instance is seen
+// within ttl, and a denial (what a new share has to overturn) within the shorter denialTtl.
+@Component
+public class PermissionCache {
+
+    public record Key(Long userId, Long nodeId) {
+    }
+
+    // permission == null means "no access", which is cached too
+    public record Entry(String path, PermissionType permission) {
+    }
+
+    private record Stored(Entry entry, long loadedAt) {
+    }
+
+    private final LruCache<Key, Stored> cache;
+    private final long ttlMs;
+    private final long denialTtlMs;
+
+    // Bumped on every invalidation so a lookup that raced with one does not store a stale result
+    private final AtomicLong generation = new AtomicLong();
+
+    public PermissionCache(@Value("${permission-cache.max-entries:10000}") int maxEntries,
+                           @Value("${permission-cache.ttl-ms:30000}") long ttlMs,
+                           @Value("${permission-cache.denial-ttl-ms:5000}") long denialTtlMs,
+                           MeterRegistry meterRegistry) {
+        this.cache = new LruCache<>(maxEntries);
+        this.ttlMs = ttlMs;
+        this.denialTtlMs = Math.min(denialTtlMs, ttlMs);
+        FunctionCounter.builder("permission.cache.hits", cache, LruCache::hits).register(meterRegistry);
+        FunctionCounter.builder("permission.cache.misses", cache, LruCache::misses).register(meterRegistry);
+        FunctionCounter.builder("permission.cache.evictions", cache, LruCache::evictions).register(meterRegistry);
+        Gauge.builder("permission.cache.size", cache, LruCache::size).register(meterRegistry);
+    }
+
+    public Entry get(Long userId, Long nodeId) {
+        Key key = new Key(userId, nodeId);
+        Stored stored = cache.get(key);
+        if (stored == null) {
+            return null;
+        }
+        long ttl = stored.entry().permission() == null ? denialTtlMs : ttlMs;
+        if (System.currentTimeMillis() - stored.loadedAt() >= ttl) {
+            cache.remove(key);
+            return null;
+        }
+        return stored.entry();
+    }
+
+    public long generation() {
+        return generation.get();
+    }
+
+    // Stores the result only if nothing was invalidated since the lookup started
+    public void put(Long userId, Long nodeId, Entry entry, long startedAt) {
+        if (generation.get() == startedAt) {
+            cache.put(new Key(userId, nodeId), new Stored(entry, System.currentTimeMillis()));
+        }
+    }
+
+    // A new grant for one user on a subtree
+    public void evictSubtreeForUser(Long userId, String pathPrefix) {
+        evict((key, entry) -> key.userId().equals(userId) && entry.path().startsWith(pathPrefix));
+    }
+
+    // Subtree moved, deleted or changed owner: every user's view of it is stale
+    public void evictSubtree(String pathPrefix) {
+        evict((key, entry) -> entry.path().startsWith(pathPrefix));
+    }
+
+    // Evict now, and again once the surrounding transaction commits: a lookup running in between
+    // still sees the old rows and could otherwise cache them again.
+    private void evict(BiPredicate<Key, Entry> matches) {
+        BiPredicate<Key, Stored> predicate = (key, stored) -> matches.test(key, stored.entry());
+        generation.incrementAndGet();
+        cache.removeIf(predicate);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    generation.incrementAndGet();
+                    cache.removeIf(predicate);
+                }
+            });
+        }
+    }
+}
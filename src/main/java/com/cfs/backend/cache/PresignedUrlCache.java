@@ -0,0 +1,49 @@
+package com.cfs.backend.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+// Presigned GET URLs per storage path. A URL is handed out again until it gets close to
+// expiry, so the caller always has at least refreshBefore left to use it.
+@Component
+public class PresignedUrlCache {
+
+    public record Entry(String url, Instant expiresAt) {
+    }
+
+    private final LruCache<String, Entry> cache;
+    private final Duration refreshBefore;
+
+    public PresignedUrlCache(@Value("${presign-cache.max-entries:10000}") int maxEntries,
+                             @Value("${presign-cache.refresh-before-seconds:120}") long refreshBeforeSeconds,
+                             MeterRegistry meterRegistry) {
+        this.cache = new LruCache<>(maxEntries);
+        this.refreshBefore = Duration.ofSeconds(refreshBeforeSeconds);
+        FunctionCounter.builder("presign.cache.hits", cache, LruCache::hits).register(meterRegistry);
+        FunctionCounter.builder("presign.cache.misses", cache, LruCache::misses).register(meterRegistry);
+        FunctionCounter.builder("presign.cache.evictions", cache, LruCache::evictions).register(meterRegistry);
+        Gauge.builder("presign.cache.size", cache, LruCache::size).register(meterRegistry);
+    }
+
+    // Two threads missing at once both sign; the later put wins, and both URLs are valid
+    public Entry get(String storagePath, Supplier<Entry> presign) {
+        Entry cached = cache.get(storagePath);
+        if (cached != null && Instant.now().plus(refreshBefore).isBefore(cached.expiresAt())) {
+            return cached;
+        }
+        Entry fresh = presign.get();
+        cache.put(storagePath, fresh);
+        return fresh;
+    }
+
+    public void evict(String storagePath) {
+        cache.remove(storagePath);
+    }
+}
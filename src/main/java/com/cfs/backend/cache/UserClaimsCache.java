@@ -0,0 +1,54 @@
+package com.cfs.backend.cache;
+
+import com.cfs.backend.entity.User;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+// Per-node cache of what a token's user id stands for (username, quota), so a stateless request
+// does not read the users table every time. Entries expire after a short TTL, which bounds how
+// long a quota change takes to be seen.
+@Component
+public class UserClaimsCache {
+
+    private record Entry(User user, long loadedAt) {
+    }
+
+    private final LruCache<Long, Entry> cache;
+    private final long ttlMs;
+
+    public UserClaimsCache(@Value("${user-claims-cache.max-entries:10000}") int maxEntries,
+                           @Value("${user-claims-cache.ttl-ms:60000}") long ttlMs,
+                           MeterRegistry meterRegistry) {
+        this.cache = new LruCache<>(maxEntries);
+        this.ttlMs = ttlMs;
+        FunctionCounter.builder("user.claims.cache.hits", cache, LruCache::hits).register(meterRegistry);
+        FunctionCounter.builder("user.claims.cache.misses", cache, LruCache::misses).register(meterRegistry);
+        FunctionCounter.builder("user.claims.cache.evictions", cache, LruCache::evictions).register(meterRegistry);
+        Gauge.builder("user.claims.cache.size", cache, LruCache::size).register(meterRegistry);
+    }
+
+    // loader returns null for a user that no longer exists; that is not cached
+    public User get(Long userId, Supplier<User> loader) {
+        Entry entry = cache.get(userId);
+        long now = System.currentTimeMillis();
+        if (entry != null && now - entry.loadedAt() < ttlMs) {
+            return entry.user();
+        }
+        User user = loader.get();
+        if (user == null) {
+            cache.remove(userId);
+            return null;
+        }
+        cache.put(userId, new Entry(user, now));
+        return user;
+    }
+
+    public void evict(Long userId) {
+        cache.remove(userId);
+    }
+}
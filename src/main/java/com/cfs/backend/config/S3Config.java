@@ -6,7 +6,9 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
@@ -25,6 +27,15 @@ public class S3Config {
     @Value("${minio.secret.key:minioadmin}")
     private String secretKey;
 
+    @Value("${storage.async.max-connections:64}")
+    private int asyncMaxConnections;
+
+    @Value("${storage.multipart.threshold:67108864}")
+    private long multipartThreshold;
+
+    @Value("${storage.multipart.part-size:16777216}")
+    private long multipartPartSize;
+
     @Bean
     public S3Client getS3Client() {
         return S3Client.builder()
@@ -37,6 +48,25 @@ public class S3Config {
                 .build();
     }
 
+    // Non-blocking client on Netty: requests wait on an event loop, not on a thread each. Large
+    // uploads and copies are split into parts by the client, at the same sizes as the blocking path.
+    @Bean
+    public S3AsyncClient getS3AsyncClient() {
+        return S3AsyncClient.builder()
+                .endpointOverride(URI.create(minioUrl))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(accessKey,secretKey)
+                ))
+                .region(Region.US_EAST_1)
+                .forcePathStyle(true)
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder().maxConcurrency(asyncMaxConnections))
+                .multipartEnabled(true)
+                .multipartConfiguration(multipart -> multipart
+                        .thresholdInBytes(multipartThreshold)
+                        .minimumPartSizeInBytes(multipartPartSize))
+                .build();
+    }
+
     // Create temporary download links
     @Bean
     public S3Presigner getS3Presigner() {
@@ -1,12 +1,13 @@
 package com.cfs.backend.controller;
 
+import com.cfs.backend.dto.CurrentUserResponse;
 import com.cfs.backend.dto.SignUpRequest;
 import com.cfs.backend.entity.FileNode;
 import com.cfs.backend.entity.User;
-import com.cfs.backend.repo.FileNodeRepo;
 import com.cfs.backend.repo.UserRepo;
 
 import com.cfs.backend.security.SecurityUser;
+import com.cfs.backend.services.FileTreeService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
@@ -23,7 +24,7 @@ public class AuthController {
 
      private final UserRepo userRepo;
      private final PasswordEncoder passwordEncoder;
-     private final FileNodeRepo fileNodeRepo;
+     private final FileTreeService fileTreeService;
 
 
 
@@ -43,10 +44,9 @@ public class AuthController {
             rootfolder.setIsDirectory(true);
             rootfolder.setFileSize(0L);
             rootfolder.setOwner(savedUser);
-            rootfolder.setParent(null);
             rootfolder.setIsLocked(false);
             rootfolder.setDeleted(false);
-            FileNode savedFileNode = fileNodeRepo.save(rootfolder);
+            FileNode savedFileNode = fileTreeService.attach(rootfolder, null);
             savedUser.setRootFolder(savedFileNode);
             userRepo.save(savedUser);
             return ResponseEntity.ok("User registered successfully");
@@ -58,7 +58,9 @@ public class AuthController {
         if(securityUser == null){
             return ResponseEntity.status(400).body("User not Logged In");
         }
-        return ResponseEntity.ok(securityUser.getUser());
+        return userRepo.findById(securityUser.getUser().getId())
+                .<ResponseEntity<?>>map(user -> ResponseEntity.ok(CurrentUserResponse.from(user)))
+                .orElseGet(() -> ResponseEntity.status(400).body("User not Logged In"));
     }
 
 }
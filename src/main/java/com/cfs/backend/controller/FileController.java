@@ -1,36 +1,82 @@
 package com.cfs.backend.controller;
 
+import com.cfs.backend.cache.PresignedUrlCache;
 import com.cfs.backend.dto.AccessRequest;
+import com.cfs.backend.dto.BatchDownloadRequest;
+import com.cfs.backend.dto.BatchOperationRequest;
+import com.cfs.backend.dto.DirectoryPage;
+import com.cfs.backend.dto.DownloadUrlResponse;
+import com.cfs.backend.dto.FileNodeSummary;
+import com.cfs.backend.dto.FolderSizeResponse;
+import com.cfs.backend.dto.ImportRequest;
+import com.cfs.backend.dto.ImportResponse;
 import com.cfs.backend.dto.LockRequest;
+import com.cfs.backend.dto.PurgeJobResponse;
 import com.cfs.backend.dto.RenameRequest;
 import com.cfs.backend.dto.ShareRequest;
+import com.cfs.backend.dto.SharedItem;
+import com.cfs.backend.dto.SharedPage;
+import com.cfs.backend.dto.StoredObject;
+import com.cfs.backend.dto.SubtreeTotals;
 import com.cfs.backend.entity.FileNode;
 import com.cfs.backend.entity.PermissionType;
+import com.cfs.backend.entity.PurgeJob;
 import com.cfs.backend.entity.SharePermission;
 import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileAccessLogRepo;
 import com.cfs.backend.repo.FileNodeRepo;
+import com.cfs.backend.repo.PurgeJobRepo;
 import com.cfs.backend.repo.SharePermissionRepo;
 import com.cfs.backend.repo.UserRepo;
 import com.cfs.backend.security.SecurityUser;
+import com.cfs.backend.services.AccessLogService;
+import com.cfs.backend.services.AccessService;
+import com.cfs.backend.services.BatchOperationService;
+import com.cfs.backend.services.BlobService;
+import com.cfs.backend.services.CopyService;
+import com.cfs.backend.services.DirectoryListingService;
+import com.cfs.backend.services.FileTreeService;
+import com.cfs.backend.services.FolderArchiveService;
+import com.cfs.backend.services.ProxyDownloadService;
+import com.cfs.backend.services.QuotaService;
+import com.cfs.backend.services.PurgeService;
+import com.cfs.backend.services.SearchIndexService;
 import com.cfs.backend.services.StorageService;
+import com.cfs.backend.services.TrashService;
+import com.cfs.backend.services.TreeImportService;
+import com.cfs.backend.services.UnlockGrantService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/files")
@@ -38,19 +84,43 @@ import java.util.Optional;
 @Slf4j
 public class FileController {
 
+    private static final int MAX_BATCH_DOWNLOAD = 500;
+    private static final int MAX_BATCH_ITEMS = 1000;
+    private static final int MAX_SHARED_PAGE_SIZE = 500;
+
     private final FileNodeRepo fileNodeRepo;
+    private final FileAccessLogRepo fileAccessLogRepo;
     private final StorageService storageService;
     private final UserRepo userRepo;
     private final SharePermissionRepo sharePermissionRepo;
     private final PasswordEncoder passwordEncoder;
-
+    private final AccessService accessService;
+    private final FileTreeService fileTreeService;
+    private final TrashService trashService;
+    private final PurgeService purgeService;
+    private final PurgeJobRepo purgeJobRepo;
+    private final TransactionTemplate transactionTemplate;
+    private final BlobService blobService;
+    private final FolderArchiveService folderArchiveService;
+    private final ProxyDownloadService proxyDownloadService;
+    private final SearchIndexService searchIndexService;
+    private final DirectoryListingService directoryListingService;
+    private final QuotaService quotaService;
+    private final BatchOperationService batchOperationService;
+    private final CopyService copyService;
+    private final AccessLogService accessLogService;
+    private final UnlockGrantService unlockGrantService;
+    private final TreeImportService treeImportService;
+
+    // No transaction is held while the object is written; the quota and the node are written
+    // together afterwards
     @PostMapping("/upload")
-    @Transactional
     public ResponseEntity<String> uploadFile(
             @AuthenticationPrincipal SecurityUser securityUser,
             @RequestParam("file") MultipartFile file,
             @RequestParam("parentId") Long parentId,
-            @RequestParam(name = "password", required = false) String password) {
+            @RequestParam(name = "password", required = false) String password,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
 
         if (securityUser == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
@@ -68,32 +138,259 @@ public class FileController {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You do not have edit permissions for this folder");
             }
 
-            FileNode lockedParent = findFirstLockedParent(parentFolder);
+            FileNode lockedParent = accessService.findFirstLocked(parentFolder);
             if (lockedParent != null) {
-                if (password == null || !passwordEncoder.matches(password, lockedParent.getFolderPassword())) {
+                if (!unlockGrantService.unlocks(user, lockedParent, password, unlockGrant)) {
                     return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
                 }
             }
 
-            if (user.getStorageUsed() + file.getSize() > user.getStorageAlloted()) {
+            if (!quotaService.fits(user, file.getSize())) {
                 return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body("Not enough storage");
             }
 
-            String storagePath = storageService.uploadFile(file, user.getId());
-            FileNode newFile = new FileNode();
-            newFile.setFileName(file.getOriginalFilename());
-            newFile.setIsDirectory(false);
-            newFile.setFileSize(file.getSize());
-            newFile.setMimeType(file.getContentType());
-            newFile.setStoragePath(storagePath);
-            newFile.setOwner(user);
-            newFile.setParent(parentFolder);
-            newFile.setDeleted(false);
-            newFile.setIsLocked(false);
-
-            FileNode savedfile = fileNodeRepo.save(newFile);
-            user.setStorageUsed(user.getStorageUsed() + file.getSize());
-            userRepo.save(user);
+            StoredObject stored = blobService.storeUpload(file, user.getId());
+            String error;
+            try {
+                error = transactionTemplate.execute(status -> {
+                    if (!quotaService.reserve(user.getId(), file.getSize())) {
+                        return "Not enough storage";
+                    }
+                    FileNode newFile = new FileNode();
+                    newFile.setFileName(file.getOriginalFilename());
+                    newFile.setIsDirectory(false);
+                    newFile.setFileSize(file.getSize());
+                    newFile.setMimeType(file.getContentType());
+                    newFile.setStoragePath(stored.storagePath());
+                    newFile.setContentHash(stored.contentHash());
+                    newFile.setOwner(user);
+                    newFile.setDeleted(false);
+                    newFile.setIsLocked(false);
+                    fileTreeService.attach(newFile, parentFolder);
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                blobService.discard(stored);
+                throw e;
+            }
+            if (error != null) {
+                blobService.discard(stored);
+                return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(error);
+            }
+            return ResponseEntity.status(200).body("File uploaded successfully");
+
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    // The same upload without holding a request thread while the file is hashed and written: the
+    // access and quota checks run here, then the request is suspended until the object is stored
+    // and the node is saved. Answers 503 when too many storage writes are already in flight.
+    @PostMapping("/upload/async")
+    public CompletableFuture<ResponseEntity<String>> uploadFileAsync(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("parentId") Long parentId,
+            @RequestParam(name = "password", required = false) String password,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
+        if (securityUser == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in"));
+        }
+        if (file.isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST).body("File is empty"));
+        }
+
+        try {
+            User user = securityUser.getUser();
+            FileNode parentFolder = fileNodeRepo.findById(parentId)
+                    .orElseThrow(() -> new RuntimeException("Parent folder not found"));
+
+            if (!hasAccess(user, parentFolder, PermissionType.EDIT)) {
+                return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.FORBIDDEN).body("You do not have edit permissions for this folder"));
+            }
+
+            FileNode lockedParent = accessService.findFirstLocked(parentFolder);
+            if (lockedParent != null) {
+                if (!unlockGrantService.unlocks(user, lockedParent, password, unlockGrant)) {
+                    return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid"));
+                }
+            }
+
+            if (!quotaService.fits(user, file.getSize())) {
+                return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body("Not enough storage"));
+            }
+
+            return blobService.storeUploadAsync(file, user.getId())
+                    .thenApply(stored -> {
+                        FileNode saved;
+                        try {
+                            saved = transactionTemplate.execute(status -> {
+                                if (!quotaService.reserve(user.getId(), file.getSize())) {
+                                    return null;
+                                }
+                                FileNode newFile = new FileNode();
+                                newFile.setFileName(file.getOriginalFilename());
+                                newFile.setIsDirectory(false);
+                                newFile.setFileSize(file.getSize());
+                                newFile.setMimeType(file.getContentType());
+                                newFile.setStoragePath(stored.storagePath());
+                                newFile.setContentHash(stored.contentHash());
+                                newFile.setOwner(user);
+                                newFile.setDeleted(false);
+                                newFile.setIsLocked(false);
+                                try {
+                                    return fileTreeService.attach(newFile, fileNodeRepo.findById(parentId)
+                                            .orElseThrow(() -> new RuntimeException("Parent folder not found")));
+                                } catch (RuntimeException e) {
+                                    quotaService.release(user.getId(), file.getSize());
+                                    throw e;
+                                }
+                            });
+                        } catch (RuntimeException e) {
+                            blobService.discard(stored);
+                            throw e;
+                        }
+                        if (saved == null) {
+                            blobService.discard(stored);
+                            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body("Not enough storage");
+                        }
+                        return ResponseEntity.status(200).body("File uploaded successfully");
+                    })
+                    .exceptionally(ex -> {
+                        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                        if (cause instanceof RejectedExecutionException) {
+                            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(cause.getMessage());
+                        }
+                        log.warn("Async upload failed", cause);
+                        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(cause.getMessage());
+                    });
+
+        } catch (Exception ex) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage()));
+        }
+    }
+
+    // A whole directory tree in one request: a JSON manifest part plus one part per file whose
+    // content is uploaded; content the caller can already read can be given by sha256 instead.
+    @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> importTree(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestPart("manifest") ImportRequest manifest,
+            @RequestParam Map<String, MultipartFile> parts,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+
+        try {
+            User user = securityUser.getUser();
+            FileNode parentFolder = fileNodeRepo.findById(manifest.getParentId())
+                    .orElseThrow(() -> new RuntimeException("Parent folder not found"));
+
+            if (!parentFolder.getIsDirectory()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Parent is not a folder");
+            }
+            if (!hasAccess(user, parentFolder, PermissionType.EDIT)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You do not have edit permissions for this folder");
+            }
+
+            FileNode lockedParent = accessService.findFirstLocked(parentFolder);
+            if (!unlockGrantService.unlocks(user, lockedParent, manifest.getPassword(), unlockGrant)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
+            }
+
+            ImportResponse imported = treeImportService.importTree(user, parentFolder, manifest.getEntries(), parts);
+            if (imported == null) {
+                return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body("Not enough storage");
+            }
+            return ResponseEntity.ok(imported);
+
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    // Raw request body upload: the body is piped to storage as it arrives instead of being
+    // spooled by the multipart resolver first. No transaction is held while bytes stream.
+    @PutMapping("/upload/stream")
+    public ResponseEntity<String> uploadStream(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestParam("parentId") Long parentId,
+            @RequestParam("fileName") String fileName,
+            @RequestParam(name = "password", required = false) String password,
+            HttpServletRequest request,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        long contentLength = request.getContentLengthLong();
+        if (contentLength < 0) {
+            return ResponseEntity.status(HttpStatus.LENGTH_REQUIRED).body("Content-Length is required");
+        }
+        if (contentLength == 0) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("File is empty");
+        }
+        String name = fileName.trim();
+        if (name.isEmpty() || name.contains("/") || name.contains("\\")) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Name cannot contain '/' or '\\'");
+        }
+
+        try {
+            User user = securityUser.getUser();
+            FileNode parentFolder = fileNodeRepo.findById(parentId)
+                    .orElseThrow(() -> new RuntimeException("Parent folder not found"));
+
+            if (!hasAccess(user, parentFolder, PermissionType.EDIT)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You do not have edit permissions for this folder");
+            }
+
+            FileNode lockedParent = accessService.findFirstLocked(parentFolder);
+            if (lockedParent != null) {
+                if (!unlockGrantService.unlocks(user, lockedParent, password, unlockGrant)) {
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
+                }
+            }
+
+            // Up front from the declared length...
+            if (!quotaService.fits(user, contentLength)) {
+                return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body("Not enough storage");
+            }
+
+            StoredObject stored = blobService.storeStream(request.getInputStream(), contentLength,
+                    request.getContentType(), name, user.getId());
+
+            // ...and reserved for real at end of stream, against usage that may have moved meanwhile
+            String error;
+            try {
+                error = transactionTemplate.execute(status -> {
+                    if (!quotaService.reserve(user.getId(), contentLength)) {
+                        return "Not enough storage";
+                    }
+                    FileNode newFile = new FileNode();
+                    newFile.setFileName(name);
+                    newFile.setIsDirectory(false);
+                    newFile.setFileSize(contentLength);
+                    newFile.setMimeType(request.getContentType());
+                    newFile.setStoragePath(stored.storagePath());
+                    newFile.setContentHash(stored.contentHash());
+                    newFile.setOwner(user);
+                    newFile.setDeleted(false);
+                    newFile.setIsLocked(false);
+                    fileTreeService.attach(newFile, parentFolder);
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                blobService.discard(stored);
+                throw e;
+            }
+            if (error != null) {
+                blobService.discard(stored);
+                return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body(error);
+            }
             return ResponseEntity.status(200).body("File uploaded successfully");
 
         } catch (Exception ex) {
@@ -105,7 +402,8 @@ public class FileController {
     public ResponseEntity<?> listContent(
             @AuthenticationPrincipal SecurityUser securityUser,
             @RequestParam("parentId") Long parentId,
-            @RequestBody(required = false) AccessRequest request) {
+            @RequestBody(required = false) AccessRequest request,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
 
         if (securityUser == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged In");
@@ -122,12 +420,13 @@ public class FileController {
 
             if (Boolean.TRUE.equals(parentFolder.getIsLocked())) {
                 String password = (request != null) ? request.getPassword() : null;
-                if (password == null || !passwordEncoder.matches(password, parentFolder.getFolderPassword())) {
+                if (!unlockGrantService.unlocks(user, parentFolder, password, unlockGrant)) {
                     return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
                 }
             }
 
             List<FileNode> content = fileNodeRepo.findByOwnerAndParent(user, parentFolder);
+            accessLogService.record(user, parentFolder);
             return ResponseEntity.status(200).body(content);
 
         } catch (Exception ex) {
@@ -135,11 +434,56 @@ public class FileController {
         }
     }
 
+    // Paged listing of every live child of a folder. Pass nextCursor back as cursor for the
+    // following page; sort and dir only matter for the first one.
+    @PostMapping("/list/page")
+    public ResponseEntity<?> listContentPage(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestParam("parentId") Long parentId,
+            @RequestParam(defaultValue = "name") String sort,
+            @RequestParam(defaultValue = "asc") String dir,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "100") int size,
+            @RequestBody(required = false) AccessRequest request,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged In");
+        }
+
+        try {
+            User user = securityUser.getUser();
+            FileNode parentFolder = fileNodeRepo.findById(parentId)
+                    .orElseThrow(() -> new RuntimeException("Folder not found"));
+
+            if (!hasAccess(user, parentFolder, PermissionType.VIEW)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You are not authorized");
+            }
+
+            FileNode locked = accessService.findFirstLocked(parentFolder);
+            if (locked != null) {
+                String password = (request != null) ? request.getPassword() : null;
+                if (!unlockGrantService.unlocks(user, locked, password, unlockGrant)) {
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
+                }
+            }
+
+            DirectoryPage page = directoryListingService.list(parentFolder, sort, "desc".equalsIgnoreCase(dir),
+                    cursor, size);
+            accessLogService.record(user, parentFolder);
+            return ResponseEntity.ok(page);
+
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
     @PostMapping("/download/{fileId}")
     public ResponseEntity<?> downloadFile(
             @PathVariable Long fileId,
             @AuthenticationPrincipal SecurityUser securityUser,
-            @RequestBody(required = false) AccessRequest request) {
+            @RequestBody(required = false) AccessRequest request,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
 
         if (securityUser == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
@@ -161,15 +505,16 @@ public class FileController {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("This file is Deleted");
             }
 
-            FileNode lockedParent = findFirstLockedParent(file.getParent());
+            FileNode lockedParent = accessService.findFirstLockedAncestor(file);
             if (lockedParent != null) {
                 String password = (request != null) ? request.getPassword() : null;
-                if (password == null || !passwordEncoder.matches(password, lockedParent.getFolderPassword())) {
+                if (!unlockGrantService.unlocks(user, lockedParent, password, unlockGrant)) {
                     return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
                 }
             }
 
             String downloadUrl = storageService.generateDownloadUrl(file.getStoragePath());
+            accessLogService.record(user, file);
 
             return ResponseEntity.status(HttpStatus.FOUND)
                     .location(URI.create(downloadUrl))
@@ -179,6 +524,189 @@ public class FileController {
         }
     }
 
+    // File bytes served through the app, with Range support, for clients that cannot reach
+    // storage. A GET carries no body, so the lock password comes in a header.
+    @GetMapping("/{fileId}/content")
+    public ResponseEntity<?> streamFile(
+            @PathVariable Long fileId,
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestHeader(name = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(name = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @RequestHeader(name = "X-Folder-Password", required = false) String password,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        try {
+            User user = securityUser.getUser();
+            FileNode file = fileNodeRepo.findById(fileId)
+                    .orElseThrow(() -> new RuntimeException("File not found"));
+
+            if (!hasAccess(user, file, PermissionType.VIEW)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You are not authorized");
+            }
+            if (file.getIsDirectory()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("You can not download a Folder");
+            }
+            if (file.isDeleted()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("This file is Deleted");
+            }
+
+            FileNode lockedParent = accessService.findFirstLockedAncestor(file);
+            if (lockedParent != null) {
+                if (!unlockGrantService.unlocks(user, lockedParent, password, unlockGrant)) {
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
+                }
+            }
+
+            accessLogService.record(user, file);
+            return proxyDownloadService.serve(file, range, ifRange);
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    // Read from the folder's rollup; nothing below it is scanned
+    @GetMapping("/{folderId}/size")
+    public ResponseEntity<?> folderSize(
+            @PathVariable Long folderId,
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestHeader(name = "X-Folder-Password", required = false) String password,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        try {
+            User user = securityUser.getUser();
+            FileNode folder = fileNodeRepo.findById(folderId)
+                    .orElseThrow(() -> new RuntimeException("Folder not found"));
+
+            if (!hasAccess(user, folder, PermissionType.VIEW)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You are not authorized");
+            }
+            if (!folder.getIsDirectory()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("It is not folder");
+            }
+
+            FileNode lockedParent = accessService.findFirstLocked(folder);
+            if (lockedParent != null) {
+                if (!unlockGrantService.unlocks(user, lockedParent, password, unlockGrant)) {
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
+                }
+            }
+
+            SubtreeTotals totals = fileTreeService.subtreeTotals(folder);
+            return ResponseEntity.ok(new FolderSizeResponse(folder.getId(), totals.size(), totals.count() - 1));
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    // Whole folder as a ZIP, written to the response while the subtree is read
+    @PostMapping("/download-folder/{folderId}")
+    public ResponseEntity<?> downloadFolder(
+            @PathVariable Long folderId,
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestBody(required = false) AccessRequest request,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        try {
+            User user = securityUser.getUser();
+            FileNode folder = fileNodeRepo.findById(folderId)
+                    .orElseThrow(() -> new RuntimeException("Folder not found"));
+
+            if (!hasAccess(user, folder, PermissionType.VIEW)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You are not authorized");
+            }
+            if (!folder.getIsDirectory()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Not a folder");
+            }
+            if (folder.isDeleted()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("This folder is Deleted");
+            }
+
+            String password = (request != null) ? request.getPassword() : null;
+            FileNode locked = accessService.findFirstLocked(folder);
+            if (locked != null) {
+                if (!unlockGrantService.unlocks(user, locked, password, unlockGrant)) {
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
+                }
+            }
+
+            StreamingResponseBody body = out -> folderArchiveService.writeZip(user, folder, password, unlockGrant, out);
+            accessLogService.record(user, folder);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType("application/zip"))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                            .filename(folder.getFileName() + ".zip", StandardCharsets.UTF_8)
+                            .build().toString())
+                    .body(body);
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    // Presigned URLs for many files at once, e.g. a gallery of thumbnails. Each id gets its own
+    // result; permissions and locks are resolved for the whole list together.
+    @PostMapping("/download/batch")
+    public ResponseEntity<?> downloadFiles(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestBody BatchDownloadRequest request,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        if (request.getFileIds() == null || request.getFileIds().isEmpty()) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("No files requested");
+        }
+        if (request.getFileIds().size() > MAX_BATCH_DOWNLOAD) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("At most " + MAX_BATCH_DOWNLOAD + " files per request");
+        }
+        try {
+            User user = securityUser.getUser();
+            Map<Long, FileNode> files = new HashMap<>();
+            fileNodeRepo.findAllById(request.getFileIds()).forEach(file -> files.put(file.getId(), file));
+            List<FileNode> found = new ArrayList<>(files.values());
+            Map<Long, PermissionType> permissions = accessService.resolvePermissions(user, found);
+            Map<Long, FileNode> lockedParents = accessService.findFirstLockedAncestors(found);
+
+            // Each distinct lock is checked once; bcrypt is the expensive part here
+            Map<Long, Boolean> unlocked = new HashMap<>();
+            List<DownloadUrlResponse> results = new ArrayList<>();
+            List<FileNode> granted = new ArrayList<>();
+            for (Long fileId : request.getFileIds()) {
+                FileNode file = files.get(fileId);
+                PermissionType permission = file == null ? null : permissions.get(fileId);
+                if (file == null) {
+                    results.add(DownloadUrlResponse.failed(fileId, "File not found"));
+                } else if (permission == null || !accessService.hasSufficientPermission(permission, PermissionType.VIEW)) {
+                    results.add(DownloadUrlResponse.failed(fileId, "You are not authorized"));
+                } else if (file.getIsDirectory()) {
+                    results.add(DownloadUrlResponse.failed(fileId, "You can not download a Folder"));
+                } else if (file.isDeleted()) {
+                    results.add(DownloadUrlResponse.failed(fileId, "This file is Deleted"));
+                } else if (lockedParents.containsKey(fileId) && !unlocked.computeIfAbsent(lockedParents.get(fileId).getId(),
+                        id -> unlockGrantService.unlocks(user, lockedParents.get(fileId), request.getPassword(), unlockGrant))) {
+                    results.add(DownloadUrlResponse.failed(fileId, "Password required or invalid"));
+                } else {
+                    PresignedUrlCache.Entry url = storageService.presignDownload(file.getStoragePath());
+                    results.add(new DownloadUrlResponse(fileId, url.url(), url.expiresAt(), null));
+                    granted.add(file);
+                }
+            }
+            accessLogService.record(user, granted);
+            return ResponseEntity.ok(results);
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
     @GetMapping("/recent")
     public ResponseEntity<?> getRecentFiles(@AuthenticationPrincipal SecurityUser securityUser) {
         if (securityUser == null) {
@@ -186,8 +714,12 @@ public class FileController {
         }
         try {
             User user = securityUser.getUser();
-            Pageable pageable = PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "id"));
-            List<FileNode> recentFiles = fileNodeRepo.findByOwnerAndIsDirectoryFalseAndIsDeletedFalse(user, pageable);
+            List<FileNode> accessed = fileAccessLogRepo.findRecentFilesForUser(user, PageRequest.of(0, 10));
+            // A share may have been revoked since the access
+            Map<Long, PermissionType> permissions = accessService.resolvePermissions(user, accessed);
+            List<FileNode> recentFiles = accessed.stream()
+                    .filter(file -> permissions.get(file.getId()) != null)
+                    .toList();
             return ResponseEntity.ok(recentFiles);
 
         } catch (Exception ex) {
@@ -196,11 +728,13 @@ public class FileController {
     }
 
     @PatchMapping("/")
+    @Transactional
     public ResponseEntity<?> renameFile(
             @AuthenticationPrincipal SecurityUser securityUser,
             @RequestParam("fileId") Long fileId,
             @RequestBody RenameRequest renameRequest,
-            @RequestParam(name = "password", required = false) String password) {
+            @RequestParam(name = "password", required = false) String password,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
 
         if (securityUser == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
@@ -214,9 +748,9 @@ public class FileController {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You do not have edit permissions for this file");
         }
 
-        FileNode lockedParent = findFirstLockedParent(file.getParent());
+        FileNode lockedParent = accessService.findFirstLockedAncestor(file);
         if (lockedParent != null) {
-            if (password == null || !passwordEncoder.matches(password, lockedParent.getFolderPassword())) {
+            if (!unlockGrantService.unlocks(user, lockedParent, password, unlockGrant)) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
             }
         }
@@ -233,6 +767,7 @@ public class FileController {
             }
             file.setFileName(newName);
             FileNode updatedNode = fileNodeRepo.save(file);
+            searchIndexService.reindex(updatedNode);
             return ResponseEntity.ok(updatedNode);
         } catch (Exception ex) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
@@ -244,7 +779,8 @@ public class FileController {
     public ResponseEntity<?> deleteFile(
             @PathVariable Long fileId,
             @AuthenticationPrincipal SecurityUser securityUser,
-            @RequestParam(name = "password", required = false) String password) {
+            @RequestParam(name = "password", required = false) String password,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
 
         if (securityUser == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
@@ -262,16 +798,15 @@ public class FileController {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("This file is Deleted");
             }
 
-            FileNode lockedParent = findFirstLockedParent(file.getParent());
+            FileNode lockedParent = accessService.findFirstLockedAncestor(file);
             if (lockedParent != null) {
-                if (password == null || !passwordEncoder.matches(password, lockedParent.getFolderPassword())) {
+                if (!unlockGrantService.unlocks(user, lockedParent, password, unlockGrant)) {
                     return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
                 }
             }
 
-            long totalSizeDeleted = softDelete(file, user);
-            user.setStorageUsed(user.getStorageUsed() - totalSizeDeleted);
-            userRepo.save(user);
+            long totalSizeDeleted = trashService.softDelete(file, user);
+            quotaService.release(user.getId(), totalSizeDeleted);
             return ResponseEntity.status(HttpStatus.OK).body("File Deleted Successfully");
 
         } catch (Exception ex) {
@@ -279,28 +814,8 @@ public class FileController {
         }
     }
 
-    private long softDelete(FileNode file, User user) {
-        if (file.isDeleted()) {
-            return 0;
-        }
-        long totalSizeDeleted = 0;
-        if (file.getIsDirectory()) {
-            log.info("Deleting folder: " + file.getId());
-            List<FileNode> folderToDelete = fileNodeRepo.findByParentAndOwnerAndIsDeletedFalse(file, user);
-            for (FileNode folder : folderToDelete) {
-                totalSizeDeleted += softDelete(folder, user);
-            }
-        } else {
-            log.info("Deleting file: " + file.getId());
-            totalSizeDeleted = file.getFileSize();
-        }
-        file.setDeleted(true);
-        file.setDeletedAt(Instant.now());
-        fileNodeRepo.save(file);
-        return totalSizeDeleted;
-    }
-
     @PatchMapping("/{fileId}/restore")
+    @Transactional
     public ResponseEntity<?> restoreFile(@PathVariable Long fileId, @AuthenticationPrincipal SecurityUser securityUser) {
         if (securityUser == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
@@ -316,65 +831,33 @@ public class FileController {
             if (!file.isDeleted()) {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("File is not Trashed");
             }
+            if (file.getPurgeJobId() != null) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("File is being permanently deleted");
+            }
 
             FileNode parent = file.getParent();
             if (parent != null && parent.isDeleted()) {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Restore folder to Restore file");
             }
-            long totalRestoreSize = getRestoreSize(user, file);
-            long availableSize = user.getStorageAlloted() - user.getStorageUsed();
-            if (totalRestoreSize > availableSize) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Not enough storage . Required : " + (totalRestoreSize + availableSize));
+            long totalRestoreSize = trashService.getRestoreSize(file, user);
+            if (!quotaService.reserve(user.getId(), totalRestoreSize)) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Not enough storage . Required : " + totalRestoreSize);
             }
-            privateRecursiveRestore(file, user);
-            user.setStorageUsed(totalRestoreSize + user.getStorageUsed());
-            userRepo.save(user);
+            trashService.restore(file, user);
             return ResponseEntity.status(HttpStatus.OK).body("File Restored Successfully");
         } catch (Exception ex) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
         }
     }
 
-    private void privateRecursiveRestore(FileNode file, User user) {
-        if (!file.isDeleted()) {
-            return;
-        }
-        file.setDeleted(false);
-        file.setDeletedAt(null);
-        fileNodeRepo.save(file);
-        if (file.getIsDirectory()) {
-            List<FileNode> folderToRestore = fileNodeRepo.findByParentAndOwner(file, user);
-            for (FileNode child : folderToRestore) {
-                if (child.isDeleted()) {
-                    privateRecursiveRestore(child, user);
-                }
-            }
-        }
-    }
-
-    private long getRestoreSize(User user, FileNode file) {
-        if (!file.isDeleted()) {
-            return 0;
-        }
-        long totalSize = 0;
-        if (file.getIsDirectory()) {
-            List<FileNode> folderToDelete = fileNodeRepo.findByParentAndOwner(file, user);
-            for (FileNode folder : folderToDelete) {
-                totalSize += getRestoreSize(user, folder);
-            }
-        } else {
-            totalSize = file.getFileSize();
-        }
-        return totalSize;
-    }
-
     @Transactional
     @PutMapping("/{fileId}/move")
     public ResponseEntity<?> moveFile(
             @AuthenticationPrincipal SecurityUser securityUser,
             @PathVariable Long fileId,
             @RequestParam() Long targetFolderId,
-            @RequestParam(name = "password", required = false) String password) {
+            @RequestParam(name = "password", required = false) String password,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
 
         if (securityUser == null) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You are not logged in");
@@ -396,16 +879,17 @@ public class FileController {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You do not have edit permissions for this folder");
             }
 
-            FileNode sourceLockedParent = findFirstLockedParent(file.getParent());
-            FileNode targetLockedParent = findFirstLockedParent(newParent);
+            FileNode sourceLockedParent = accessService.findFirstLockedAncestor(file);
+            FileNode targetLockedParent = accessService.findFirstLocked(newParent);
 
             if (sourceLockedParent != null) {
-                if (password == null || !passwordEncoder.matches(password, sourceLockedParent.getFolderPassword())) {
+                if (!unlockGrantService.unlocks(user, sourceLockedParent, password, unlockGrant)) {
                     return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required for source folder");
                 }
             }
-            if (targetLockedParent != null) {
-                if (password == null || !passwordEncoder.matches(password, targetLockedParent.getFolderPassword())) {
+            // Moving within one locked folder: already checked above
+            if (targetLockedParent != null && !isSameNode(targetLockedParent, sourceLockedParent)) {
+                if (!unlockGrantService.unlocks(user, targetLockedParent, password, unlockGrant)) {
                     return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required for target folder");
                 }
             }
@@ -416,6 +900,9 @@ public class FileController {
             if (isMovingToSameFolder(file, newParent)) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Already in same folder");
             }
+            if (fileTreeService.isInSubtree(newParent, file)) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Can not move a folder into itself");
+            }
 
             Optional<FileNode> existingFile = fileNodeRepo.findByParentAndFileNameAndOwnerAndIsDeletedFalse(newParent, file.getFileName(), user);
 
@@ -423,8 +910,7 @@ public class FileController {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body("File already exists");
             }
 
-            file.setParent(newParent);
-            fileNodeRepo.save(file);
+            fileTreeService.move(file, newParent);
 
             return ResponseEntity.status(HttpStatus.OK).body("File Moved Successfully");
 
@@ -433,18 +919,86 @@ public class FileController {
         }
     }
 
+    // Server-side copy of a file or folder; the copy is named "name (1)" if the name is taken
+    @PostMapping("/{fileId}/copy")
+    public ResponseEntity<?> copyFile(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @PathVariable Long fileId,
+            @RequestParam() Long targetFolderId,
+            @RequestParam(name = "password", required = false) String password,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+
+        try {
+            User user = securityUser.getUser();
+            FileNode file = fileNodeRepo.findById(fileId)
+                    .orElseThrow(() -> new RuntimeException("File not found"));
+
+            if (!hasAccess(user, file, PermissionType.VIEW)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You are not authorized");
+            }
+            if (file.isDeleted() || file.getPurgeJobId() != null) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("This file is Deleted");
+            }
+
+            FileNode newParent = fileNodeRepo.findById(targetFolderId)
+                    .orElseThrow(() -> new RuntimeException("Folder not found"));
+
+            if (!hasAccess(user, newParent, PermissionType.EDIT)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You do not have edit permissions for this folder");
+            }
+
+            FileNode sourceLockedParent = accessService.findFirstLocked(file);
+            FileNode targetLockedParent = accessService.findFirstLocked(newParent);
+
+            if (sourceLockedParent != null) {
+                if (!unlockGrantService.unlocks(user, sourceLockedParent, password, unlockGrant)) {
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required for source folder");
+                }
+            }
+            // Moving within one locked folder: already checked above
+            if (targetLockedParent != null && !isSameNode(targetLockedParent, sourceLockedParent)) {
+                if (!unlockGrantService.unlocks(user, targetLockedParent, password, unlockGrant)) {
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required for target folder");
+                }
+            }
+
+            if (!newParent.getIsDirectory()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("It is not folder");
+            }
+            if (newParent.isDeleted()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("This folder is Deleted");
+            }
+            if (fileTreeService.isInSubtree(newParent, file)) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Can not copy a folder into itself");
+            }
+            if (!quotaService.fits(user, copyService.requiredBytes(file))) {
+                return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body("Not enough storage");
+            }
+
+            FileNode copy = copyService.copy(user, file, newParent, password, unlockGrant);
+            SubtreeTotals rollup = fileNodeRepo.findRollup(copy.getId());
+            return ResponseEntity.ok(new FileNodeSummary(copy.getId(), copy.getFileName(), copy.getIsDirectory(),
+                    copy.getMimeType(), copy.getFileSize(), copy.getIsLocked(), copy.getCreatedAt(),
+                    rollup.size(), rollup.count()));
+
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    private boolean isSameNode(FileNode a, FileNode b) {
+        return b != null && a.getId().equals(b.getId());
+    }
+
     private boolean isMovingToSameFolder(FileNode file, FileNode newParent) {
         if (!file.getIsDirectory()) {
             return false;
         }
-        FileNode currentParent = file.getParent();
-        while (currentParent != null) {
-            if (currentParent.getId().equals(newParent.getId())) {
-                return true;
-            }
-            currentParent = currentParent.getParent();
-        }
-        return false;
+        return fileTreeService.isAncestor(newParent, file);
     }
 
     @Transactional
@@ -463,30 +1017,48 @@ public class FileController {
             if (!file.isDeleted()) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body("It is not Deleted");
             }
-            privateRecursiveHardDelete(file, user);
-            return ResponseEntity.status(HttpStatus.OK).body("File Deleted Successfully");
+            if (file.getPurgeJobId() != null) {
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body(purgeJobRepo.findById(file.getPurgeJobId())
+                        .map(PurgeJobResponse::from)
+                        .orElseThrow(() -> new RuntimeException("Purge job not found")));
+            }
+            PurgeJob job = purgeService.schedule(file, user);
+            if (job == null) {
+                // Another request or the retention sweeper got there first
+                job = purgeJobRepo.findById(fileNodeRepo.findPurgeJobId(file.getId()))
+                        .orElseThrow(() -> new RuntimeException("Purge job not found"));
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body(PurgeJobResponse.from(job));
+            }
+            accessService.onSubtreeChanged(file.getPath());
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(PurgeJobResponse.from(job));
         } catch (Exception ex) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
         }
     }
 
-    private void privateRecursiveHardDelete(FileNode file, User user) {
-
-        if (file.getIsDirectory()) {
-            List<FileNode> child = fileNodeRepo.findByParentAndOwner(file, user);
-            for (FileNode childFile : child) {
-                privateRecursiveHardDelete(childFile, user);
-            }
+    @GetMapping("/purge-jobs/{jobId}")
+    public ResponseEntity<?> getPurgeJob(@AuthenticationPrincipal SecurityUser securityUser, @PathVariable Long jobId) {
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
         }
+        User user = securityUser.getUser();
+        Optional<PurgeJob> job = purgeJobRepo.findById(jobId);
+        if (job.isEmpty() || !job.get().getOwner().getId().equals(user.getId())) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Purge job not found");
+        }
+        return ResponseEntity.ok(PurgeJobResponse.from(job.get()));
+    }
 
-        if (!file.getIsDirectory()) {
-            try {
-                storageService.deleteFile(file.getStoragePath());
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
+    @GetMapping("/dedup-stats")
+    public ResponseEntity<?> getDedupStats(@AuthenticationPrincipal SecurityUser securityUser) {
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        try {
+            return ResponseEntity.ok(blobService.stats(securityUser.getUser()));
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
         }
-        fileNodeRepo.delete(file);
     }
 
     @PostMapping("/{fileId}/share")
@@ -522,48 +1094,155 @@ public class FileController {
         sharePermission.setFileNode(file);
         sharePermission.setSharedWithUser(shareWith);
         sharePermission.setPermissionType(shareRequest.getPermissionType());
+        sharePermission.setSharedAt(Instant.now());
         sharePermissionRepo.save(sharePermission);
+        accessService.onShareGranted(file, shareWith);
 
         return ResponseEntity.status(HttpStatus.OK).body("Share Successfully");
     }
 
-    @GetMapping("/shared-with-me")
-    public ResponseEntity<?> getSharedWithMe(@AuthenticationPrincipal SecurityUser securityUser) {
+    // Multi-select operations: one request for the whole selection, a result per id
+
+    @PostMapping("/batch/delete")
+    public ResponseEntity<?> deleteFiles(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestBody BatchOperationRequest request,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
         if (securityUser == null) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You are not logged in");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
         }
-        User user = securityUser.getUser();
-        List<SharePermission> sharePermissions = sharePermissionRepo.findBySharedWithUser(user);
-        List<FileNode> sharedFiles = sharePermissions.stream()
-                .map(SharePermission::getFileNode)
-                .filter(fileNode -> !fileNode.isDeleted())
-                .toList();
+        String invalid = invalidBatch(request);
+        if (invalid != null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(invalid);
+        }
+        try {
+            return ResponseEntity.ok(batchOperationService.delete(securityUser.getUser(), request.getFileIds(),
+                    request.getPassword(), unlockGrant));
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    @PostMapping("/batch/restore")
+    public ResponseEntity<?> restoreFiles(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestBody BatchOperationRequest request) {
 
-        return ResponseEntity.status(HttpStatus.OK).body(sharedFiles);
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        String invalid = invalidBatch(request);
+        if (invalid != null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(invalid);
+        }
+        try {
+            return ResponseEntity.ok(batchOperationService.restore(securityUser.getUser(), request.getFileIds()));
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
     }
 
-    private boolean hasAccess(User user, FileNode file, PermissionType requiredLevel) {
-        FileNode current = file;
-        while (current != null) {
-            if (current.getOwner().getId().equals(user.getId())) {
-                return true;
+    @PostMapping("/batch/move")
+    public ResponseEntity<?> moveFiles(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestBody BatchOperationRequest request,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        String invalid = invalidBatch(request);
+        if (invalid != null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(invalid);
+        }
+        if (request.getTargetFolderId() == null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Target folder is required");
+        }
+        try {
+            User user = securityUser.getUser();
+            FileNode newParent = fileNodeRepo.findById(request.getTargetFolderId())
+                    .orElseThrow(() -> new RuntimeException("Folder not found"));
+
+            if (!hasAccess(user, newParent, PermissionType.EDIT)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You do not have edit permissions for this folder");
+            }
+            FileNode targetLockedParent = accessService.findFirstLocked(newParent);
+            if (targetLockedParent != null) {
+                if (!unlockGrantService.unlocks(user, targetLockedParent, request.getPassword(), unlockGrant)) {
+                    return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required for target folder");
+                }
+            }
+            if (!newParent.getIsDirectory()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("It is not folder");
             }
 
-            Optional<SharePermission> perm = sharePermissionRepo.findByFileNodeAndSharedWithUser(current, user);
-            if (perm.isPresent()) {
-                return hasSufficientPermission(perm.get().getPermissionType(), requiredLevel);
+            return ResponseEntity.ok(batchOperationService.move(user, request.getFileIds(), newParent,
+                    request.getPassword(), unlockGrant));
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    @PostMapping("/batch/share")
+    public ResponseEntity<?> shareFiles(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestBody BatchOperationRequest request) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You are not logged in");
+        }
+        String invalid = invalidBatch(request);
+        if (invalid != null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(invalid);
+        }
+        try {
+            User user = securityUser.getUser();
+            User shareWith = userRepo.findByEmail(request.getUserName())
+                    .orElseThrow(() -> new RuntimeException("User not found"));
+
+            if (user.getId().equals(shareWith.getId())) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You can not share this file with yourself");
             }
 
-            current = current.getParent();
+            return ResponseEntity.ok(batchOperationService.share(user, request.getFileIds(), shareWith,
+                    request.getPermissionType()));
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    private String invalidBatch(BatchOperationRequest request) {
+        if (request.getFileIds() == null || request.getFileIds().isEmpty()) {
+            return "No files selected";
         }
-        return false;
+        if (request.getFileIds().size() > MAX_BATCH_ITEMS) {
+            return "At most " + MAX_BATCH_ITEMS + " files per request";
+        }
+        return null;
     }
 
-    private boolean hasSufficientPermission(PermissionType actual, PermissionType required) {
-        if (actual == PermissionType.EDIT) {
-            return true;
+    // Shared roots, newest share first by default; folders shared inside them are reached by opening them
+    @GetMapping("/shared-with-me")
+    public ResponseEntity<?> getSharedWithMe(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestParam(defaultValue = "desc") String dir,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "100") int size) {
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You are not logged in");
         }
-        return actual == PermissionType.VIEW && required == PermissionType.VIEW;
+        User user = securityUser.getUser();
+        Sort.Direction direction = "asc".equalsIgnoreCase(dir) ? Sort.Direction.ASC : Sort.Direction.DESC;
+        Slice<SharedItem> shared = sharePermissionRepo.findSharedRoots(user.getId(), PageRequest.of(Math.max(0, page),
+                Math.max(1, Math.min(size, MAX_SHARED_PAGE_SIZE)), Sort.by(direction, "sharedAt", "id")));
+
+        return ResponseEntity.status(HttpStatus.OK)
+                .body(new SharedPage(shared.getContent(), shared.hasNext() ? shared.getNumber() + 1 : null));
+    }
+
+    private boolean hasAccess(User user, FileNode file, PermissionType requiredLevel) {
+        return accessService.hasAccess(user, file, requiredLevel);
     }
 
     @GetMapping("/search")
@@ -585,13 +1264,45 @@ public class FileController {
 
         try {
             Pageable pageable = PageRequest.of(page, size);
-            Page<FileNode> results = fileNodeRepo.searchUserFiles(user, query.trim(), pageable);
+            Page<FileNode> results = searchIndexService.search(user, query.trim(), pageable);
             return ResponseEntity.ok(results);
         } catch (Exception ex) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
         }
     }
 
+    // Checks the password once and returns a short-lived grant for the nearest locked folder.
+    // Sent back as X-Unlock-Grant, it stands in for the password under that folder.
+    @PostMapping("/{fileId}/unlock")
+    public ResponseEntity<?> unlock(
+            @PathVariable Long fileId,
+            @RequestBody AccessRequest request,
+            @AuthenticationPrincipal SecurityUser securityUser) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        try {
+            User user = securityUser.getUser();
+            FileNode file = fileNodeRepo.findById(fileId)
+                    .orElseThrow(() -> new RuntimeException("File not found"));
+
+            if (!hasAccess(user, file, PermissionType.VIEW)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You are not authorized");
+            }
+            FileNode locked = accessService.findFirstLocked(file);
+            if (locked == null) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("This folder is not locked");
+            }
+            if (!unlockGrantService.unlocks(user, locked, request.getPassword(), null)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
+            }
+            return ResponseEntity.ok(unlockGrantService.issue(user, locked));
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
     @PostMapping("/{folderId}/lock")
     @Transactional
     public ResponseEntity<?> lock(
@@ -622,15 +1333,4 @@ public class FileController {
 
         return ResponseEntity.status(HttpStatus.OK).body("Folder Locked Successfully");
     }
-
-    private FileNode findFirstLockedParent(FileNode file) {
-        FileNode current = file;
-        while (current != null) {
-            if (Boolean.TRUE.equals(current.getIsLocked())) {
-                return current;
-            }
-            current = current.getParent();
-        }
-        return null;
-    }
 }
\ No newline at end of file
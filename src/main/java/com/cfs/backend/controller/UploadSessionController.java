@@ -0,0 +1,203 @@
+package com.cfs.backend.controller;
+
+import com.cfs.backend.dto.CreateUploadSessionRequest;
+import com.cfs.backend.dto.PresignedPartUrl;
+import com.cfs.backend.dto.UploadSessionResponse;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.PermissionType;
+import com.cfs.backend.entity.UploadSession;
+import com.cfs.backend.entity.UploadSessionStatus;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import com.cfs.backend.repo.UploadSessionRepo;
+import com.cfs.backend.security.SecurityUser;
+import com.cfs.backend.services.AccessService;
+import com.cfs.backend.services.UnlockGrantService;
+import com.cfs.backend.services.UploadSessionService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/files/upload-sessions")
+@RequiredArgsConstructor
+@Slf4j
+public class UploadSessionController {
+
+    private final FileNodeRepo fileNodeRepo;
+    private final UploadSessionRepo uploadSessionRepo;
+    private final UploadSessionService uploadSessionService;
+    private final AccessService accessService;
+    private final UnlockGrantService unlockGrantService;
+
+    @PostMapping
+    public ResponseEntity<?> createSession(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestBody CreateUploadSessionRequest request,
+            @RequestHeader(name = "X-Unlock-Grant", required = false) String unlockGrant) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        if (request.getTotalSize() == null || request.getTotalSize() <= 0) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("File is empty");
+        }
+        String name = request.getFileName() == null ? "" : request.getFileName().trim();
+        if (name.isEmpty() || name.contains("/") || name.contains("\\")) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Name cannot contain '/' or '\\'");
+        }
+        String sha256 = request.getSha256() == null ? null : request.getSha256().toLowerCase();
+        if (sha256 != null && !sha256.matches("[0-9a-f]{64}")) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("sha256 must be 64 hex characters");
+        }
+
+        try {
+            User user = securityUser.getUser();
+            FileNode parentFolder = fileNodeRepo.findById(request.getParentId())
+                    .orElseThrow(() -> new RuntimeException("Parent folder not found"));
+
+            if (!accessService.hasAccess(user, parentFolder, PermissionType.EDIT)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You do not have edit permissions for this folder");
+            }
+
+            FileNode lockedParent = accessService.findFirstLocked(parentFolder);
+            if (!unlockGrantService.unlocks(user, lockedParent, request.getPassword(), unlockGrant)) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Password required or invalid");
+            }
+
+            UploadSession session = uploadSessionService.create(user, parentFolder, name,
+                    request.getTotalSize(), request.getMimeType(), request.isDirect(), sha256);
+            if (session == null) {
+                return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE).body("Not enough storage");
+            }
+            List<PresignedPartUrl> uploadUrls = session.isDirectUpload() ? uploadSessionService.uploadUrls(session) : null;
+            return ResponseEntity.status(HttpStatus.CREATED).body(UploadSessionResponse.from(session, List.of(), uploadUrls));
+
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    // Chunks are 1-based and may arrive in any order or in parallel
+    @PutMapping("/{sessionId}/chunks/{chunkNumber}")
+    public ResponseEntity<?> putChunk(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @PathVariable Long sessionId,
+            @PathVariable int chunkNumber,
+            HttpServletRequest request) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        try {
+            UploadSession session = findOpenSession(securityUser.getUser(), sessionId);
+            if (session.isDirectUpload()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Upload this session's chunks to its presigned URLs");
+            }
+            if (chunkNumber < 1 || chunkNumber > session.getTotalChunks()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Chunk number out of range");
+            }
+            long expected = uploadSessionService.expectedChunkLength(session, chunkNumber);
+            if (request.getContentLengthLong() != expected) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Chunk " + chunkNumber + " must be " + expected + " bytes");
+            }
+            uploadSessionService.putChunk(session, chunkNumber, request.getInputStream(), expected);
+            return ResponseEntity.ok("Chunk received");
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<?> getSession(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @PathVariable Long sessionId) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        try {
+            UploadSession session = findSession(securityUser.getUser(), sessionId);
+            return ResponseEntity.ok(UploadSessionResponse.from(session, uploadSessionService.receivedChunks(session)));
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    // Presigned URLs expire long before the session does; a client resuming later asks again
+    @GetMapping("/{sessionId}/upload-urls")
+    public ResponseEntity<?> getUploadUrls(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @PathVariable Long sessionId) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        try {
+            UploadSession session = findOpenSession(securityUser.getUser(), sessionId);
+            if (!session.isDirectUpload()) {
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Not a direct upload session");
+            }
+            return ResponseEntity.ok(uploadSessionService.uploadUrls(session));
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    @PostMapping("/{sessionId}/commit")
+    public ResponseEntity<?> commit(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @PathVariable Long sessionId) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        try {
+            UploadSession session = findOpenSession(securityUser.getUser(), sessionId);
+            uploadSessionService.commit(session);
+            return ResponseEntity.ok("File uploaded successfully");
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<?> abort(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @PathVariable Long sessionId) {
+
+        if (securityUser == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("You are not logged in");
+        }
+        try {
+            UploadSession session = findOpenSession(securityUser.getUser(), sessionId);
+            uploadSessionService.abort(session, UploadSessionStatus.ABORTED);
+            return ResponseEntity.ok("Upload cancelled");
+        } catch (Exception ex) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+        }
+    }
+
+    private UploadSession findSession(User user, Long sessionId) {
+        UploadSession session = uploadSessionRepo.findById(sessionId)
+                .orElseThrow(() -> new RuntimeException("Upload session not found"));
+        if (!session.getOwner().getId().equals(user.getId())) {
+            throw new RuntimeException("Upload session not found");
+        }
+        return session;
+    }
+
+    private UploadSession findOpenSession(User user, Long sessionId) {
+        UploadSession session = findSession(user, sessionId);
+        if (session.getStatus() != UploadSessionStatus.OPEN) {
+            throw new RuntimeException("Upload session is " + session.getStatus());
+        }
+        return session;
+    }
+}
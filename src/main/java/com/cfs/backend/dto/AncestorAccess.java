@@ -0,0 +1,7 @@
+package com.cfs.backend.dto;
+
+import com.cfs.backend.entity.PermissionType;
+
+// One row per ancestor: who owns it and what (if anything) is shared on it with the caller
+public record AncestorAccess(Long nodeId, Long ownerId, PermissionType permissionType) {
+}
@@ -0,0 +1,11 @@
+package com.cfs.backend.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchDownloadRequest {
+    private List<Long> fileIds;
+    private String password;
+}
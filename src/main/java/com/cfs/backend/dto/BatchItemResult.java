@@ -0,0 +1,13 @@
+package com.cfs.backend.dto;
+
+// One id's outcome in a batch operation; error is null when it succeeded
+public record BatchItemResult(Long fileId, String error) {
+
+    public static BatchItemResult ok(Long fileId) {
+        return new BatchItemResult(fileId, null);
+    }
+
+    public static BatchItemResult failed(Long fileId, String error) {
+        return new BatchItemResult(fileId, error);
+    }
+}
@@ -0,0 +1,18 @@
+package com.cfs.backend.dto;
+
+import com.cfs.backend.entity.PermissionType;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchOperationRequest {
+    private List<Long> fileIds;
+    // Opens any locked folder involved; one password for the whole batch
+    private String password;
+    // Move only
+    private Long targetFolderId;
+    // Share only
+    private String userName;
+    private PermissionType permissionType;
+}
@@ -0,0 +1,15 @@
+package com.cfs.backend.dto;
+
+import lombok.Data;
+
+@Data
+public class CreateUploadSessionRequest {
+    private Long parentId;
+    private String fileName;
+    private Long totalSize;
+    private String mimeType;
+    private String password;
+    // Upload through presigned URLs instead of PUT .../chunks/{n}
+    private boolean direct;
+    private String sha256;
+}
@@ -0,0 +1,12 @@
+package com.cfs.backend.dto;
+
+import com.cfs.backend.entity.User;
+
+// /auth/me: read from the row, since the principal only carries a snapshot of the user
+public record CurrentUserResponse(Long id, String username, Long storageAlloted, Long storageUsed, Long rootFolderId) {
+
+    public static CurrentUserResponse from(User user) {
+        return new CurrentUserResponse(user.getId(), user.getUsername(), user.getStorageAlloted(),
+                user.getStorageUsed(), user.getRootFolder() == null ? null : user.getRootFolder().getId());
+    }
+}
@@ -0,0 +1,12 @@
+package com.cfs.backend.dto;
+
+public record DedupStatsResponse(Usage user, Usage global) {
+
+    public record Usage(long logicalBytes, long physicalBytes, double dedupRatio) {
+
+        public static Usage of(long logicalBytes, long physicalBytes) {
+            return new Usage(logicalBytes, physicalBytes,
+                    physicalBytes == 0 ? 1.0 : (double) logicalBytes / physicalBytes);
+        }
+    }
+}
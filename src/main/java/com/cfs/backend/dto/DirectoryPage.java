@@ -0,0 +1,7 @@
+package com.cfs.backend.dto;
+
+import java.util.List;
+
+// nextCursor is null on the last page
+public record DirectoryPage(List<FileNodeSummary> items, String nextCursor) {
+}
@@ -0,0 +1,11 @@
+package com.cfs.backend.dto;
+
+import java.time.Instant;
+
+// Either url/expiresAt or error is set
+public record DownloadUrlResponse(Long fileId, String url, Instant expiresAt, String error) {
+
+    public static DownloadUrlResponse failed(Long fileId, String error) {
+        return new DownloadUrlResponse(fileId, null, null, error);
+    }
+}
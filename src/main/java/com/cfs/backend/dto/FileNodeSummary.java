@@ -0,0 +1,9 @@
+package com.cfs.backend.dto;
+
+import java.time.Instant;
+
+// What a directory listing needs per entry, without the entity's associations.
+// subtreeSize and subtreeCount are the folder rollups; meaningless for files.
+public record FileNodeSummary(Long id, String fileName, Boolean isDirectory, String mimeType, Long fileSize,
+                              Boolean isLocked, Instant createdAt, Long subtreeSize, Long subtreeCount) {
+}
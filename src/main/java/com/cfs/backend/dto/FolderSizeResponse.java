@@ -0,0 +1,5 @@
+package com.cfs.backend.dto;
+
+// Bytes and number of items below a folder, counting the folder owner's nodes
+public record FolderSizeResponse(Long folderId, long size, long itemCount) {
+}
@@ -0,0 +1,17 @@
+package com.cfs.backend.dto;
+
+import lombok.Data;
+
+// One manifest line of a tree import. path is relative to the import's parent folder, with '/'
+// between names; folders on the way are created even without an entry of their own. A file's
+// content is either the multipart part named by part, or by sha256 the content of a file the
+// caller owns or can view.
+@Data
+public class ImportEntry {
+    private String path;
+    private boolean directory;
+    private Long size;
+    private String mimeType;
+    private String sha256;
+    private String part;
+}
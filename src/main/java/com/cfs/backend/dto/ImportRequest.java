@@ -0,0 +1,12 @@
+package com.cfs.backend.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ImportRequest {
+    private Long parentId;
+    private String password;
+    private List<ImportEntry> entries;
+}
@@ -0,0 +1,4 @@
+package com.cfs.backend.dto;
+
+public record ImportResponse(int folders, int files, long bytes) {
+}
@@ -0,0 +1,7 @@
+package com.cfs.backend.dto;
+
+import java.time.Instant;
+
+// partNumber is 0 for a single-PUT upload
+public record PresignedPartUrl(int partNumber, String url, Instant expiresAt) {
+}
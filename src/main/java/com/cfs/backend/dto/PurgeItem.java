@@ -0,0 +1,4 @@
+package com.cfs.backend.dto;
+
+public record PurgeItem(Long id, String path, String storagePath, String contentHash) {
+}
@@ -0,0 +1,15 @@
+package com.cfs.backend.dto;
+
+import com.cfs.backend.entity.PurgeJob;
+import com.cfs.backend.entity.PurgeStatus;
+
+import java.time.Instant;
+
+public record PurgeJobResponse(Long jobId, Long rootNodeId, PurgeStatus status, long totalObjects,
+                               long purgedObjects, long failedObjects, Instant createdAt, Instant finishedAt) {
+
+    public static PurgeJobResponse from(PurgeJob job) {
+        return new PurgeJobResponse(job.getId(), job.getRootNodeId(), job.getStatus(), job.getTotalObjects(),
+                job.getPurgedObjects(), job.getFailedObjects(), job.getCreatedAt(), job.getFinishedAt());
+    }
+}
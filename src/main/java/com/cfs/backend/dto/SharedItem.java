@@ -0,0 +1,10 @@
+package com.cfs.backend.dto;
+
+import com.cfs.backend.entity.PermissionType;
+
+import java.time.Instant;
+
+// One entry of the shared-with-me view. size is the file size, or a folder's rollup.
+public record SharedItem(Long id, String fileName, Boolean isDirectory, String mimeType, Long size,
+                         Boolean isLocked, String ownerName, PermissionType permissionType, Instant sharedAt) {
+}
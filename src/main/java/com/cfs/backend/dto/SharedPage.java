@@ -0,0 +1,7 @@
+package com.cfs.backend.dto;
+
+import java.util.List;
+
+// nextPage is null on the last page
+public record SharedPage(List<SharedItem> items, Integer nextPage) {
+}
@@ -0,0 +1,5 @@
+package com.cfs.backend.dto;
+
+// Where an upload's bytes live, and the content hash when they are a shared blob
+public record StoredObject(String storagePath, String contentHash) {
+}
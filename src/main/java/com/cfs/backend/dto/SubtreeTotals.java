@@ -0,0 +1,5 @@
+package com.cfs.backend.dto;
+
+// Bytes and node count one owner has in (part of) a subtree
+public record SubtreeTotals(Long ownerId, Long size, Long count) {
+}
@@ -0,0 +1,7 @@
+package com.cfs.backend.dto;
+
+import java.time.Instant;
+
+// Issued by /login in stateless mode; sent back as "Authorization: Bearer <token>"
+public record TokenResponse(String token, Instant expiresAt) {
+}
@@ -0,0 +1,8 @@
+package com.cfs.backend.dto;
+
+import java.time.Instant;
+
+// folderId is the locked folder the grant opens, which may be an ancestor of the one asked for.
+// Send the grant back in the X-Unlock-Grant header (comma separated for more than one).
+public record UnlockGrantResponse(Long folderId, String grant, Instant expiresAt) {
+}
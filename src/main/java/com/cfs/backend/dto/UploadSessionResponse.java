@@ -0,0 +1,24 @@
+package com.cfs.backend.dto;
+
+import com.cfs.backend.entity.UploadSession;
+import com.cfs.backend.entity.UploadSessionStatus;
+
+import java.time.Instant;
+import java.util.List;
+
+public record UploadSessionResponse(Long sessionId, String fileName, long totalSize, long chunkSize,
+                                    int totalChunks, List<Integer> receivedChunks,
+                                    UploadSessionStatus status, Instant expiresAt, boolean direct,
+                                    List<PresignedPartUrl> uploadUrls) {
+
+    public static UploadSessionResponse from(UploadSession session, List<Integer> receivedChunks) {
+        return from(session, receivedChunks, null);
+    }
+
+    public static UploadSessionResponse from(UploadSession session, List<Integer> receivedChunks,
+                                             List<PresignedPartUrl> uploadUrls) {
+        return new UploadSessionResponse(session.getId(), session.getFileName(), session.getTotalSize(),
+                session.getChunkSize(), session.getTotalChunks(), receivedChunks, session.getStatus(),
+                session.getExpiresAt(), session.isDirectUpload(), uploadUrls);
+    }
+}
@@ -0,0 +1,35 @@
+package com.cfs.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// One stored object shared by every FileNode with the same content. The object is deleted
+// when the last referencing node is purged.
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "content_blobs")
+public class ContentBlob {
+
+    @Id
+    @Column(length = 64)
+    private String sha256;
+
+    @Column(nullable = false)
+    private String storagePath;
+
+    @Column(nullable = false)
+    private Long size;
+
+    @Column(nullable = false)
+    private Long refCount;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+}
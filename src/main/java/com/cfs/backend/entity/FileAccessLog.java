@@ -13,11 +13,14 @@ import java.time.Instant;
 @NoArgsConstructor
 @Table(name = "file_access_log" , uniqueConstraints = {
         @UniqueConstraint(columnNames = {"user_id" , "file_node_id"})
+}, indexes = {
+        @Index(name = "idx_file_access_log_user_recent", columnList = "user_id, LastAccessedAt")
 })
 public class FileAccessLog {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "file_access_log_seq")
+    @SequenceGenerator(name = "file_access_log_seq", sequenceName = "file_access_log_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
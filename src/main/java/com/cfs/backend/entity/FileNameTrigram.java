@@ -0,0 +1,41 @@
+package com.cfs.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+// Inverted index over file names: one row per distinct trigram of a node's lower-cased name.
+// A trigram is packed into a number (three 21-bit code points), which keeps the index small
+// and free of collation surprises. Names shorter than three code points get one short gram.
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@IdClass(FileNameTrigram.Key.class)
+@Table(name = "file_name_trigrams", indexes = {
+        @Index(name = "idx_file_name_trigrams_owner", columnList = "ownerId, gram, nodeId"),
+        @Index(name = "idx_file_name_trigrams_gram", columnList = "gram, nodeId")
+})
+public class FileNameTrigram {
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long nodeId;
+        private Long gram;
+    }
+
+    @Id
+    private Long nodeId;
+
+    @Id
+    private Long gram;
+
+    @Column(nullable = false)
+    private Long ownerId;
+
+}
@@ -5,6 +5,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.apache.catalina.AccessLog;
+import org.hibernate.Hibernate;
 
 import java.io.File;
 import java.time.Instant;
@@ -12,14 +13,26 @@ import java.util.List;
 import java.util.UUID;
 
 @Entity(name = "file_nodes")
+@Table(indexes = {
+        @Index(name = "idx_file_nodes_path", columnList = "path"),
+        @Index(name = "idx_file_nodes_purge_job", columnList = "purgeJobId"),
+        @Index(name = "idx_file_nodes_trash", columnList = "isDeleted, deletedAt"),
+        @Index(name = "idx_file_nodes_content_hash", columnList = "contentHash"),
+        @Index(name = "idx_file_nodes_parent_name", columnList = "parent_id, fileName, id"),
+        @Index(name = "idx_file_nodes_parent_size", columnList = "parent_id, fileSize, id"),
+        @Index(name = "idx_file_nodes_parent_created", columnList = "parent_id, createdAt, id")
+})
 @AllArgsConstructor
 @NoArgsConstructor
 @Data
 public class FileNode {
 
 
+    // Pooled: one sequence round trip hands out 50 ids, so batched inserts know their ids up front.
+    // Same sequence and increment Hibernate picked for AUTO, so existing databases carry on as they are.
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "file_nodes_seq")
+    @SequenceGenerator(name = "file_nodes_seq", sequenceName = "file_nodes_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
@@ -33,10 +46,31 @@ public class FileNode {
 
     private String storagePath;
 
+    // SHA-256 of the content when storagePath is a shared ContentBlob
+    @Column(length = 64)
+    private String contentHash;
+
+    // Materialized ancestor path, e.g. "/1/5/9/" (root first, ends with this node's id)
+    @Column(length = 760)
+    private String path;
+
+    private Instant createdAt;
+
+    // Directories: total fileSize and node count of the owner's nodes below this one. Live
+    // folders count live nodes; a trashed folder keeps what was trashed with it, which is what a
+    // restore brings back. Written only by bulk UPDATEs; null until the repair job fills it in.
+    @Column(updatable = false)
+    private Long subtreeSize = 0L;
+    @Column(updatable = false)
+    private Long subtreeCount = 0L;
+
     @Column(nullable = false)
     private boolean isDeleted = false;
     private Instant deletedAt;
 
+    // Set once a hard delete is accepted; the purger removes the node afterwards
+    private Long purgeJobId;
+
     // This is for Locked folder
     private Boolean isLocked;
     private String folderPassword; // Will store hashed password
@@ -58,4 +92,14 @@ public class FileNode {
     @OneToMany(mappedBy = "fileNode"  ,  cascade = CascadeType.ALL, orphanRemoval = true)
     private List<FileAccessLog> accessLogs;
 
+    // Runs once the generator has assigned the id but before the insert's values are taken, so a
+    // new node is written with its path in the INSERT itself rather than an UPDATE right after.
+    // A parent proxy from another session cannot be read yet; FileTreeService stamps those later.
+    @PrePersist
+    void stampPath() {
+        if (path == null && id != null && Hibernate.isInitialized(parent)) {
+            path = (parent == null ? "/" : parent.getPath()) + id + "/";
+        }
+    }
+
 }
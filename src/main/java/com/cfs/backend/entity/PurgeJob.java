@@ -0,0 +1,53 @@
+package com.cfs.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// One hard delete request. The nodes it covers carry its id in FileNode.purgeJobId
+// until the purger has removed their objects and rows.
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "purge_jobs")
+public class PurgeJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    private User owner;
+
+    @Column(nullable = false)
+    private Long rootNodeId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private PurgeStatus status = PurgeStatus.PENDING;
+
+    private long totalObjects;
+    private long purgedObjects;
+    private long failedObjects;
+
+    private String lastError;
+
+    // Runs so far, and when a failed job may run again
+    private int attempts;
+    private Instant retryAt;
+
+    // The node running the job, and when it last showed progress. A RUNNING job whose heartbeat
+    // has gone stale is taken over by another node.
+    private String runner;
+    private Instant heartbeatAt;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+    private Instant finishedAt;
+
+}
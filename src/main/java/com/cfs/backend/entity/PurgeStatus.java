@@ -0,0 +1,8 @@
+package com.cfs.backend.entity;
+
+public enum PurgeStatus {
+    PENDING,
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
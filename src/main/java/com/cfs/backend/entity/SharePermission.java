@@ -5,17 +5,22 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.Instant;
+
 @Entity
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 @Table(name = "share_permissions" , uniqueConstraints = {
         @UniqueConstraint(columnNames = {"file_node_id" , "user_id"})
+}, indexes = {
+        @Index(name = "idx_share_permissions_user_shared", columnList = "user_id, sharedAt")
 })
 public class SharePermission {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "share_permissions_seq")
+    @SequenceGenerator(name = "share_permissions_seq", sequenceName = "share_permissions_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -30,4 +35,7 @@ public class SharePermission {
     @Column(nullable = false)
     private PermissionType permissionType;
 
+    // Null for shares made before this was recorded; they sort as the oldest
+    private Instant sharedAt;
+
 }
@@ -0,0 +1,74 @@
+package com.cfs.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// A resumable upload. The object is assembled as an S3 multipart upload, one part per chunk,
+// and totalSize is already counted in the owner's storageUsed while the session is open.
+// A direct session's bytes go from the client straight to the bucket through presigned URLs;
+// small ones use a single PUT and have no s3UploadId.
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "upload_sessions", indexes = {
+        @Index(name = "idx_upload_sessions_expiry", columnList = "status, expiresAt")
+})
+public class UploadSession {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    private User owner;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "parent_id", nullable = false)
+    private FileNode parent;
+
+    @Column(nullable = false)
+    private String fileName;
+
+    private String mimeType;
+
+    @Column(nullable = false)
+    private Long totalSize;
+
+    @Column(nullable = false)
+    private Long chunkSize;
+
+    @Column(nullable = false)
+    private Integer totalChunks;
+
+    @Column(nullable = false)
+    private String storagePath;
+
+    private String s3UploadId;
+
+    @Column(nullable = false)
+    private boolean directUpload;
+
+    // Expected SHA-256 (hex) declared by the client of a direct upload
+    @Column(length = 64)
+    private String sha256;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private UploadSessionStatus status = UploadSessionStatus.OPEN;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    @Column(nullable = false)
+    private Instant expiresAt;
+
+    // Sweeps that failed to clean this session up; after enough of them it is expired anyway
+    private int expireAttempts;
+
+}
@@ -0,0 +1,34 @@
+package com.cfs.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Table(name = "upload_session_chunks", uniqueConstraints = {
+        @UniqueConstraint(columnNames = {"session_id", "chunk_number"})
+})
+public class UploadSessionChunk {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "session_id", nullable = false)
+    private UploadSession session;
+
+    @Column(name = "chunk_number", nullable = false)
+    private Integer chunkNumber;
+
+    @Column(nullable = false)
+    private String eTag;
+
+    @Column(nullable = false)
+    private Long size;
+
+}
@@ -0,0 +1,10 @@
+package com.cfs.backend.entity;
+
+public enum UploadSessionStatus {
+    OPEN,
+    // Claimed by a commit that is assembling the object; no row lock is held meanwhile
+    COMMITTING,
+    COMMITTED,
+    ABORTED,
+    EXPIRED
+}
@@ -0,0 +1,64 @@
+package com.cfs.backend.repo;
+
+import com.cfs.backend.entity.ContentBlob;
+import com.cfs.backend.entity.User;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface ContentBlobRepo extends JpaRepository<ContentBlob, String> {
+
+    // Only a live blob can gain a reference; one at zero is about to be deleted
+    @Modifying
+    @Query("UPDATE ContentBlob b SET b.refCount = b.refCount + 1 WHERE b.sha256 = :sha256 AND b.refCount > 0")
+    int acquireExisting(@Param("sha256") String sha256);
+
+    @Modifying
+    @Query("UPDATE ContentBlob b SET b.refCount = b.refCount + :count WHERE b.sha256 = :sha256 AND b.refCount > 0")
+    int acquireExisting(@Param("sha256") String sha256, @Param("count") long count);
+
+    @Query("SELECT b FROM ContentBlob b WHERE b.sha256 IN :hashes AND b.refCount > 0")
+    List<ContentBlob> findLive(@Param("hashes") Collection<String> hashes);
+
+    @Modifying
+    @Query(value = "INSERT INTO content_blobs (sha256, storage_path, size, ref_count, created_at) " +
+            "VALUES (:sha256, :storagePath, :size, 1, :now) " +
+            "ON DUPLICATE KEY UPDATE ref_count = ref_count + 1", nativeQuery = true)
+    int insertOrAcquire(@Param("sha256") String sha256, @Param("storagePath") String storagePath,
+                        @Param("size") long size, @Param("now") Instant now);
+
+    @Query("SELECT b.storagePath FROM ContentBlob b WHERE b.sha256 = :sha256")
+    String findStoragePath(@Param("sha256") String sha256);
+
+    @Modifying
+    @Query("UPDATE ContentBlob b SET b.refCount = b.refCount - :count WHERE b.sha256 = :sha256")
+    int release(@Param("sha256") String sha256, @Param("count") long count);
+
+    @Query("SELECT b FROM ContentBlob b WHERE b.sha256 IN :hashes AND b.refCount <= 0")
+    List<ContentBlob> findUnreferenced(@Param("hashes") List<String> hashes);
+
+    @Modifying
+    @Query("DELETE FROM ContentBlob b WHERE b.sha256 IN :hashes AND b.refCount <= 0")
+    int deleteUnreferenced(@Param("hashes") List<String> hashes);
+
+    // Dedup reporting: bytes as users see them vs. bytes actually stored
+
+    @Query("SELECT COALESCE(SUM(f.fileSize), 0) FROM file_nodes f WHERE f.contentHash IS NOT NULL")
+    long sumLogicalBytes();
+
+    @Query("SELECT COALESCE(SUM(b.size), 0) FROM ContentBlob b WHERE b.refCount > 0")
+    long sumPhysicalBytes();
+
+    @Query("SELECT COALESCE(SUM(f.fileSize), 0) FROM file_nodes f WHERE f.contentHash IS NOT NULL AND f.owner = :user")
+    long sumLogicalBytes(@Param("user") User user);
+
+    @Query("SELECT COALESCE(SUM(b.size), 0) FROM ContentBlob b WHERE b.sha256 IN " +
+            "(SELECT f.contentHash FROM file_nodes f WHERE f.owner = :user)")
+    long sumPhysicalBytes(@Param("user") User user);
+
+}
@@ -4,11 +4,13 @@ import com.cfs.backend.entity.FileAccessLog;
 import com.cfs.backend.entity.FileNode;
 import com.cfs.backend.entity.User;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
-
-import java.awt.print.Pageable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,9 +20,19 @@ public interface FileAccessLogRepo extends JpaRepository<FileAccessLog, Long> {
 
 
     // it is jpql which access user form fal(file access log) and sort it by lastaccessat
+    // Walks idx_file_access_log_user_recent backwards, newest first
     @Query("SELECT fal.fileNode FROM FileAccessLog fal " +
-            "WHERE fal.user = :user AND fal.fileNode.isDeleted = false " +
+            "WHERE fal.user = :user AND fal.fileNode.isDeleted = false AND fal.fileNode.purgeJobId IS NULL " +
             "ORDER BY fal.LastAccessedAt DESC")
-    List<FileNode> findRecentFilesForUser(User user, Pageable pageable);
+    List<FileNode> findRecentFilesForUser(@Param("user") User user, Pageable pageable);
+
+    // Rows that already exist for a flush batch; a superset, the caller matches exact pairs
+    @Query("SELECT fal FROM FileAccessLog fal WHERE fal.user.id IN :userIds AND fal.fileNode.id IN :nodeIds")
+    List<FileAccessLog> findForFlush(@Param("userIds") Collection<Long> userIds,
+                                     @Param("nodeIds") Collection<Long> nodeIds);
+
+    @Modifying
+    @Query("DELETE FROM FileAccessLog fal WHERE fal.fileNode.id IN :nodeIds")
+    int deleteByFileNodeIds(@Param("nodeIds") List<Long> nodeIds);
 
 }
@@ -0,0 +1,17 @@
+package com.cfs.backend.repo;
+
+import com.cfs.backend.entity.FileNameTrigram;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface FileNameTrigramRepo extends JpaRepository<FileNameTrigram, FileNameTrigram.Key> {
+
+    @Modifying
+    @Query("DELETE FROM FileNameTrigram t WHERE t.nodeId IN :nodeIds")
+    int deleteByNodeIds(@Param("nodeIds") List<Long> nodeIds);
+
+}
@@ -1,13 +1,26 @@
 package com.cfs.backend.repo;
 
+import com.cfs.backend.dto.AncestorAccess;
+import com.cfs.backend.dto.FileNodeSummary;
+import com.cfs.backend.dto.PurgeItem;
+import com.cfs.backend.dto.SubtreeTotals;
 import com.cfs.backend.entity.FileNode;
 import com.cfs.backend.entity.User;
-import org.springframework.data.domain.Page;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -25,14 +38,217 @@ public interface FileNodeRepo extends JpaRepository<FileNode, Long> {
 
     List<FileNode> findByParentAndOwner(FileNode parent, User owner);
 
-    @Query("SELECT DISTINCT f FROM file_nodes f LEFT JOIN f.permissions p " +
-            "WHERE f.isDeleted = false " +
-            "AND LOWER(f.fileName) LIKE LOWER(CONCAT('%', :query, '%')) " +
-            "AND (f.owner = :user OR p.sharedWithUser = :user)")
-    Page<FileNode> searchUserFiles(
-            @Param("user") User user,
-            @Param("query") String query,
-            Pageable pageable
-    );
+    // Content a user may reference by hash: what they own, and live nodes of others whose
+    // access still has to be checked
+
+    @Query("SELECT DISTINCT f.contentHash FROM file_nodes f " +
+            "WHERE f.contentHash IN :hashes AND f.owner.id = :userId AND f.purgeJobId IS NULL")
+    List<String> findOwnedContentHashes(@Param("userId") Long userId, @Param("hashes") Collection<String> hashes);
+
+    @Query("SELECT f FROM file_nodes f WHERE f.contentHash IN :hashes AND f.owner.id <> :userId " +
+            "AND f.isDeleted = false AND f.purgeJobId IS NULL")
+    List<FileNode> findLiveByContentHashNotOwnedBy(@Param("userId") Long userId,
+                                                   @Param("hashes") Collection<String> hashes);
+
+    // A folder that is still live, locked so it cannot be trashed or claimed for purge before the
+    // caller's transaction ends
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT f FROM file_nodes f WHERE f.id = :id AND f.isDeleted = false AND f.purgeJobId IS NULL")
+    Optional<FileNode> lockLive(@Param("id") Long id);
+
+    // Nodes the search index has not seen yet, by id
+    @Query("SELECT f FROM file_nodes f WHERE f.id > :afterId " +
+            "AND NOT EXISTS (SELECT t FROM FileNameTrigram t WHERE t.nodeId = f.id) ORDER BY f.id")
+    List<FileNode> findUnindexed(@Param("afterId") Long afterId, Pageable pageable);
+
+    // Ancestor index lookups, all by primary key using the ids stored in FileNode.path
+
+    @Query("SELECT new com.cfs.backend.dto.AncestorAccess(f.id, f.owner.id, p.permissionType) " +
+            "FROM file_nodes f LEFT JOIN f.permissions p ON p.sharedWithUser = :user " +
+            "WHERE f.id IN :ids")
+    List<AncestorAccess> findAncestorAccess(@Param("ids") List<Long> ids, @Param("user") User user);
+
+    @Query("SELECT f FROM file_nodes f WHERE f.id IN :ids AND f.isLocked = true")
+    List<FileNode> findLockedAmong(@Param("ids") List<Long> ids);
+
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.path = CONCAT(:newPrefix, SUBSTRING(f.path, LENGTH(:oldPrefix) + 1)) " +
+            "WHERE f.path LIKE CONCAT(:oldPrefix, '%')")
+    int rewritePathPrefix(@Param("oldPrefix") String oldPrefix, @Param("newPrefix") String newPrefix);
+
+    // Of these ids, the nodes that exist and are not being purged
+    @Query("SELECT f.id FROM file_nodes f WHERE f.id IN :ids AND f.purgeJobId IS NULL")
+    List<Long> findUnpurgedIds(@Param("ids") Collection<Long> ids);
+
+    // Set-based subtree operations; the LIKE on path is a prefix match and uses idx_file_nodes_path
+
+    // Live nodes of a subtree in path order (parents before children), keyset by path
+    @Query("SELECT f FROM file_nodes f WHERE f.path LIKE CONCAT(:prefix, '%') AND f.path > :afterPath " +
+            "AND f.isDeleted = false AND f.purgeJobId IS NULL ORDER BY f.path")
+    List<FileNode> findSubtreePage(@Param("prefix") String prefix, @Param("afterPath") String afterPath,
+                                   Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.isDeleted = true, f.deletedAt = :now " +
+            "WHERE f.path LIKE CONCAT(:prefix, '%') AND f.owner = :owner AND f.isDeleted = false")
+    int softDeleteSubtree(@Param("prefix") String prefix, @Param("owner") User owner, @Param("now") Instant now);
+
+    // Only what was trashed together with the root; things trashed on their own earlier stay in trash
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.isDeleted = false, f.deletedAt = null " +
+            "WHERE f.path LIKE CONCAT(:prefix, '%') AND f.owner = :owner AND f.isDeleted = true " +
+            "AND f.deletedAt = :deletedAt AND f.purgeJobId IS NULL")
+    int restoreSubtree(@Param("prefix") String prefix, @Param("owner") User owner, @Param("deletedAt") Instant deletedAt);
+
+    // Batch trash and restore of plain files: one UPDATE for the lot, no subtree to match
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.isDeleted = true, f.deletedAt = :now " +
+            "WHERE f.id IN :ids AND f.owner = :owner AND f.isDirectory = false AND f.isDeleted = false")
+    int softDeleteFiles(@Param("ids") List<Long> ids, @Param("owner") User owner, @Param("now") Instant now);
+
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.isDeleted = false, f.deletedAt = null " +
+            "WHERE f.id IN :ids AND f.owner = :owner AND f.isDirectory = false AND f.isDeleted = true " +
+            "AND f.purgeJobId IS NULL")
+    int restoreFiles(@Param("ids") List<Long> ids, @Param("owner") User owner);
+
+    // Purge pipeline. Marks the whole subtree: nodes other users uploaded into it go too.
+
+    // Only one job gets a root: a second request, or the retention sweeper racing a user, finds it taken
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.purgeJobId = :jobId WHERE f.id = :id AND f.purgeJobId IS NULL")
+    int claimForPurge(@Param("id") Long id, @Param("jobId") Long jobId);
+
+    @Query("SELECT f.purgeJobId FROM file_nodes f WHERE f.id = :id")
+    Long findPurgeJobId(@Param("id") Long id);
+
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.purgeJobId = :jobId " +
+            "WHERE f.path LIKE CONCAT(:prefix, '%') AND f.purgeJobId IS NULL")
+    int markForPurge(@Param("prefix") String prefix, @Param("jobId") Long jobId);
+
+    @Query("SELECT COUNT(f) FROM file_nodes f WHERE f.purgeJobId = :jobId AND f.isDirectory = false")
+    long countPurgeFiles(@Param("jobId") Long jobId);
+
+    @Query("SELECT new com.cfs.backend.dto.PurgeItem(f.id, f.path, f.storagePath, f.contentHash) FROM file_nodes f " +
+            "WHERE f.purgeJobId = :jobId AND f.isDirectory = :directory AND f.id > :afterId ORDER BY f.id")
+    List<PurgeItem> findPurgeBatch(@Param("jobId") Long jobId, @Param("directory") boolean directory,
+                                   @Param("afterId") Long afterId, Pageable pageable);
+
+    // Locks the rows of ids still marked for the job; a second runner of the same batch waits
+    // here and then finds them gone
+    @Query(value = "SELECT id FROM file_nodes WHERE id IN (:ids) AND purge_job_id = :jobId FOR UPDATE",
+            nativeQuery = true)
+    List<Long> lockPurgeRows(@Param("ids") List<Long> ids, @Param("jobId") Long jobId);
+
+    @Modifying
+    @Query("DELETE FROM file_nodes f WHERE f.id IN :ids")
+    int deleteByIdIn(@Param("ids") List<Long> ids);
+
+    // Trash retention. A root is an expired node whose parent is not itself expired trash,
+    // so one purge job covers each trashed subtree.
+
+    @Query("SELECT f FROM file_nodes f LEFT JOIN f.parent p " +
+            "WHERE f.isDeleted = true AND f.purgeJobId IS NULL AND f.deletedAt < :cutoff " +
+            "AND (p IS NULL OR p.isDeleted = false OR p.deletedAt >= :cutoff) " +
+            "ORDER BY f.deletedAt, f.id")
+    List<FileNode> findExpiredTrashRoots(@Param("cutoff") Instant cutoff, Pageable pageable);
+
+    @Query("SELECT COUNT(f) FROM file_nodes f " +
+            "WHERE f.isDeleted = true AND f.purgeJobId IS NULL AND f.deletedAt < :cutoff")
+    long countExpiredTrash(@Param("cutoff") Instant cutoff);
+
+    // Backfill for rows created before the path column existed
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE file_nodes SET path = CONCAT('/', id, '/') WHERE path IS NULL AND parent_id IS NULL",
+            nativeQuery = true)
+    int backfillRootPaths();
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE file_nodes c JOIN file_nodes p ON c.parent_id = p.id " +
+            "SET c.path = CONCAT(p.path, c.id, '/') WHERE c.path IS NULL AND p.path IS NOT NULL",
+            nativeQuery = true)
+    int backfillChildPaths();
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.createdAt = :now WHERE f.createdAt IS NULL")
+    int backfillCreatedAt(@Param("now") Instant now);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.fileSize = 0 WHERE f.fileSize IS NULL")
+    int backfillFileSize();
+
+    // Folder rollups. A delta goes up the whole ancestor chain in one UPDATE, and only lands on
+    // folders of the same owner in the matching state.
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.subtreeSize = f.subtreeSize + :bytes, f.subtreeCount = f.subtreeCount + :count " +
+            "WHERE f.id IN :ids AND f.owner.id = :ownerId AND f.isDeleted = false")
+    int adjustRollups(@Param("ids") List<Long> ids, @Param("ownerId") Long ownerId,
+                      @Param("bytes") long bytes, @Param("count") long count);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.subtreeSize = f.subtreeSize + :bytes, f.subtreeCount = f.subtreeCount + :count " +
+            "WHERE f.id IN :ids AND f.owner.id = :ownerId AND f.isDeleted = true AND f.deletedAt = :deletedAt")
+    int adjustTrashedRollups(@Param("ids") List<Long> ids, @Param("ownerId") Long ownerId,
+                             @Param("deletedAt") Instant deletedAt, @Param("bytes") long bytes, @Param("count") long count);
+
+    // Read with a query rather than from the entity, which a bulk UPDATE leaves stale
+    @Query("SELECT new com.cfs.backend.dto.SubtreeTotals(f.owner.id, f.subtreeSize, f.subtreeCount) " +
+            "FROM file_nodes f WHERE f.id = :id")
+    SubtreeTotals findRollup(@Param("id") Long id);
+
+    @Query("SELECT new com.cfs.backend.dto.SubtreeTotals(f.owner.id, " +
+            "COALESCE(SUM(CASE WHEN f.isDirectory = false THEN f.fileSize ELSE 0 END), 0), COUNT(f)) " +
+            "FROM file_nodes f WHERE f.path LIKE CONCAT(:prefix, '%') " +
+            "AND f.isDeleted = false AND f.purgeJobId IS NULL GROUP BY f.owner.id")
+    List<SubtreeTotals> sumLiveSubtreeByOwner(@Param("prefix") String prefix);
+
+    // As above, also counting the rows already claimed by the given purge job
+    @Query("SELECT new com.cfs.backend.dto.SubtreeTotals(f.owner.id, " +
+            "COALESCE(SUM(CASE WHEN f.isDirectory = false THEN f.fileSize ELSE 0 END), 0), COUNT(f)) " +
+            "FROM file_nodes f WHERE f.path LIKE CONCAT(:prefix, '%') " +
+            "AND f.isDeleted = false AND (f.purgeJobId IS NULL OR f.purgeJobId = :jobId) GROUP BY f.owner.id")
+    List<SubtreeTotals> sumLiveSubtreeForPurge(@Param("prefix") String prefix, @Param("jobId") Long jobId);
+
+    // What a folder's rollup should be, from scratch (used for repair)
+
+    @Query("SELECT new com.cfs.backend.dto.SubtreeTotals(f.owner.id, " +
+            "COALESCE(SUM(CASE WHEN f.isDirectory = false THEN f.fileSize ELSE 0 END), 0), COUNT(f)) " +
+            "FROM file_nodes f WHERE f.path LIKE CONCAT(:prefix, '%') AND f.id <> :selfId AND f.owner.id = :ownerId " +
+            "AND f.isDeleted = false AND f.purgeJobId IS NULL GROUP BY f.owner.id")
+    List<SubtreeTotals> sumLiveBelow(@Param("prefix") String prefix, @Param("selfId") Long selfId,
+                                     @Param("ownerId") Long ownerId);
+
+    @Query("SELECT new com.cfs.backend.dto.SubtreeTotals(f.owner.id, " +
+            "COALESCE(SUM(CASE WHEN f.isDirectory = false THEN f.fileSize ELSE 0 END), 0), COUNT(f)) " +
+            "FROM file_nodes f WHERE f.path LIKE CONCAT(:prefix, '%') AND f.id <> :selfId AND f.owner.id = :ownerId " +
+            "AND f.isDeleted = true AND f.deletedAt = :deletedAt AND f.purgeJobId IS NULL GROUP BY f.owner.id")
+    List<SubtreeTotals> sumTrashedBelow(@Param("prefix") String prefix, @Param("selfId") Long selfId,
+                                        @Param("ownerId") Long ownerId, @Param("deletedAt") Instant deletedAt);
+
+    @Query("SELECT f.id FROM file_nodes f WHERE f.isDirectory = true AND f.path IS NOT NULL AND f.id > :afterId " +
+            "AND (:all = true OR f.subtreeSize IS NULL OR f.subtreeCount IS NULL) ORDER BY f.id")
+    List<Long> findFoldersToRepair(@Param("afterId") Long afterId, @Param("all") boolean all, Pageable pageable);
+
+    // Locked while recomputed, so a concurrent delta waits and lands on top of the fresh value
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT f FROM file_nodes f WHERE f.id IN :ids ORDER BY f.id")
+    List<FileNode> lockForRepair(@Param("ids") List<Long> ids);
+
+    @Modifying
+    @Query("UPDATE file_nodes f SET f.subtreeSize = :size, f.subtreeCount = :count WHERE f.id = :id")
+    int setRollup(@Param("id") Long id, @Param("size") long size, @Param("count") long count);
+
+    // One page of a folder's live children; position and sort come from DirectoryListingService
+    Window<FileNodeSummary> findByParentAndIsDeletedFalseAndPurgeJobIdIsNull(FileNode parent, ScrollPosition position,
+                                                                            Sort sort, Limit limit);
 
 }
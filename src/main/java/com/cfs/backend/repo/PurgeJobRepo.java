@@ -0,0 +1,44 @@
+package com.cfs.backend.repo;
+
+import com.cfs.backend.entity.PurgeJob;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface PurgeJobRepo extends JpaRepository<PurgeJob, Long> {
+
+    // Jobs some node could claim now: new ones, running ones whose runner went quiet, and
+    // failed ones done backing off with attempts left
+    @Query("SELECT j FROM PurgeJob j WHERE j.status = com.cfs.backend.entity.PurgeStatus.PENDING " +
+            "OR (j.status = com.cfs.backend.entity.PurgeStatus.RUNNING " +
+            "    AND (j.heartbeatAt IS NULL OR j.heartbeatAt < :staleBefore)) " +
+            "OR (j.status = com.cfs.backend.entity.PurgeStatus.FAILED " +
+            "    AND j.attempts < :maxAttempts AND (j.retryAt IS NULL OR j.retryAt <= :now))")
+    List<PurgeJob> findResumable(@Param("now") Instant now, @Param("staleBefore") Instant staleBefore,
+                                 @Param("maxAttempts") int maxAttempts);
+
+    // The same conditions as one conditional UPDATE, so of all the nodes polling, exactly one
+    // gets each run
+    @Modifying
+    @Query("UPDATE PurgeJob j SET j.status = com.cfs.backend.entity.PurgeStatus.RUNNING, j.runner = :runner, " +
+            "j.heartbeatAt = :now, j.attempts = j.attempts + 1, j.failedObjects = 0 " +
+            "WHERE j.id = :id AND (j.status = com.cfs.backend.entity.PurgeStatus.PENDING " +
+            "OR (j.status = com.cfs.backend.entity.PurgeStatus.RUNNING " +
+            "    AND (j.heartbeatAt IS NULL OR j.heartbeatAt < :staleBefore)) " +
+            "OR (j.status = com.cfs.backend.entity.PurgeStatus.FAILED " +
+            "    AND j.attempts < :maxAttempts AND (j.retryAt IS NULL OR j.retryAt <= :now)))")
+    int claim(@Param("id") Long id, @Param("runner") String runner, @Param("now") Instant now,
+              @Param("staleBefore") Instant staleBefore, @Param("maxAttempts") int maxAttempts);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT j FROM PurgeJob j WHERE j.id = :id")
+    Optional<PurgeJob> lockById(@Param("id") Long id);
+
+}
@@ -1,10 +1,16 @@
 package com.cfs.backend.repo;
 
+import com.cfs.backend.dto.SharedItem;
 import com.cfs.backend.entity.FileAccessLog;
 import com.cfs.backend.entity.FileNode;
 import com.cfs.backend.entity.SharePermission;
 import com.cfs.backend.entity.User;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.Optional;
@@ -15,4 +21,27 @@ public interface SharePermissionRepo extends JpaRepository<SharePermission, Long
 
     Optional<SharePermission> findByFileNodeAndSharedWithUser(FileNode fileNode, User sharedWithUser);
 
+    List<SharePermission> findBySharedWithUserAndFileNodeIn(User sharedWithUser, List<FileNode> fileNodes);
+
+    // The shared-with-me view in one query: live shared nodes with their owner's name, leaving out
+    // any that lie inside another node shared with the same user (reached by opening that one)
+    @Query("SELECT new com.cfs.backend.dto.SharedItem(f.id, f.fileName, f.isDirectory, f.mimeType, " +
+            "CASE WHEN f.isDirectory = true THEN f.subtreeSize ELSE f.fileSize END, f.isLocked, o.username, " +
+            "p.permissionType, p.sharedAt) " +
+            "FROM SharePermission p JOIN p.fileNode f JOIN f.owner o " +
+            "WHERE p.sharedWithUser.id = :userId AND f.isDeleted = false AND f.purgeJobId IS NULL " +
+            "AND NOT EXISTS (SELECT 1 FROM SharePermission sp JOIN sp.fileNode a " +
+            "WHERE sp.sharedWithUser.id = :userId AND a.id <> f.id AND a.isDeleted = false " +
+            "AND f.path LIKE CONCAT(a.path, '%'))")
+    Slice<SharedItem> findSharedRoots(@Param("userId") Long userId, Pageable pageable);
+
+    // Paths of the live nodes shared with a user; search turns each into a path prefix
+    @Query("SELECT f.path FROM SharePermission p JOIN p.fileNode f " +
+            "WHERE p.sharedWithUser.id = :userId AND f.isDeleted = false AND f.purgeJobId IS NULL")
+    List<String> findSharedPaths(@Param("userId") Long userId);
+
+    @Modifying
+    @Query("DELETE FROM SharePermission p WHERE p.fileNode.id IN :nodeIds")
+    int deleteByFileNodeIds(@Param("nodeIds") List<Long> nodeIds);
+
 }
@@ -0,0 +1,39 @@
+package com.cfs.backend.repo;
+
+import com.cfs.backend.entity.UploadSession;
+import com.cfs.backend.entity.UploadSessionChunk;
+import com.cfs.backend.entity.UploadSessionStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface UploadSessionChunkRepo extends JpaRepository<UploadSessionChunk, Long> {
+
+    Optional<UploadSessionChunk> findBySessionAndChunkNumber(UploadSession session, Integer chunkNumber);
+
+    List<UploadSessionChunk> findBySessionOrderByChunkNumber(UploadSession session);
+
+    @Query("SELECT c.chunkNumber FROM UploadSessionChunk c WHERE c.session = :session ORDER BY c.chunkNumber")
+    List<Integer> findChunkNumbers(@Param("session") UploadSession session);
+
+    @Modifying
+    @Query("DELETE FROM UploadSessionChunk c WHERE c.session = :session")
+    int deleteBySession(@Param("session") UploadSession session);
+
+    @Modifying
+    @Query("DELETE FROM UploadSessionChunk c WHERE c.session.id IN "
+            + "(SELECT s.id FROM UploadSession s WHERE s.parent.id IN :parentIds)")
+    int deleteByParentIds(@Param("parentIds") Collection<Long> parentIds);
+
+    @Modifying
+    @Query("DELETE FROM UploadSessionChunk c WHERE c.session.id IN "
+            + "(SELECT s.id FROM UploadSession s WHERE s.status NOT IN :unfinished AND s.expiresAt < :now)")
+    int deleteFinished(@Param("unfinished") Collection<UploadSessionStatus> unfinished, @Param("now") Instant now);
+
+}
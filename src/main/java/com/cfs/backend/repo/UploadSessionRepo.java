@@ -0,0 +1,49 @@
+package com.cfs.backend.repo;
+
+import com.cfs.backend.entity.UploadSession;
+import com.cfs.backend.entity.UploadSessionStatus;
+import org.springframework.data.domain.Pageable;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface UploadSessionRepo extends JpaRepository<UploadSession, Long> {
+
+    // Commit, abort and expiry take the row first, so only one of them finishes a session
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM UploadSession s WHERE s.id = :id")
+    Optional<UploadSession> lockById(@Param("id") Long id);
+
+    @Query("SELECT s.status FROM UploadSession s WHERE s.id = :id")
+    UploadSessionStatus findStatus(@Param("id") Long id);
+
+    // Unfinished sessions past their expiry, by id
+    @Query("SELECT s FROM UploadSession s WHERE s.status IN :statuses AND s.expiresAt < :now AND s.id > :afterId " +
+            "ORDER BY s.id")
+    List<UploadSession> findExpired(@Param("statuses") Collection<UploadSessionStatus> statuses,
+                                    @Param("now") Instant now,
+                                    @Param("afterId") Long afterId,
+                                    Pageable pageable);
+
+    @Query("SELECT s FROM UploadSession s WHERE s.parent.id IN :parentIds AND s.status IN :statuses")
+    List<UploadSession> findByParentIds(@Param("parentIds") Collection<Long> parentIds,
+                                        @Param("statuses") Collection<UploadSessionStatus> statuses);
+
+    @Modifying
+    @Query("DELETE FROM UploadSession s WHERE s.parent.id IN :parentIds")
+    int deleteByParentIds(@Param("parentIds") Collection<Long> parentIds);
+
+    // Finished sessions are kept until their expiry, so a client can still read the outcome
+    @Modifying
+    @Query("DELETE FROM UploadSession s WHERE s.status NOT IN :unfinished AND s.expiresAt < :now")
+    int deleteFinished(@Param("unfinished") Collection<UploadSessionStatus> unfinished, @Param("now") Instant now);
+
+}
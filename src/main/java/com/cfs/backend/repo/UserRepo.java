@@ -2,6 +2,9 @@ package com.cfs.backend.repo;
 
 import com.cfs.backend.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import software.amazon.awssdk.services.s3.endpoints.internal.Value;
 
 import java.util.Optional;
@@ -10,4 +13,19 @@ import java.util.Optional;
 public interface UserRepo extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email) ;
     Boolean existsByEmail(String email);
+
+    // Quota changes are single conditional UPDATEs, never read-modify-write on the entity
+
+    @Modifying
+    @Query("UPDATE User u SET u.storageUsed = u.storageUsed + :bytes " +
+            "WHERE u.id = :userId AND u.storageUsed + :bytes <= u.storageAlloted")
+    int tryReserveStorage(@Param("userId") Long userId, @Param("bytes") long bytes);
+
+    @Modifying
+    @Query("UPDATE User u SET u.storageUsed = CASE WHEN u.storageUsed > :bytes THEN u.storageUsed - :bytes ELSE 0 END " +
+            "WHERE u.id = :userId")
+    int releaseStorage(@Param("userId") Long userId, @Param("bytes") long bytes);
+
+    @Query("SELECT u.storageUsed FROM User u WHERE u.id = :userId")
+    long findStorageUsed(@Param("userId") Long userId);
 }
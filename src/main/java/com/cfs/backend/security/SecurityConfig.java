@@ -1,9 +1,12 @@
 package com.cfs.backend.security;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
@@ -25,6 +28,20 @@ public class SecurityConfig {
     @Autowired
     private CorsConfigurationSource corsConfigurationSource;
 
+    @Autowired
+    private TokenService tokenService;
+
+    @Autowired
+    private TokenAuthenticationConverter tokenAuthenticationConverter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Stateless: /login answers with a signed token and every request carries it as a bearer
+    // token, verified locally, so no node keeps a session and any node can serve any request
+    @Value("${auth.stateless.enabled:false}")
+    private boolean stateless;
+
     @Bean
     public PasswordEncoder passwordEncoder() {
         return new BCryptPasswordEncoder();
@@ -34,33 +51,66 @@ public class SecurityConfig {
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         http
                 .cors(cors -> cors.configurationSource(corsConfigurationSource))
-                .csrf(csrf -> csrf
-                        .csrfTokenRepository(CookieCsrfTokenRepository.withHttpOnlyFalse())
-                )
-                .sessionManagement(session -> session
-                        .sessionCreationPolicy(SessionCreationPolicy.IF_REQUIRED)
-                )
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers("/auth/register", "/auth/me", "/login", "/logout").permitAll()
                         .requestMatchers("/api/**").authenticated()
                         .anyRequest().permitAll()
                 )
-                .formLogin(form -> form
-                        .loginProcessingUrl("/login")
-                        .successHandler((request, response, authentication) -> response.setStatus(200))
-                        .failureHandler((request, response, exception) -> response.setStatus(401))
-                )
-                .logout(logout -> logout
-                        .logoutUrl("/logout")
-                        .deleteCookies("JSESSIONID", "XSRF-TOKEN")
-                        .invalidateHttpSession(true)
-                        .logoutSuccessHandler((request, response, authentication) -> response.setStatus(200))
-                )
                 .userDetailsService(customUserDetailsService)
                 .exceptionHandling(exceptions ->
                         exceptions.authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED))
                 );
 
+        if (stateless) {
+            http
+                    // Nothing is authenticated by cookie, so there is nothing for CSRF to forge
+                    .csrf(AbstractHttpConfigurer::disable)
+                    .sessionManagement(session -> session
+                            .sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+                    )
+                    .formLogin(form -> form
+                            .loginProcessingUrl("/login")
+                            .successHandler((request, response, authentication) -> {
+                                response.setStatus(200);
+                                response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                                objectMapper.writeValue(response.getOutputStream(),
+                                        tokenService.issue((SecurityUser) authentication.getPrincipal()));
+                            })
+                            .failureHandler((request, response, exception) -> response.setStatus(401))
+                    )
+                    // Tokens simply expire; the client drops its copy
+                    .logout(logout -> logout
+                            .logoutUrl("/logout")
+                            .logoutSuccessHandler((request, response, authentication) -> response.setStatus(200))
+                    )
+                    .oauth2ResourceServer(oauth -> oauth
+                            .jwt(jwt -> jwt
+                                    .decoder(tokenService.decoder())
+                                    .jwtAuthenticationConverter(tokenAuthenticationConverter)
+                            )
+                            .authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED))
+                    );
+        } else {
+            http
+                    .csrf(csrf -> csrf
+                            .csrfTokenRepository(CookieCsrfTokenRepository.withHttpOnlyFalse())
+                    )
+                    .sessionManagement(session -> session
+                            .sessionCreationPolicy(SessionCreationPolicy.IF_REQUIRED)
+                    )
+                    .formLogin(form -> form
+                            .loginProcessingUrl("/login")
+                            .successHandler((request, response, authentication) -> response.setStatus(200))
+                            .failureHandler((request, response, exception) -> response.setStatus(401))
+                    )
+                    .logout(logout -> logout
+                            .logoutUrl("/logout")
+                            .deleteCookies("JSESSIONID", "XSRF-TOKEN")
+                            .invalidateHttpSession(true)
+                            .logoutSuccessHandler((request, response, authentication) -> response.setStatus(200))
+                    );
+        }
+
         return http.build();
     }
 }
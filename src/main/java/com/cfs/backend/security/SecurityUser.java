@@ -3,25 +3,45 @@ package com.cfs.backend.security;
 
 import com.cfs.backend.entity.User;
 import lombok.Data;
+import org.springframework.security.core.CredentialsContainer;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
 import java.util.Collection;
 import java.util.List;
 
+// Holds a small detached copy of the user (id, username, quota), never the managed entity with
+// its collections: it is what a session stores, and what a token's claims are turned back into.
+// The password hash is dropped once authentication succeeds.
 @Data
-public class SecurityUser implements UserDetails {
+public class SecurityUser implements UserDetails, CredentialsContainer {
 
     private final User user;
 
     public SecurityUser(User user) {
-        this.user = user;
+        this.user = snapshot(user);
     }
 
     public User getUser() {
         return user;
     }
 
+    // Enough of the row for every caller of getUser(): ids for queries, the quota for checks
+    public static User snapshot(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setUsername(user.getUsername());
+        copy.setPassword(user.getPassword());
+        copy.setStorageAlloted(user.getStorageAlloted());
+        copy.setStorageUsed(null);
+        return copy;
+    }
+
+    @Override
+    public void eraseCredentials() {
+        user.setPassword(null);
+    }
+
 
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
@@ -57,4 +77,4 @@ public class SecurityUser implements UserDetails {
     public boolean isEnabled() {
         return true;
     }
-}
\ No newline at end of file
+}
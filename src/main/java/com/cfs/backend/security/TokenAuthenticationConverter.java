@@ -0,0 +1,45 @@
+package com.cfs.backend.security;
+
+import com.cfs.backend.cache.UserClaimsCache;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.UserRepo;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.InvalidBearerTokenException;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Turns a verified token into the same SecurityUser principal a session login produces, so
+// @AuthenticationPrincipal works unchanged. The user's details come from the claims cache.
+@Component
+@RequiredArgsConstructor
+public class TokenAuthenticationConverter implements Converter<Jwt, AbstractAuthenticationToken> {
+
+    private final UserClaimsCache userClaimsCache;
+    private final UserRepo userRepo;
+
+    @Override
+    public AbstractAuthenticationToken convert(Jwt jwt) {
+        Long userId;
+        try {
+            userId = Long.valueOf(jwt.getSubject());
+        } catch (NumberFormatException e) {
+            throw new InvalidBearerTokenException("Invalid token subject");
+        }
+        User user = userClaimsCache.get(userId,
+                () -> userRepo.findById(userId).map(SecurityUser::snapshot).map(this::withoutPassword).orElse(null));
+        if (user == null) {
+            throw new InvalidBearerTokenException("User no longer exists");
+        }
+        return UsernamePasswordAuthenticationToken.authenticated(new SecurityUser(user), jwt, List.of());
+    }
+
+    private User withoutPassword(User user) {
+        user.setPassword(null);
+        return user;
+    }
+}
@@ -0,0 +1,77 @@
+package com.cfs.backend.security;
+
+import com.cfs.backend.dto.TokenResponse;
+import com.nimbusds.jose.jwk.source.ImmutableSecret;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtEncoder;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+
+// HMAC-signed (HS256) access tokens. Every node shares jwt.secret.key, so any node verifies a
+// token locally: no session, no call to another service. The subject is the user id.
+@Service
+public class TokenService {
+
+    private static final int MIN_KEY_BYTES = 32;
+
+    private final JwtEncoder encoder;
+    private final JwtDecoder decoder;
+    private final long expirationMs;
+
+    public TokenService(@Value("${jwt.secret.key:}") String secretKey,
+                        @Value("${jwt.expiration.ms:3600000}") long expirationMs,
+                        @Value("${auth.stateless.enabled:false}") boolean stateless) {
+        SecretKey key = new SecretKeySpec(keyBytes(secretKey, stateless), "HmacSHA256");
+        this.encoder = new NimbusJwtEncoder(new ImmutableSecret<>(key));
+        this.decoder = NimbusJwtDecoder.withSecretKey(key).macAlgorithm(MacAlgorithm.HS256).build();
+        this.expirationMs = expirationMs;
+    }
+
+    public TokenResponse issue(SecurityUser securityUser) {
+        Instant now = Instant.now();
+        Instant expiresAt = now.plusMillis(expirationMs);
+        JwtClaimsSet claims = JwtClaimsSet.builder()
+                .subject(String.valueOf(securityUser.getUser().getId()))
+                .claim("username", securityUser.getUsername())
+                .issuedAt(now)
+                .expiresAt(expiresAt)
+                .build();
+        String token = encoder.encode(JwtEncoderParameters.from(JwsHeader.with(MacAlgorithm.HS256).build(), claims))
+                .getTokenValue();
+        return new TokenResponse(token, expiresAt);
+    }
+
+    // Checks the signature and expiry
+    public JwtDecoder decoder() {
+        return decoder;
+    }
+
+    // Base64; only session mode may run without one (tokens are then never issued)
+    private static byte[] keyBytes(String secretKey, boolean stateless) {
+        if (secretKey == null || secretKey.isBlank()) {
+            if (stateless) {
+                throw new IllegalStateException("jwt.secret.key must be set when auth.stateless.enabled is true");
+            }
+            byte[] random = new byte[MIN_KEY_BYTES];
+            new SecureRandom().nextBytes(random);
+            return random;
+        }
+        byte[] bytes = Base64.getDecoder().decode(secretKey.trim());
+        if (bytes.length < MIN_KEY_BYTES) {
+            throw new IllegalStateException("jwt.secret.key must be at least " + MIN_KEY_BYTES + " bytes");
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,138 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.entity.FileAccessLog;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileAccessLogRepo;
+import com.cfs.backend.repo.FileNodeRepo;
+import com.cfs.backend.repo.UserRepo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Write-behind access log for the recent view. A download or listing only updates an in-memory
+// map, which keeps the latest time per (user, node), so repeated hits on one file cost nothing
+// extra. A scheduled flush writes the map out in batches: one query finds the rows that already
+// exist, then the updates and inserts go out as JDBC batches. A crash loses at most one flush
+// interval of recency.
+@Service
+@Slf4j
+public class AccessLogService {
+
+    private final FileAccessLogRepo fileAccessLogRepo;
+    private final FileNodeRepo fileNodeRepo;
+    private final UserRepo userRepo;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter dropped;
+
+    private record Key(Long userId, Long nodeId) {
+    }
+
+    private final Map<Key, Instant> pending = new ConcurrentHashMap<>();
+
+    @Value("${access-log.batch-size:500}")
+    private int batchSize;
+
+    @Value("${access-log.max-pending:100000}")
+    private int maxPending;
+
+    public AccessLogService(FileAccessLogRepo fileAccessLogRepo, FileNodeRepo fileNodeRepo, UserRepo userRepo,
+                            TransactionTemplate transactionTemplate, MeterRegistry meterRegistry) {
+        this.fileAccessLogRepo = fileAccessLogRepo;
+        this.fileNodeRepo = fileNodeRepo;
+        this.userRepo = userRepo;
+        this.transactionTemplate = transactionTemplate;
+        this.dropped = Counter.builder("access.log.dropped").register(meterRegistry);
+        Gauge.builder("access.log.pending", pending, Map::size).register(meterRegistry);
+    }
+
+    public void record(User user, FileNode node) {
+        record(user, List.of(node));
+    }
+
+    // Never blocks or touches the database. When the buffer is full, new pairs are dropped
+    // until the next flush; pairs already buffered still move forward.
+    public void record(User user, List<FileNode> nodes) {
+        Instant now = Instant.now();
+        for (FileNode node : nodes) {
+            Key key = new Key(user.getId(), node.getId());
+            if (pending.size() >= maxPending && !pending.containsKey(key)) {
+                dropped.increment();
+                continue;
+            }
+            pending.merge(key, now, (previous, latest) -> latest.isAfter(previous) ? latest : previous);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${access-log.flush-interval-ms:5000}")
+    @PreDestroy
+    public synchronized void flush() {
+        List<Map.Entry<Key, Instant>> batch = new ArrayList<>();
+        for (Key key : pending.keySet()) {
+            // An access recorded after this remove starts a new entry for the next flush
+            Instant accessedAt = pending.remove(key);
+            if (accessedAt != null) {
+                batch.add(Map.entry(key, accessedAt));
+            }
+            if (batch.size() >= batchSize) {
+                write(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    private void write(List<Map.Entry<Key, Instant>> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                Set<Long> userIds = new HashSet<>();
+                Set<Long> nodeIds = new HashSet<>();
+                batch.forEach(entry -> {
+                    userIds.add(entry.getKey().userId());
+                    nodeIds.add(entry.getKey().nodeId());
+                });
+                Map<Key, FileAccessLog> existing = new HashMap<>();
+                fileAccessLogRepo.findForFlush(userIds, nodeIds).forEach(log -> existing.put(
+                        new Key(log.getUser().getId(), log.getFileNode().getId()), log));
+                // Nodes purged since the access have nothing left to point at
+                Set<Long> live = new HashSet<>(fileNodeRepo.findUnpurgedIds(nodeIds));
+
+                List<FileAccessLog> created = new ArrayList<>();
+                for (Map.Entry<Key, Instant> entry : batch) {
+                    FileAccessLog log = existing.get(entry.getKey());
+                    if (log != null) {
+                        // Dirty rows go out with the flush, batched
+                        if (entry.getValue().isAfter(log.getLastAccessedAt())) {
+                            log.setLastAccessedAt(entry.getValue());
+                        }
+                    } else if (live.contains(entry.getKey().nodeId())) {
+                        created.add(new FileAccessLog(null, userRepo.getReferenceById(entry.getKey().userId()),
+                                fileNodeRepo.getReferenceById(entry.getKey().nodeId()), entry.getValue()));
+                    }
+                }
+                fileAccessLogRepo.saveAll(created);
+            });
+        } catch (Exception e) {
+            // Recency is a hint; losing a batch (e.g. to a node purged mid-flush) is acceptable
+            dropped.increment(batch.size());
+            log.warn("Could not write {} access log entries", batch.size(), e);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.cache.PermissionCache;
+import com.cfs.backend.dto.AncestorAccess;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.PermissionType;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Service
+@RequiredArgsConstructor
+public class AccessService {
+
+    private final FileNodeRepo fileNodeRepo;
+    private final FileTreeService fileTreeService;
+    private final PermissionCache permissionCache;
+
+    public boolean hasAccess(User user, FileNode file, PermissionType requiredLevel) {
+        PermissionType effective = resolvePermission(user, file);
+        return effective != null && hasSufficientPermission(effective, requiredLevel);
+    }
+
+    // Nearest ancestor wins: an owned node grants EDIT, otherwise the nearest share decides.
+    // Returns null when the user has no access at all.
+    public PermissionType resolvePermission(User user, FileNode file) {
+        if (file.getOwner().getId().equals(user.getId())) {
+            return PermissionType.EDIT;
+        }
+        PermissionCache.Entry cached = permissionCache.get(user.getId(), file.getId());
+        if (cached != null) {
+            return cached.permission();
+        }
+        long generation = permissionCache.generation();
+        PermissionType resolved = resolveFromIndex(user, file);
+        permissionCache.put(user.getId(), file.getId(), new PermissionCache.Entry(file.getPath(), resolved), generation);
+        return resolved;
+    }
+
+    // Same rules as resolvePermission for many nodes, with one query for every ancestor involved
+    public Map<Long, PermissionType> resolvePermissions(User user, List<FileNode> files) {
+        Map<Long, PermissionType> result = new HashMap<>();
+        List<FileNode> unresolved = new ArrayList<>();
+        for (FileNode file : files) {
+            if (file.getOwner().getId().equals(user.getId())) {
+                result.put(file.getId(), PermissionType.EDIT);
+                continue;
+            }
+            PermissionCache.Entry cached = permissionCache.get(user.getId(), file.getId());
+            if (cached != null) {
+                result.put(file.getId(), cached.permission());
+            } else {
+                unresolved.add(file);
+            }
+        }
+        if (unresolved.isEmpty()) {
+            return result;
+        }
+
+        long generation = permissionCache.generation();
+        Set<Long> allIds = new HashSet<>();
+        unresolved.forEach(file -> allIds.addAll(fileTreeService.pathIds(file)));
+        Map<Long, AncestorAccess> byId = findAncestorAccess(new ArrayList<>(allIds), user);
+        for (FileNode file : unresolved) {
+            PermissionType resolved = nearestGrant(user, fileTreeService.pathIds(file), byId);
+            result.put(file.getId(), resolved);
+            permissionCache.put(user.getId(), file.getId(), new PermissionCache.Entry(file.getPath(), resolved), generation);
+        }
+        return result;
+    }
+
+    private PermissionType resolveFromIndex(User user, FileNode file) {
+        List<Long> pathIds = fileTreeService.pathIds(file);
+        return nearestGrant(user, pathIds, findAncestorAccess(pathIds, user));
+    }
+
+    private Map<Long, AncestorAccess> findAncestorAccess(List<Long> ids, User user) {
+        Map<Long, AncestorAccess> byId = new HashMap<>();
+        for (AncestorAccess row : fileNodeRepo.findAncestorAccess(ids, user)) {
+            byId.put(row.nodeId(), row);
+        }
+        return byId;
+    }
+
+    private PermissionType nearestGrant(User user, List<Long> pathIds, Map<Long, AncestorAccess> byId) {
+        for (int i = pathIds.size() - 1; i >= 0; i--) {
+            AncestorAccess row = byId.get(pathIds.get(i));
+            if (row == null) {
+                continue;
+            }
+            if (row.ownerId().equals(user.getId())) {
+                return PermissionType.EDIT;
+            }
+            if (row.permissionType() != null) {
+                return row.permissionType();
+            }
+        }
+        return null;
+    }
+
+    public void onShareGranted(FileNode file, User sharedWith) {
+        permissionCache.evictSubtreeForUser(sharedWith.getId(), file.getPath());
+    }
+
+    // Call when a subtree is moved, purged or changes owner
+    public void onSubtreeChanged(String pathPrefix) {
+        permissionCache.evictSubtree(pathPrefix);
+    }
+
+    public boolean hasSufficientPermission(PermissionType actual, PermissionType required) {
+        if (actual == PermissionType.EDIT) {
+            return true;
+        }
+        return actual == PermissionType.VIEW && required == PermissionType.VIEW;
+    }
+
+    // Nearest locked node among file and its ancestors, or null
+    public FileNode findFirstLocked(FileNode file) {
+        return nearestLocked(fileTreeService.pathIds(file));
+    }
+
+    // Nearest locked strict ancestor of file, or null
+    public FileNode findFirstLockedAncestor(FileNode file) {
+        return nearestLocked(fileTreeService.ancestorIds(file));
+    }
+
+    // Nearest locked strict ancestor per file id, for files that have one, in one query
+    public Map<Long, FileNode> findFirstLockedAncestors(List<FileNode> files) {
+        Set<Long> allIds = new HashSet<>();
+        files.forEach(file -> allIds.addAll(fileTreeService.ancestorIds(file)));
+        if (allIds.isEmpty()) {
+            return Map.of();
+        }
+        List<FileNode> locked = fileNodeRepo.findLockedAmong(new ArrayList<>(allIds));
+        Map<Long, FileNode> result = new HashMap<>();
+        for (FileNode file : files) {
+            FileNode nearest = nearest(locked.stream()
+                    .filter(candidate -> fileTreeService.isAncestor(candidate, file))
+                    .toList());
+            if (nearest != null) {
+                result.put(file.getId(), nearest);
+            }
+        }
+        return result;
+    }
+
+    private FileNode nearestLocked(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return null;
+        }
+        return nearest(fileNodeRepo.findLockedAmong(ids));
+    }
+
+    private FileNode nearest(List<FileNode> nodes) {
+        FileNode nearest = null;
+        for (FileNode node : nodes) {
+            if (nearest == null || node.getPath().length() > nearest.getPath().length()) {
+                nearest = node;
+            }
+        }
+        return nearest;
+    }
+}
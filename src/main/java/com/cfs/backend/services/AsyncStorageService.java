@@ -0,0 +1,158 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.cache.PresignedUrlCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// The object operations of StorageService on the async client. Each call returns at once with a
+// future; no thread waits on S3 meanwhile. At most max-in-flight operations run at a time: a call
+// that cannot get a slot within acquire-timeout fails with RejectedExecutionException, so a slow
+// bucket pushes back on clients instead of piling up requests in memory. Futures complete on
+// this service's own pool, so callers may do blocking work (database) in their continuations.
+@Service
+@Slf4j
+public class AsyncStorageService {
+
+    private final S3AsyncClient s3AsyncClient;
+    private final PresignedUrlCache presignedUrlCache;
+    private final Semaphore inFlight;
+    private final long acquireTimeoutMs;
+    private final long inMemoryLimit;
+    private final Counter rejected;
+    private final ExecutorService bodyExecutor;
+    private final ExecutorService completionExecutor;
+    private final ExecutorService prepareExecutor;
+
+    @Value("${minio.bucket-name}")
+    private String bucketName;
+
+    public AsyncStorageService(S3AsyncClient s3AsyncClient,
+                               PresignedUrlCache presignedUrlCache,
+                               MeterRegistry meterRegistry,
+                               @Value("${storage.async.max-in-flight:256}") int maxInFlight,
+                               @Value("${storage.async.acquire-timeout-ms:100}") long acquireTimeoutMs,
+                               @Value("${storage.async.in-memory-limit:1048576}") long inMemoryLimit,
+                               @Value("${storage.async.body-threads:16}") int bodyThreads,
+                               @Value("${storage.async.completion-threads:8}") int completionThreads,
+                               @Value("${storage.async.prepare-threads:8}") int prepareThreads) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.presignedUrlCache = presignedUrlCache;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.inMemoryLimit = inMemoryLimit;
+        this.bodyExecutor = Executors.newFixedThreadPool(bodyThreads);
+        this.completionExecutor = Executors.newFixedThreadPool(completionThreads);
+        this.prepareExecutor = Executors.newFixedThreadPool(prepareThreads);
+        this.rejected = Counter.builder("storage.async.rejected").register(meterRegistry);
+        Gauge.builder("storage.async.in-flight", inFlight, semaphore -> maxInFlight - semaphore.availablePermits())
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void stop() {
+        bodyExecutor.shutdownNow();
+        completionExecutor.shutdownNow();
+        prepareExecutor.shutdownNow();
+    }
+
+    // Blocking work that leads up to a storage call (hashing a spooled file, a database lookup)
+    // runs on its own pool, so the caller's thread is not held for it either
+    public <T> CompletableFuture<T> prepare(Supplier<T> work) {
+        return CompletableFuture.supplyAsync(work, prepareExecutor);
+    }
+
+    // Small files are sent from memory. Larger ones are read from the resolver's spool file by a
+    // body thread as the client asks for more, so the body pool also bounds how many large
+    // uploads stream at once.
+    public CompletableFuture<Void> upload(String storagePath, MultipartFile file) {
+        return submit(() -> {
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(storagePath)
+                    .contentType(file.getContentType())
+                    .contentLength(file.getSize())
+                    .build();
+            AsyncRequestBody body;
+            try {
+                body = file.getSize() <= inMemoryLimit
+                        ? AsyncRequestBody.fromBytes(file.getBytes())
+                        : AsyncRequestBody.fromInputStream(file.getInputStream(), file.getSize(), bodyExecutor);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return s3AsyncClient.putObject(putObjectRequest, body);
+        });
+    }
+
+    // Objects over the multipart threshold are copied in parts by the client
+    public CompletableFuture<Void> copy(String sourcePath, String targetPath) {
+        return submit(() -> s3AsyncClient.copyObject(CopyObjectRequest.builder()
+                .sourceBucket(bucketName)
+                .sourceKey(sourcePath)
+                .destinationBucket(bucketName)
+                .destinationKey(targetPath)
+                .build()));
+    }
+
+    public CompletableFuture<Void> delete(String storagePath) {
+        if (storagePath == null || storagePath.isEmpty()) {
+            log.warn("storagePath is null");
+            return CompletableFuture.completedFuture(null);
+        }
+        presignedUrlCache.evict(storagePath);
+        return submit(() -> s3AsyncClient.deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucketName)
+                .key(storagePath)
+                .build()));
+    }
+
+    // Takes a slot, starts the request, and gives the slot back when it finishes either way
+    private CompletableFuture<Void> submit(Supplier<CompletableFuture<?>> request) {
+        try {
+            if (!inFlight.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Storage is busy"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Storage is busy"));
+        }
+        CompletableFuture<?> started;
+        try {
+            started = request.get();
+        } catch (RuntimeException e) {
+            inFlight.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        started.whenComplete((response, error) -> {
+            inFlight.release();
+            if (error != null) {
+                completionExecutor.execute(() -> done.completeExceptionally(error));
+            } else {
+                completionExecutor.execute(() -> done.complete(null));
+            }
+        });
+        return done;
+    }
+}
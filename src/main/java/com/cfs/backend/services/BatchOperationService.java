@@ -0,0 +1,256 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.BatchItemResult;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.PermissionType;
+import com.cfs.backend.entity.SharePermission;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import com.cfs.backend.repo.SharePermissionRepo;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// Multi-select delete, restore, move and share. The selection is loaded with one query,
+// permissions and locks are resolved for all of it together, each distinct lock's password is
+// checked once, and the writes go out in as few statements as the operation allows. Every id
+// gets its own result, with the same messages the single-item endpoints use.
+@Service
+@RequiredArgsConstructor
+public class BatchOperationService {
+
+    private final FileNodeRepo fileNodeRepo;
+    private final SharePermissionRepo sharePermissionRepo;
+    private final AccessService accessService;
+    private final FileTreeService fileTreeService;
+    private final TrashService trashService;
+    private final QuotaService quotaService;
+    private final UnlockGrantService unlockGrantService;
+
+    // The loaded selection, and the per-id outcome as checks fail
+    private final class Selection {
+        private final Map<Long, FileNode> files = new HashMap<>();
+        private final Map<Long, String> errors = new HashMap<>();
+        private final Map<Long, Boolean> unlocked = new HashMap<>();
+        private final Map<Long, FileNode> lockedParents;
+        private final User user;
+        private final String password;
+        private final String unlockGrant;
+
+        Selection(User user, List<Long> ids, String password, String unlockGrant) {
+            fileNodeRepo.findAllById(ids.stream().filter(Objects::nonNull).distinct().toList())
+                    .forEach(file -> files.put(file.getId(), file));
+            this.lockedParents = accessService.findFirstLockedAncestors(found());
+            this.user = user;
+            this.password = password;
+            this.unlockGrant = unlockGrant;
+        }
+
+        List<FileNode> found() {
+            return new ArrayList<>(files.values());
+        }
+
+        // bcrypt is the expensive part; each locked folder is checked once
+        boolean unlocks(FileNode file) {
+            FileNode locked = lockedParents.get(file.getId());
+            return locked == null || unlocked.computeIfAbsent(locked.getId(),
+                    id -> unlockGrantService.unlocks(user, locked, password, unlockGrant));
+        }
+
+        void fail(FileNode file, String error) {
+            errors.putIfAbsent(file.getId(), error);
+        }
+
+        List<BatchItemResult> results(List<Long> ids) {
+            return ids.stream().map(id -> !files.containsKey(id) ? BatchItemResult.failed(id, "File not found")
+                    : errors.containsKey(id) ? BatchItemResult.failed(id, errors.get(id))
+                    : BatchItemResult.ok(id)).toList();
+        }
+    }
+
+    @Transactional
+    public List<BatchItemResult> delete(User user, List<Long> ids, String password, String unlockGrant) {
+        Selection selection = new Selection(user, ids, password, unlockGrant);
+        List<FileNode> candidates = new ArrayList<>();
+        for (FileNode file : selection.found()) {
+            if (!file.getOwner().getId().equals(user.getId())) {
+                selection.fail(file, "You are not authorized");
+            } else if (file.isDeleted()) {
+                selection.fail(file, "This file is Deleted");
+            } else if (!selection.unlocks(file)) {
+                selection.fail(file, "Password required or invalid");
+            } else {
+                candidates.add(file);
+            }
+        }
+        // Anything inside a selected folder goes to trash with it
+        long released = trashService.softDeleteAll(outermost(candidates), user);
+        quotaService.release(user.getId(), released);
+        return selection.results(ids);
+    }
+
+    @Transactional
+    public List<BatchItemResult> restore(User user, List<Long> ids) {
+        Selection selection = new Selection(user, ids, null, null);
+        List<FileNode> candidates = new ArrayList<>();
+        for (FileNode file : selection.found()) {
+            if (!file.getOwner().getId().equals(user.getId())) {
+                selection.fail(file, "You are not authorized");
+            } else if (!file.isDeleted()) {
+                selection.fail(file, "File is not Trashed");
+            } else if (file.getPurgeJobId() != null) {
+                selection.fail(file, "File is being permanently deleted");
+            } else {
+                candidates.add(file);
+            }
+        }
+        candidates.sort(Comparator.comparing(FileNode::getPath));
+
+        Map<Long, FileNode> parents = new HashMap<>();
+        fileNodeRepo.findAllById(candidates.stream().map(this::parentId).filter(Objects::nonNull).distinct().toList())
+                .forEach(parent -> parents.put(parent.getId(), parent));
+
+        // Parents first, so a folder coming back lets its selected children back in
+        Map<Long, FileNode> restoring = new HashMap<>();
+        List<FileNode> ordered = new ArrayList<>();
+        List<FileNode> covered = new ArrayList<>();
+        for (FileNode file : candidates) {
+            FileNode selectedAncestor = nearestIn(restoring, file);
+            if (selectedAncestor != null && selectedAncestor.getDeletedAt().equals(file.getDeletedAt())) {
+                // Trashed in the same operation, so the ancestor's restore brings it back
+                covered.add(file);
+                restoring.put(file.getId(), file);
+                continue;
+            }
+            FileNode parent = parents.get(parentId(file));
+            if (parent != null && parent.isDeleted() && !restoring.containsKey(parent.getId())) {
+                selection.fail(file, "Restore folder to Restore file");
+                continue;
+            }
+            restoring.put(file.getId(), file);
+            ordered.add(file);
+        }
+
+        long required = ordered.stream().mapToLong(file -> trashService.getRestoreSize(file, user)).sum();
+        if (!quotaService.reserve(user.getId(), required)) {
+            ordered.forEach(file -> selection.fail(file, "Not enough storage . Required : " + required));
+            covered.forEach(file -> selection.fail(file, "Not enough storage . Required : " + required));
+            return selection.results(ids);
+        }
+        trashService.restoreAll(ordered, user);
+        return selection.results(ids);
+    }
+
+    // The target folder has been checked by the caller; these are the per-item checks of a move
+    @Transactional
+    public List<BatchItemResult> move(User user, List<Long> ids, FileNode target, String password, String unlockGrant) {
+        Selection selection = new Selection(user, ids, password, unlockGrant);
+        Map<Long, PermissionType> permissions = accessService.resolvePermissions(user, selection.found());
+        List<FileNode> candidates = new ArrayList<>();
+        for (FileNode file : selection.found()) {
+            PermissionType permission = permissions.get(file.getId());
+            if (permission == null || !accessService.hasSufficientPermission(permission, PermissionType.EDIT)) {
+                selection.fail(file, "You do not have edit permissions for this file");
+            } else if (!selection.unlocks(file)) {
+                selection.fail(file, "Password required for source folder");
+            } else if (file.getIsDirectory() && fileTreeService.isAncestor(target, file)) {
+                selection.fail(file, "Already in same folder");
+            } else if (fileTreeService.isInSubtree(target, file)) {
+                selection.fail(file, "Can not move a folder into itself");
+            } else {
+                candidates.add(file);
+            }
+        }
+
+        Set<String> names = new HashSet<>();
+        fileNodeRepo.findByParentAndOwnerAndIsDeletedFalse(target, user).forEach(node -> names.add(node.getFileName()));
+        // Anything inside a selected folder moves with it
+        List<FileNode> moving = new ArrayList<>();
+        for (FileNode file : outermost(candidates)) {
+            if (!names.add(file.getFileName())) {
+                selection.fail(file, "File already exists");
+            } else {
+                moving.add(file);
+            }
+        }
+        fileTreeService.moveAll(moving, target);
+        return selection.results(ids);
+    }
+
+    // The recipient has been resolved by the caller
+    @Transactional
+    public List<BatchItemResult> share(User user, List<Long> ids, User shareWith, PermissionType permissionType) {
+        Selection selection = new Selection(user, ids, null, null);
+        List<FileNode> owned = new ArrayList<>();
+        for (FileNode file : selection.found()) {
+            if (!file.getOwner().getId().equals(user.getId())) {
+                selection.fail(file, "You are not authorized");
+            } else {
+                owned.add(file);
+            }
+        }
+
+        Set<Long> alreadyShared = new HashSet<>();
+        if (!owned.isEmpty()) {
+            sharePermissionRepo.findBySharedWithUserAndFileNodeIn(shareWith, owned)
+                    .forEach(permission -> alreadyShared.add(permission.getFileNode().getId()));
+        }
+        List<SharePermission> grants = new ArrayList<>();
+        Instant now = Instant.now();
+        for (FileNode file : owned) {
+            if (alreadyShared.contains(file.getId())) {
+                selection.fail(file, "You Have already shared this file");
+                continue;
+            }
+            SharePermission sharePermission = new SharePermission();
+            sharePermission.setFileNode(file);
+            sharePermission.setSharedWithUser(shareWith);
+            sharePermission.setPermissionType(permissionType);
+            sharePermission.setSharedAt(now);
+            grants.add(sharePermission);
+        }
+        sharePermissionRepo.saveAll(grants);
+        grants.forEach(grant -> accessService.onShareGranted(grant.getFileNode(), shareWith));
+        return selection.results(ids);
+    }
+
+    // Drops nodes that lie inside another node of the list. In path order a subtree is contiguous,
+    // so comparing with the last kept node is enough.
+    private List<FileNode> outermost(List<FileNode> nodes) {
+        List<FileNode> sorted = new ArrayList<>(nodes);
+        sorted.sort(Comparator.comparing(FileNode::getPath));
+        List<FileNode> kept = new ArrayList<>();
+        for (FileNode node : sorted) {
+            if (kept.isEmpty() || !fileTreeService.isInSubtree(node, kept.get(kept.size() - 1))) {
+                kept.add(node);
+            }
+        }
+        return kept;
+    }
+
+    private Long parentId(FileNode node) {
+        List<Long> ancestors = fileTreeService.ancestorIds(node);
+        return ancestors.isEmpty() ? null : ancestors.get(ancestors.size() - 1);
+    }
+
+    private FileNode nearestIn(Map<Long, FileNode> nodes, FileNode node) {
+        List<Long> ancestors = fileTreeService.ancestorIds(node);
+        for (int i = ancestors.size() - 1; i >= 0; i--) {
+            FileNode found = nodes.get(ancestors.get(i));
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,220 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.DedupStatsResponse;
+import com.cfs.backend.dto.StoredObject;
+import com.cfs.backend.entity.ContentBlob;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.ContentBlobRepo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+// Content-addressed storage on top of StorageService. Uploads are keyed by SHA-256 and
+// reference counted, so identical content is stored once.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BlobService {
+
+    private final ContentBlobRepo contentBlobRepo;
+    private final StorageService storageService;
+    private final AsyncStorageService asyncStorageService;
+    private final TransactionTemplate transactionTemplate;
+
+    // The multipart resolver has already spooled the file locally, so hashing it first is a
+    // local read and lets a duplicate skip the object write entirely. No transaction is open
+    // while the object is written; the blob row is registered in a short one afterwards.
+    public StoredObject storeUpload(MultipartFile file, Long userId) throws IOException {
+        String sha256;
+        try (InputStream in = file.getInputStream()) {
+            sha256 = hash(in);
+        }
+        String existing = acquireExisting(sha256);
+        if (existing != null) {
+            return new StoredObject(existing, sha256);
+        }
+        String storagePath = storageService.uploadFile(file, userId);
+        return registerWritten(sha256, storagePath, file.getSize());
+    }
+
+    // storeUpload with nothing left on the caller's thread: the hash and the duplicate check run
+    // on the async storage prepare pool, the write on the async client, and the blob row is
+    // registered once the write completes.
+    public CompletableFuture<StoredObject> storeUploadAsync(MultipartFile file, Long userId) {
+        return asyncStorageService.prepare(() -> {
+            try (InputStream in = file.getInputStream()) {
+                return hash(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).thenCompose(sha256 -> {
+            String existing = acquireExisting(sha256);
+            if (existing != null) {
+                return CompletableFuture.completedFuture(new StoredObject(existing, sha256));
+            }
+            String storagePath = storageService.newStoragePath(userId, file.getOriginalFilename());
+            return asyncStorageService.upload(storagePath, file)
+                    .thenApply(written -> registerWritten(sha256, storagePath, file.getSize()));
+        });
+    }
+
+    // A raw stream can only be hashed as it passes through, so a duplicate is detected after
+    // the write and the fresh copy is dropped again.
+    public StoredObject storeStream(InputStream in, long contentLength, String contentType, String fileName, Long userId) {
+        MessageDigest digest = sha256Digest();
+        String storagePath = storageService.uploadStream(new DigestInputStream(in, digest), contentLength,
+                contentType, fileName, userId);
+        return registerWritten(HexFormat.of().formatHex(digest.digest()), storagePath, contentLength);
+    }
+
+    // Gives back the reference taken by storeUpload/storeStream when the upload is abandoned
+    public void discard(StoredObject stored) {
+        if (stored.contentHash() == null) {
+            storageService.deleteFile(stored.storagePath());
+            return;
+        }
+        List<String> freed = transactionTemplate.execute(status -> release(Map.of(stored.contentHash(), 1L)));
+        for (String storagePath : freed) {
+            storageService.deleteFile(storagePath);
+        }
+    }
+
+    // Drops references (hash -> count) and deletes the rows of blobs nobody uses any more.
+    // Returns their storage paths; the caller removes the objects once this commits.
+    @Transactional
+    public List<String> release(Map<String, Long> referencesByHash) {
+        if (referencesByHash.isEmpty()) {
+            return List.of();
+        }
+        referencesByHash.forEach(contentBlobRepo::release);
+        List<String> hashes = new ArrayList<>(referencesByHash.keySet());
+        List<String> freed = contentBlobRepo.findUnreferenced(hashes).stream()
+                .map(ContentBlob::getStoragePath)
+                .toList();
+        contentBlobRepo.deleteUnreferenced(hashes);
+        return freed;
+    }
+
+    @Transactional
+    public void acquire(String sha256) {
+        if (contentBlobRepo.acquireExisting(sha256) != 1) {
+            throw new IllegalStateException("Blob " + sha256 + " no longer exists");
+        }
+    }
+
+    // Takes count references per hash (hash -> count) and returns the blobs by hash, reading
+    // and updating a chunk of hashes at a time
+    @Transactional
+    public Map<String, ContentBlob> acquireAll(Map<String, Long> referencesByHash) {
+        Map<String, ContentBlob> blobs = new HashMap<>();
+        List<String> hashes = new ArrayList<>(referencesByHash.keySet());
+        for (int from = 0; from < hashes.size(); from += 1000) {
+            contentBlobRepo.findLive(hashes.subList(from, Math.min(hashes.size(), from + 1000)))
+                    .forEach(blob -> blobs.put(blob.getSha256(), blob));
+        }
+        for (String sha256 : hashes) {
+            if (!blobs.containsKey(sha256) || contentBlobRepo.acquireExisting(sha256, referencesByHash.get(sha256)) != 1) {
+                throw new IllegalStateException("Blob " + sha256 + " no longer exists");
+            }
+        }
+        return blobs;
+    }
+
+    public DedupStatsResponse stats(User user) {
+        return new DedupStatsResponse(
+                DedupStatsResponse.Usage.of(contentBlobRepo.sumLogicalBytes(user), contentBlobRepo.sumPhysicalBytes(user)),
+                DedupStatsResponse.Usage.of(contentBlobRepo.sumLogicalBytes(), contentBlobRepo.sumPhysicalBytes()));
+    }
+
+    // Upsert: either our object becomes the blob, or someone else's won and ours is redundant.
+    // The caller must already know that the object at storagePath has this hash. Inside a
+    // caller's transaction the redundant object is only deleted once that commits: until then a
+    // rollback leaves the caller with its own object, not a reference to one already gone.
+    public StoredObject register(String sha256, String storagePath, long size) {
+        String blobPath = transactionTemplate.execute(status -> {
+            contentBlobRepo.insertOrAcquire(sha256, storagePath, size, Instant.now());
+            return contentBlobRepo.findStoragePath(sha256);
+        });
+        if (!blobPath.equals(storagePath)) {
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        deleteRedundant(storagePath);
+                    }
+                });
+            } else {
+                deleteRedundant(storagePath);
+            }
+        }
+        return new StoredObject(blobPath, sha256);
+    }
+
+    // register for an object this service just wrote: if the blob row cannot be written, nothing
+    // refers to the object, so it is deleted again
+    private StoredObject registerWritten(String sha256, String storagePath, long size) {
+        try {
+            return register(sha256, storagePath, size);
+        } catch (RuntimeException e) {
+            deleteRedundant(storagePath);
+            throw e;
+        }
+    }
+
+    // Best effort: a failed delete leaves an orphaned object behind, never a broken reference
+    private void deleteRedundant(String storagePath) {
+        try {
+            storageService.deleteFile(storagePath);
+        } catch (RuntimeException e) {
+            log.warn("Could not delete redundant object {}: {}", storagePath, e.getMessage());
+        }
+    }
+
+    // One more reference to an existing blob, in a short transaction of its own; returns its
+    // storage path, or null when there is no such blob
+    private String acquireExisting(String sha256) {
+        return transactionTemplate.execute(status -> contentBlobRepo.acquireExisting(sha256) == 1
+                ? contentBlobRepo.findStoragePath(sha256) : null);
+    }
+
+    private String hash(InputStream in) {
+        MessageDigest digest = sha256Digest();
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
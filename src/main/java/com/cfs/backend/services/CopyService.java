@@ -0,0 +1,253 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.SubtreeTotals;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.PermissionType;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Copies a file or a whole folder without the bytes passing through the server. Content-
+// addressed files just gain a blob reference; other objects are copied by S3 (CopyObject, or
+// UploadPartCopy for large ones), a page at a time on a bounded pool. The copied nodes are
+// inserted a page at a time too. The walk follows the ZIP download's rules: nodes the user
+// cannot view and locked folders the password does not open are left out.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CopyService {
+
+    private final FileNodeRepo fileNodeRepo;
+    private final StorageService storageService;
+    private final BlobService blobService;
+    private final AccessService accessService;
+    private final FileTreeService fileTreeService;
+    private final QuotaService quotaService;
+    private final UnlockGrantService unlockGrantService;
+    private final PurgeService purgeService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${copy.page-size:500}")
+    private int pageSize;
+
+    @Value("${copy.threads:8}")
+    private int threads;
+
+    private ExecutorService copyExecutor;
+
+    @PostConstruct
+    void start() {
+        copyExecutor = Executors.newFixedThreadPool(threads);
+    }
+
+    @PreDestroy
+    void stop() {
+        copyExecutor.shutdownNow();
+    }
+
+    // What a copy can cost at most: every live file in the subtree, whoever owns it
+    public long requiredBytes(FileNode source) {
+        if (!source.getIsDirectory()) {
+            return source.getFileSize() == null ? 0 : source.getFileSize();
+        }
+        return fileNodeRepo.sumLiveSubtreeByOwner(source.getPath()).stream().mapToLong(SubtreeTotals::size).sum();
+    }
+
+    // The source (viewable and unlocked) and target (editable, unlocked, not inside the source)
+    // have been checked by the caller. The quota is reserved in its own short transaction, the
+    // object copies run outside any transaction, and each page's blob references and rows are
+    // written in a short transaction of their own, so no row lock is held while S3 works. If
+    // anything fails, the pages written so far are handed to the purger, the reservation is
+    // given back, and the objects of the unfinished page are deleted.
+    public FileNode copy(User user, FileNode source, FileNode target, String password, String unlockGrant) {
+        long required = requiredBytes(source);
+        if (!quotaService.reserve(user.getId(), required)) {
+            throw new IllegalStateException("Not enough storage . Required : " + required);
+        }
+        FileNode root = copyNode(source, target, user);
+        try {
+            Map<Long, FileNode> folderCopies = new HashMap<>();
+            Map<Long, Boolean> unlocked = new HashMap<>();
+            root.setFileName(freeName(target, user, source));
+            folderCopies.put(source.getId(), root);
+            long copied = copyPage(List.of(root), List.of(source));
+
+            if (source.getIsDirectory()) {
+                String afterPath = source.getPath();
+                while (true) {
+                    List<FileNode> page = fileNodeRepo.findSubtreePage(source.getPath(), afterPath,
+                            PageRequest.of(0, pageSize));
+                    if (page.isEmpty()) {
+                        break;
+                    }
+                    afterPath = page.get(page.size() - 1).getPath();
+                    Map<Long, PermissionType> permissions = accessService.resolvePermissions(user, page);
+
+                    List<FileNode> sources = new ArrayList<>();
+                    List<FileNode> copies = new ArrayList<>();
+                    for (FileNode node : page) {
+                        List<Long> ancestors = fileTreeService.ancestorIds(node);
+                        FileNode parent = folderCopies.get(ancestors.get(ancestors.size() - 1));
+                        PermissionType permission = permissions.get(node.getId());
+                        // A left-out folder takes its subtree with it, since nothing maps to it
+                        if (parent == null || permission == null
+                                || !accessService.hasSufficientPermission(permission, PermissionType.VIEW)) {
+                            continue;
+                        }
+                        if (Boolean.TRUE.equals(node.getIsLocked()) && !unlocked.computeIfAbsent(node.getId(),
+                                id -> unlockGrantService.unlocks(user, node, password, unlockGrant))) {
+                            continue;
+                        }
+                        FileNode copy = copyNode(node, parent, user);
+                        if (node.getIsDirectory()) {
+                            // Its children may be on this same page
+                            folderCopies.put(node.getId(), copy);
+                        }
+                        sources.add(node);
+                        copies.add(copy);
+                    }
+                    copied += copyPage(copies, sources);
+                }
+            }
+            // Reserved for the whole subtree up front; give back what was left out
+            quotaService.release(user.getId(), required - copied);
+            return root;
+        } catch (RuntimeException e) {
+            abandon(root, user, required);
+            throw e;
+        }
+    }
+
+    // Starts the page's object copies and waits for all of them, then takes the page's blob
+    // references and saves its nodes in one transaction. Returns the bytes copied. If the page
+    // does not get saved, the objects it copied are deleted again.
+    private long copyPage(List<FileNode> copies, List<FileNode> sources) {
+        List<CompletableFuture<Void>> transfers = new ArrayList<>();
+        List<String> copiedObjects = Collections.synchronizedList(new ArrayList<>());
+        Map<String, Long> references = new TreeMap<>();
+        long bytes = 0;
+        for (int i = 0; i < copies.size(); i++) {
+            FileNode source = sources.get(i);
+            FileNode copy = copies.get(i);
+            if (source.getIsDirectory()) {
+                continue;
+            }
+            long size = source.getFileSize() == null ? 0 : source.getFileSize();
+            bytes += size;
+            if (source.getContentHash() != null) {
+                // Shared content: one more reference to the same object
+                references.merge(source.getContentHash(), 1L, Long::sum);
+            } else if (source.getStoragePath() != null) {
+                String storagePath = storageService.newStoragePath(copy.getOwner().getId(), source.getFileName());
+                copy.setStoragePath(storagePath);
+                transfers.add(CompletableFuture.runAsync(() -> {
+                    storageService.copyObject(source.getStoragePath(), storagePath, source.getMimeType(), size);
+                    copiedObjects.add(storagePath);
+                }, copyExecutor));
+            }
+        }
+        try {
+            // Waits for every transfer, failed or not, so none is still writing during cleanup
+            CompletableFuture.allOf(transfers.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            deleteObjects(copiedObjects);
+            throw e.getCause() instanceof RuntimeException cause ? cause
+                    : new IllegalStateException("Copy failed", e.getCause());
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                blobService.acquireAll(references);
+                fileTreeService.attachAll(copies);
+            });
+        } catch (RuntimeException e) {
+            deleteObjects(copiedObjects);
+            throw e;
+        }
+        return bytes;
+    }
+
+    // Pages already saved are purged like a hard delete, which also drops their blob
+    // references and objects; the whole reservation is given back
+    private void abandon(FileNode root, User user, long required) {
+        quotaService.release(user.getId(), required);
+        if (root.getId() == null) {
+            return;
+        }
+        try {
+            // A rolled back first page leaves the root with an id but no row
+            fileNodeRepo.findById(root.getId()).ifPresent(saved -> purgeService.schedule(saved, user));
+        } catch (Exception e) {
+            log.warn("Could not purge an abandoned copy of {}", root.getFileName(), e);
+        }
+    }
+
+    private FileNode copyNode(FileNode source, FileNode parent, User owner) {
+        FileNode copy = new FileNode();
+        copy.setFileName(source.getFileName());
+        copy.setIsDirectory(source.getIsDirectory());
+        copy.setMimeType(source.getMimeType());
+        copy.setFileSize(source.getFileSize());
+        copy.setStoragePath(source.getStoragePath());
+        copy.setContentHash(source.getContentHash());
+        copy.setIsLocked(source.getIsLocked());
+        copy.setFolderPassword(source.getFolderPassword());
+        copy.setOwner(owner);
+        copy.setDeleted(false);
+        copy.setParent(parent);
+        return copy;
+    }
+
+    // Copying next to the original (or over a taken name) numbers the copy: "a (1).txt"
+    private String freeName(FileNode target, User user, FileNode source) {
+        String name = source.getFileName();
+        Set<String> taken = new HashSet<>();
+        fileNodeRepo.findByParentAndOwnerAndIsDeletedFalse(target, user).forEach(node -> taken.add(node.getFileName()));
+        if (!taken.contains(name)) {
+            return name;
+        }
+        int dot = source.getIsDirectory() ? -1 : name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        for (int n = 1; ; n++) {
+            String candidate = stem + " (" + n + ")" + ext;
+            if (!taken.contains(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    private void deleteObjects(List<String> storagePaths) {
+        List<String> paths = new ArrayList<>(storagePaths);
+        for (int from = 0; from < paths.size(); from += 1000) {
+            List<String> chunk = paths.subList(from, Math.min(paths.size(), from + 1000));
+            try {
+                List<String> failed = storageService.deleteFiles(chunk);
+                if (!failed.isEmpty()) {
+                    log.warn("Could not delete {} objects of an abandoned copy: {}", failed.size(), failed);
+                }
+            } catch (Exception e) {
+                log.warn("Could not delete {} objects of an abandoned copy", chunk.size(), e);
+            }
+        }
+    }
+}
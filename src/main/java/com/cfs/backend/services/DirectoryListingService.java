@@ -0,0 +1,94 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.DirectoryPage;
+import com.cfs.backend.dto.FileNodeSummary;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.repo.FileNodeRepo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keyset pagination over a folder's children. Each page is one query that seeks on
+// (parent_id, sort column, id), so page 500 costs the same as page 1.
+@Service
+@RequiredArgsConstructor
+public class DirectoryListingService {
+
+    private final FileNodeRepo fileNodeRepo;
+    private final ObjectMapper objectMapper;
+
+    @Value("${listing.max-page-size:500}")
+    private int maxPageSize;
+
+    // Where the previous page ended; serialized into the opaque cursor handed to clients
+    private record Cursor(String sort, boolean desc, String name, Long size, Instant createdAt, Long id) {
+    }
+
+    // sort is name, size or date; a cursor carries its own sort and overrides the arguments
+    public DirectoryPage list(FileNode folder, String sort, boolean desc, String cursor, int pageSize) {
+        Cursor after = cursor == null ? null : decode(cursor);
+        if (after != null) {
+            sort = after.sort();
+            desc = after.desc();
+        }
+        String property = switch (sort) {
+            case "name" -> "fileName";
+            case "size" -> "fileSize";
+            case "date" -> "createdAt";
+            default -> throw new IllegalArgumentException("Sort must be name, size or date");
+        };
+        Sort.Direction direction = desc ? Sort.Direction.DESC : Sort.Direction.ASC;
+
+        ScrollPosition position = ScrollPosition.keyset();
+        if (after != null) {
+            Map<String, Object> keys = new LinkedHashMap<>();
+            keys.put(property, switch (sort) {
+                case "name" -> after.name();
+                case "size" -> after.size();
+                default -> after.createdAt();
+            });
+            keys.put("id", after.id());
+            position = ScrollPosition.forward(keys);
+        }
+
+        Window<FileNodeSummary> window = fileNodeRepo.findByParentAndIsDeletedFalseAndPurgeJobIdIsNull(folder, position,
+                Sort.by(direction, property, "id"), Limit.of(Math.max(1, Math.min(pageSize, maxPageSize))));
+
+        List<FileNodeSummary> items = window.getContent();
+        String next = null;
+        if (window.hasNext() && !items.isEmpty()) {
+            FileNodeSummary last = items.get(items.size() - 1);
+            // A null key would seek on "> NULL" and end the listing; sizes are backfilled to 0
+            next = encode(new Cursor(sort, desc, last.fileName(),
+                    last.fileSize() == null ? 0L : last.fileSize(), last.createdAt(), last.id()));
+        }
+        return new DirectoryPage(items, next);
+    }
+
+    private String encode(Cursor cursor) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(cursor));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Cursor decode(String cursor) {
+        try {
+            return objectMapper.readValue(Base64.getUrlDecoder().decode(cursor), Cursor.class);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
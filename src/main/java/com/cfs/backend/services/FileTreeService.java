@@ -0,0 +1,281 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.cache.PermissionCache;
+import com.cfs.backend.dto.SubtreeTotals;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.repo.FileNodeRepo;
+import jakarta.persistence.EntityManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Keeps FileNode.path (the materialized ancestor path) correct.
+// Delete and restore only flip flags, so only create and move have to touch it.
+// Also keeps folder rollups (subtreeSize/subtreeCount) in step: every change sends one delta
+// up the ancestor chain, found from the path, instead of re-summing the subtree.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FileTreeService {
+
+    private final FileNodeRepo fileNodeRepo;
+    private final PermissionCache permissionCache;
+    private final SearchIndexService searchIndexService;
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+
+    // A rollup delta's target. Batches run in folder id order, the order single-chain UPDATEs lock rows in.
+    private record RollupKey(Long folderId, Long ownerId) {
+    }
+
+    private static final Comparator<RollupKey> ROLLUP_ORDER =
+            Comparator.comparing(RollupKey::folderId).thenComparing(RollupKey::ownerId);
+
+    // Saves a new node under parent and stamps its path (needs the generated id)
+    public FileNode attach(FileNode node, FileNode parent) {
+        node.setParent(parent);
+        if (node.getCreatedAt() == null) {
+            node.setCreatedAt(Instant.now());
+        }
+        FileNode saved = fileNodeRepo.save(node);
+        saved.setPath(childPath(parent, saved.getId()));
+        saved = fileNodeRepo.save(saved);
+        searchIndexService.index(saved);
+        adjustAncestors(saved, subtreeTotals(saved), 1);
+        return saved;
+    }
+
+    // Saves many new nodes, each with its parent set; a parent in the list must come before its
+    // children. Ids come from the pooled generator before anything is written, so every row is
+    // inserted with its path in JDBC batches, and names and rollups follow in one batch each.
+    public List<FileNode> attachAll(List<FileNode> nodes) {
+        if (nodes.isEmpty()) {
+            return nodes;
+        }
+        Map<RollupKey, long[]> deltas = new TreeMap<>(ROLLUP_ORDER);
+        insert(nodes, deltas);
+        applyDeltas(deltas);
+        fileNodeRepo.flush();
+        searchIndexService.indexAll(nodes);
+        return nodes;
+    }
+
+    // attachAll for trees too big for one persistence context. Each chunk is written and then
+    // the context is cleared (detaching the caller's entities too), so a flush never dirty-checks
+    // the chunks before it. The rollups of the whole tree go up once at the end.
+    public void attachTree(List<FileNode> nodes, int chunkSize) {
+        Map<RollupKey, long[]> deltas = new TreeMap<>(ROLLUP_ORDER);
+        for (int from = 0; from < nodes.size(); from += chunkSize) {
+            List<FileNode> chunk = nodes.subList(from, Math.min(nodes.size(), from + chunkSize));
+            insert(chunk, deltas);
+            fileNodeRepo.flush();
+            searchIndexService.indexAll(chunk);
+            entityManager.clear();
+        }
+        applyDeltas(deltas);
+    }
+
+    private void insert(List<FileNode> nodes, Map<RollupKey, long[]> deltas) {
+        Instant now = Instant.now();
+        for (FileNode node : nodes) {
+            if (node.getCreatedAt() == null) {
+                node.setCreatedAt(now);
+            }
+            fileNodeRepo.save(node);
+            if (node.getPath() == null) {
+                node.setPath(childPath(node.getParent(), node.getId()));
+            }
+            // New, so nothing below it yet: the node alone
+            SubtreeTotals own = new SubtreeTotals(node.getOwner().getId(),
+                    node.getIsDirectory() || node.getFileSize() == null ? 0 : node.getFileSize(), 1L);
+            ancestorIds(node).forEach(id -> addDelta(deltas, id, own, 1));
+        }
+    }
+
+    // Re-parents node and rewrites the path of its whole subtree with one UPDATE
+    public void move(FileNode node, FileNode newParent) {
+        moveAll(List.of(node), newParent);
+    }
+
+    // None of nodes may lie inside another. Files need no subtree rewrite: their new parent and
+    // path go out with the flush, batched, and all rollup deltas go out as one JDBC batch.
+    public void moveAll(List<FileNode> nodes, FileNode newParent) {
+        Map<RollupKey, long[]> deltas = new TreeMap<>(ROLLUP_ORDER);
+        for (FileNode node : nodes) {
+            String oldPrefix = node.getPath();
+            String newPrefix = childPath(newParent, node.getId());
+            // A moved subtree can hold other users' nodes, and each counts in its own owner's folders
+            List<SubtreeTotals> totals = node.getIsDirectory()
+                    ? fileNodeRepo.sumLiveSubtreeByOwner(oldPrefix)
+                    : node.isDeleted() || node.getPurgeJobId() != null ? List.of() : List.of(subtreeTotals(node));
+            List<Long> oldAncestors = ancestorIds(node);
+            node.setParent(newParent);
+            node.setPath(newPrefix);
+            if (node.getIsDirectory()) {
+                fileNodeRepo.saveAndFlush(node);
+                fileNodeRepo.rewritePathPrefix(oldPrefix, newPrefix);
+            } else {
+                fileNodeRepo.save(node);
+            }
+            List<Long> newAncestors = ancestorIds(node);
+            // Folders on both chains keep the subtree either way
+            for (SubtreeTotals owned : totals) {
+                oldAncestors.stream().filter(id -> !newAncestors.contains(id))
+                        .forEach(id -> addDelta(deltas, id, owned, -1));
+                newAncestors.stream().filter(id -> !oldAncestors.contains(id))
+                        .forEach(id -> addDelta(deltas, id, owned, 1));
+            }
+            // inherited grants differ under the new parent
+            permissionCache.evictSubtree(oldPrefix);
+        }
+        applyDeltas(deltas);
+    }
+
+    // Bytes and nodes the node stands for in its owner's folders: itself plus its rollup.
+    // Read before the node changes state; for a trashed node, what a restore brings back.
+    public SubtreeTotals subtreeTotals(FileNode node) {
+        Long ownerId = node.getOwner().getId();
+        if (!node.getIsDirectory()) {
+            return new SubtreeTotals(ownerId, node.getFileSize() == null ? 0 : node.getFileSize(), 1L);
+        }
+        SubtreeTotals rollup = fileNodeRepo.findRollup(node.getId());
+        if (rollup == null || rollup.size() == null || rollup.count() == null) {
+            // Not repaired yet: sum it the slow way
+            List<SubtreeTotals> below = node.isDeleted()
+                    ? fileNodeRepo.sumTrashedBelow(node.getPath(), node.getId(), ownerId, node.getDeletedAt())
+                    : fileNodeRepo.sumLiveBelow(node.getPath(), node.getId(), ownerId);
+            rollup = below.isEmpty() ? new SubtreeTotals(ownerId, 0L, 0L) : below.get(0);
+        }
+        return new SubtreeTotals(ownerId, rollup.size(), rollup.count() + 1);
+    }
+
+    // sign is -1 when the node leaves its folders (trashed) and 1 when it comes back (restored)
+    public void adjustAncestors(FileNode node, SubtreeTotals totals, int sign) {
+        adjust(ancestorIds(node), totals, sign);
+    }
+
+    // Same for many nodes: deltas are summed per ancestor, so siblings share one UPDATE per folder
+    public void adjustAncestors(List<FileNode> nodes, List<SubtreeTotals> totals, int sign) {
+        Map<RollupKey, long[]> deltas = new TreeMap<>(ROLLUP_ORDER);
+        for (int i = 0; i < nodes.size(); i++) {
+            SubtreeTotals owned = totals.get(i);
+            ancestorIds(nodes.get(i)).forEach(id -> addDelta(deltas, id, owned, sign));
+        }
+        applyDeltas(deltas);
+    }
+
+    // Once jobId has claimed the root and before the subtree is marked: other owners' live nodes in it stop counting,
+    // and so does the subtree in any trashed folder it was deleted along with
+    public void detachForPurge(FileNode root, Long jobId) {
+        List<Long> ancestors = ancestorIds(root);
+        if (ancestors.isEmpty()) {
+            return;
+        }
+        for (SubtreeTotals owned : fileNodeRepo.sumLiveSubtreeForPurge(root.getPath(), jobId)) {
+            adjust(ancestors, owned, -1);
+        }
+        if (root.isDeleted() && root.getDeletedAt() != null) {
+            SubtreeTotals totals = subtreeTotals(root);
+            fileNodeRepo.adjustTrashedRollups(ancestors, totals.ownerId(), root.getDeletedAt(),
+                    -totals.size(), -totals.count());
+        }
+    }
+
+    private void addDelta(Map<RollupKey, long[]> deltas, Long folderId, SubtreeTotals totals, int sign) {
+        long[] delta = deltas.computeIfAbsent(new RollupKey(folderId, totals.ownerId()), key -> new long[2]);
+        delta[0] += sign * totals.size();
+        delta[1] += sign * totals.count();
+    }
+
+    private void applyDeltas(Map<RollupKey, long[]> deltas) {
+        List<Map.Entry<RollupKey, long[]>> changed = deltas.entrySet().stream()
+                .filter(entry -> entry.getValue()[0] != 0 || entry.getValue()[1] != 0)
+                .toList();
+        if (changed.isEmpty()) {
+            return;
+        }
+        // Pending entity changes first, like a JPQL bulk UPDATE would do
+        fileNodeRepo.flush();
+        jdbcTemplate.batchUpdate("UPDATE file_nodes SET subtree_size = subtree_size + ?, subtree_count = subtree_count + ? " +
+                        "WHERE id = ? AND owner_id = ? AND is_deleted = false",
+                changed, changed.size(), (ps, entry) -> {
+                    ps.setLong(1, entry.getValue()[0]);
+                    ps.setLong(2, entry.getValue()[1]);
+                    ps.setLong(3, entry.getKey().folderId());
+                    ps.setLong(4, entry.getKey().ownerId());
+                });
+    }
+
+    private void adjust(List<Long> ancestors, SubtreeTotals totals, int sign) {
+        if (ancestors.isEmpty() || (totals.size() == 0 && totals.count() == 0)) {
+            return;
+        }
+        fileNodeRepo.adjustRollups(ancestors, totals.ownerId(), sign * totals.size(), sign * totals.count());
+    }
+
+    // Ids from the root down to (and including) the node itself
+    public List<Long> pathIds(FileNode node) {
+        List<Long> ids = new ArrayList<>();
+        for (String part : node.getPath().split("/")) {
+            if (!part.isEmpty()) {
+                ids.add(Long.parseLong(part));
+            }
+        }
+        return ids;
+    }
+
+    // Ids of strict ancestors, root first
+    public List<Long> ancestorIds(FileNode node) {
+        List<Long> ids = pathIds(node);
+        return ids.subList(0, ids.size() - 1);
+    }
+
+    // True when candidate lies anywhere inside node's subtree (node itself included)
+    public boolean isInSubtree(FileNode candidate, FileNode node) {
+        return candidate.getPath().startsWith(node.getPath());
+    }
+
+    public boolean isAncestor(FileNode ancestor, FileNode node) {
+        return !ancestor.getId().equals(node.getId()) && isInSubtree(node, ancestor);
+    }
+
+    private String childPath(FileNode parent, Long id) {
+        return (parent == null ? "/" : parent.getPath()) + id + "/";
+    }
+
+    // First, since everything else that walks the tree needs paths
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillPaths() {
+        int updated = fileNodeRepo.backfillRootPaths();
+        int level;
+        while ((level = fileNodeRepo.backfillChildPaths()) > 0) {
+            updated += level;
+        }
+        if (updated > 0) {
+            log.info("Backfilled path for {} file nodes", updated);
+        }
+        // Creation time was not recorded before; nodes that predate it count from now
+        int dated = fileNodeRepo.backfillCreatedAt(Instant.now());
+        if (dated > 0) {
+            log.info("Backfilled createdAt for {} file nodes", dated);
+        }
+        // Imported folders were once saved without a size; the size listing seeks on it
+        int sized = fileNodeRepo.backfillFileSize();
+        if (sized > 0) {
+            log.info("Backfilled fileSize for {} file nodes", sized);
+        }
+    }
+}
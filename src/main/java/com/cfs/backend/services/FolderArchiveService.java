@@ -0,0 +1,196 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.PermissionType;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Streams a folder as a ZIP while walking it page by page. Large objects are copied from S3
+// straight into the archive; small ones are fetched ahead, a bounded window at a time, so
+// memory stays at about prefetchWindow * prefetchMaxSize whatever the folder size.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FolderArchiveService {
+
+    private final FileNodeRepo fileNodeRepo;
+    private final StorageService storageService;
+    private final AccessService accessService;
+    private final FileTreeService fileTreeService;
+    private final UnlockGrantService unlockGrantService;
+
+    @Value("${download.zip.page-size:500}")
+    private int pageSize;
+
+    @Value("${download.zip.prefetch-window:16}")
+    private int prefetchWindow;
+
+    @Value("${download.zip.prefetch-max-size:1048576}")
+    private long prefetchMaxSize;
+
+    @Value("${download.zip.prefetch-threads:16}")
+    private int prefetchThreads;
+
+    @Value("${download.zip.compression-level:1}")
+    private int compressionLevel;
+
+    private ExecutorService prefetchExecutor;
+
+    @PostConstruct
+    void start() {
+        prefetchExecutor = Executors.newFixedThreadPool(prefetchThreads);
+    }
+
+    @PreDestroy
+    void stop() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    // A queued archive entry: a directory, a file to stream, or a file already being prefetched
+    private record Pending(String name, FileNode file, CompletableFuture<byte[]> prefetched) {
+    }
+
+    // The folder itself has already been authorized and unlocked by the caller. Below it, files
+    // the user cannot view are left out, as are locked folders the password does not open.
+    public void writeZip(User user, FileNode folder, String password, String unlockGrant,
+                         OutputStream out) throws IOException {
+        Map<Long, String> dirNames = new HashMap<>();
+        dirNames.put(folder.getId(), "");
+        Set<Long> excluded = new HashSet<>();
+        Set<String> usedNames = new HashSet<>();
+        Deque<Pending> window = new ArrayDeque<>();
+
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(compressionLevel);
+        try {
+            String afterPath = folder.getPath();
+            while (true) {
+                List<FileNode> page = fileNodeRepo.findSubtreePage(folder.getPath(), afterPath, PageRequest.of(0, pageSize));
+                if (page.isEmpty()) {
+                    break;
+                }
+                afterPath = page.get(page.size() - 1).getPath();
+                Map<Long, PermissionType> permissions = accessService.resolvePermissions(user, page);
+
+                for (FileNode node : page) {
+                    List<Long> ancestors = fileTreeService.ancestorIds(node);
+                    Long parentId = ancestors.get(ancestors.size() - 1);
+                    String parentName = dirNames.get(parentId);
+                    if (parentName == null || excluded.contains(parentId)) {
+                        excluded.add(node.getId());
+                        continue;
+                    }
+                    PermissionType permission = permissions.get(node.getId());
+                    boolean visible = permission != null
+                            && accessService.hasSufficientPermission(permission, PermissionType.VIEW);
+
+                    if (node.getIsDirectory()) {
+                        if (!visible || (Boolean.TRUE.equals(node.getIsLocked()) && !unlockGrantService.unlocks(user, node, password, unlockGrant))) {
+                            excluded.add(node.getId());
+                            continue;
+                        }
+                        String name = uniqueName(usedNames, parentName + safeName(node.getFileName()) + "/");
+                        dirNames.put(node.getId(), name);
+                        window.add(new Pending(name, null, null));
+                    } else if (visible && node.getStoragePath() != null) {
+                        String name = uniqueName(usedNames, parentName + safeName(node.getFileName()));
+                        window.add(new Pending(name, node, prefetch(node)));
+                    }
+                    while (window.size() > prefetchWindow) {
+                        writeEntry(zip, window.poll());
+                    }
+                }
+            }
+            while (!window.isEmpty()) {
+                writeEntry(zip, window.poll());
+            }
+            zip.finish();
+        } catch (IOException | RuntimeException e) {
+            window.forEach(pending -> {
+                if (pending.prefetched() != null) {
+                    pending.prefetched().cancel(true);
+                }
+            });
+            throw e;
+        }
+    }
+
+    private CompletableFuture<byte[]> prefetch(FileNode file) {
+        if (file.getFileSize() == null || file.getFileSize() > prefetchMaxSize) {
+            return null;
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try (InputStream in = storageService.openFile(file.getStoragePath())) {
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, prefetchExecutor);
+    }
+
+    private void writeEntry(ZipOutputStream zip, Pending pending) throws IOException {
+        zip.putNextEntry(new ZipEntry(pending.name()));
+        if (pending.prefetched() != null) {
+            try {
+                zip.write(pending.prefetched().join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException io ? io
+                        : new IOException("Could not read " + pending.name(), e.getCause());
+            }
+        } else if (pending.file() != null) {
+            try (InputStream in = storageService.openFile(pending.file().getStoragePath())) {
+                in.transferTo(zip);
+            }
+        }
+        zip.closeEntry();
+    }
+
+    // Names become archive paths, so nothing may climb out of the folder
+    static String safeName(String name) {
+        String safe = name == null ? "" : name.replace('/', '_').replace('\\', '_');
+        return safe.isEmpty() || safe.equals(".") || safe.equals("..") ? "_" : safe;
+    }
+
+    // Two nodes may share a name in one folder; ZIP entries may not
+    static String uniqueName(Set<String> usedNames, String name) {
+        if (usedNames.add(name)) {
+            return name;
+        }
+        boolean dir = name.endsWith("/");
+        String base = dir ? name.substring(0, name.length() - 1) : name;
+        int dot = dir ? -1 : base.lastIndexOf('.');
+        String stem = dot > base.lastIndexOf('/') + 1 ? base.substring(0, dot) : base;
+        String ext = dot > base.lastIndexOf('/') + 1 ? base.substring(dot) : "";
+        for (int n = 1; ; n++) {
+            String candidate = stem + " (" + n + ")" + ext + (dir ? "/" : "");
+            if (usedNames.add(candidate)) {
+                return candidate;
+            }
+        }
+    }
+}
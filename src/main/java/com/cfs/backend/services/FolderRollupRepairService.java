@@ -0,0 +1,97 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.SubtreeTotals;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.repo.FileNodeRepo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Recomputes folder rollups from scratch, a page of folders per task on a small pool. Fills in
+// folders that predate the rollups at startup, and on a schedule corrects any drift.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class FolderRollupRepairService {
+
+    private final FileNodeRepo fileNodeRepo;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${rollup.repair.threads:4}")
+    private int threads;
+
+    @Value("${rollup.repair.page-size:200}")
+    private int pageSize;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void repairMissing() {
+        repair(false);
+    }
+
+    @Scheduled(cron = "${rollup.repair.cron:-}")
+    public void repairAll() {
+        repair(true);
+    }
+
+    // all = false only touches folders whose rollup was never computed
+    public int repair(boolean all) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<Integer>> running = new ArrayDeque<>();
+        int repaired = 0;
+        try {
+            Long afterId = 0L;
+            while (true) {
+                List<Long> ids = fileNodeRepo.findFoldersToRepair(afterId, all, PageRequest.of(0, pageSize));
+                if (ids.isEmpty()) {
+                    break;
+                }
+                afterId = ids.get(ids.size() - 1);
+                running.add(pool.submit(() -> repairPage(ids)));
+                // Enough queued to keep every thread busy, without listing every folder up front
+                while (running.size() > threads * 2) {
+                    repaired += running.poll().get();
+                }
+            }
+            while (!running.isEmpty()) {
+                repaired += running.poll().get();
+            }
+        } catch (Exception e) {
+            log.error("Folder rollup repair stopped after {} folders", repaired, e);
+        } finally {
+            pool.shutdownNow();
+        }
+        if (repaired > 0) {
+            log.info("Recomputed rollups for {} folders", repaired);
+        }
+        return repaired;
+    }
+
+    private int repairPage(List<Long> ids) {
+        Integer done = transactionTemplate.execute(status -> {
+            List<FileNode> folders = fileNodeRepo.lockForRepair(ids);
+            for (FileNode folder : folders) {
+                Long ownerId = folder.getOwner().getId();
+                List<SubtreeTotals> below = folder.isDeleted()
+                        ? fileNodeRepo.sumTrashedBelow(folder.getPath(), folder.getId(), ownerId, folder.getDeletedAt())
+                        : fileNodeRepo.sumLiveBelow(folder.getPath(), folder.getId(), ownerId);
+                SubtreeTotals totals = below.isEmpty() ? new SubtreeTotals(ownerId, 0L, 0L) : below.get(0);
+                fileNodeRepo.setRollup(folder.getId(), totals.size(), totals.count());
+            }
+            return folders.size();
+        });
+        return done == null ? 0 : done;
+    }
+}
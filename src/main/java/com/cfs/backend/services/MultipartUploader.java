@@ -0,0 +1,349 @@
+package com.cfs.backend.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// S3 multipart upload for large objects. Parts are read from the source stream into a small
+// set of reusable buffers and sent concurrently. An upload holds at most parallelism buffers,
+// and all uploads together at most buffer-memory bytes of them.
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class MultipartUploader {
+
+    // S3 limits
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final int MAX_PARTS = 10_000;
+
+    private final S3Client s3Client;
+
+    @Value("${minio.bucket-name}")
+    private String bucketName;
+
+    @Value("${storage.multipart.threshold:67108864}")
+    private long threshold;
+
+    @Value("${storage.multipart.part-size:16777216}")
+    private long partSize;
+
+    @Value("${storage.multipart.parallelism:4}")
+    private int parallelism;
+
+    @Value("${storage.multipart.threads:16}")
+    private int threads;
+
+    @Value("${storage.multipart.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${storage.multipart.buffer-memory:268435456}")
+    private long bufferMemory;
+
+    // Larger parts (objects past 10 000 * this) are streamed instead of buffered
+    @Value("${storage.multipart.max-buffered-part-size:67108864}")
+    private long maxBufferedPartSize;
+
+    private ExecutorService partExecutor;
+
+    // One permit per byte of part buffer
+    private Semaphore bufferPermits;
+
+    @PostConstruct
+    void start() {
+        partExecutor = Executors.newFixedThreadPool(threads);
+        int budget = (int) Math.min(bufferMemory, Integer.MAX_VALUE);
+        bufferPermits = new Semaphore(budget);
+        maxBufferedPartSize = Math.min(maxBufferedPartSize, budget);
+    }
+
+    @PreDestroy
+    void stop() {
+        partExecutor.shutdownNow();
+    }
+
+    public boolean shouldUseMultipart(long contentLength) {
+        return contentLength >= threshold;
+    }
+
+    // Part size actually used for an object of this length (grows past 10 000 parts)
+    public long partSizeFor(long contentLength) {
+        long size = Math.max(partSize, MIN_PART_SIZE);
+        return Math.max(size, (contentLength + MAX_PARTS - 1) / MAX_PARTS);
+    }
+
+    // The first buffer of an upload waits for room in the shared budget; more are only taken
+    // while the budget has room, otherwise the upload reuses the ones it has. Every upload can
+    // therefore always make progress, and together they never hold more than buffer-memory.
+    public void upload(String key, String contentType, InputStream in, long contentLength) {
+        long size = partSizeFor(contentLength);
+        int partCount = (int) ((contentLength + size - 1) / size);
+        if (size > maxBufferedPartSize) {
+            uploadStreamed(key, contentType, in, contentLength, size, partCount);
+            return;
+        }
+        int bufferSize = (int) size;
+        int maxBuffers = Math.min(parallelism, partCount);
+
+        String uploadId = create(key, contentType);
+
+        BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(maxBuffers);
+        int allocated = 0;
+        List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+        try {
+            for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+                byte[] buffer = buffers.poll();
+                if (buffer == null && allocated == 0) {
+                    bufferPermits.acquire(bufferSize);
+                    allocated++;
+                    buffer = new byte[bufferSize];
+                } else if (buffer == null && allocated < maxBuffers && bufferPermits.tryAcquire(bufferSize)) {
+                    allocated++;
+                    buffer = new byte[bufferSize];
+                } else if (buffer == null) {
+                    buffer = buffers.take();
+                }
+                int length = (int) Math.min(size, contentLength - (partNumber - 1) * size);
+                readFully(in, buffer, length);
+                if (parts.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+                    break;
+                }
+                int number = partNumber;
+                byte[] partBuffer = buffer;
+                parts.add(CompletableFuture
+                        .supplyAsync(() -> uploadPart(key, uploadId, number, partBuffer, length), partExecutor)
+                        .whenComplete((part, error) -> buffers.add(partBuffer)));
+            }
+
+            List<CompletedPart> completed = new ArrayList<>();
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completed.add(part.join());
+            }
+            completed.sort(Comparator.comparing(CompletedPart::partNumber));
+
+            complete(key, uploadId, completed);
+        } catch (Exception e) {
+            // Parts already handed to the pool still read their buffers, so they are waited for
+            // (not cancelled) before the buffers go back to the budget
+            CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new)).exceptionally(error -> null).join();
+            abort(key, uploadId);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw e instanceof CompletionException && e.getCause() instanceof RuntimeException cause
+                    ? cause
+                    : new IllegalStateException("Multipart upload of " + key + " failed", e);
+        } finally {
+            bufferPermits.release(allocated * bufferSize);
+        }
+    }
+
+    // Parts too large to hold in heap go straight from the source, one at a time. They cannot
+    // be resent, so a part that fails fails the upload.
+    private void uploadStreamed(String key, String contentType, InputStream in, long contentLength,
+                                long size, int partCount) {
+        String uploadId = create(key, contentType);
+        try {
+            List<CompletedPart> completed = new ArrayList<>();
+            for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+                long length = Math.min(size, contentLength - (partNumber - 1) * size);
+                String eTag = uploadPart(key, uploadId, partNumber, length,
+                        RequestBody.fromInputStream(slice(in, length), length));
+                completed.add(CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+            }
+            complete(key, uploadId, completed);
+        } catch (RuntimeException e) {
+            abort(key, uploadId);
+            throw e;
+        }
+    }
+
+    // Retried from the in-memory buffer, so a failed part costs one part, not the whole file
+    private CompletedPart uploadPart(String key, String uploadId, int partNumber, byte[] buffer, int length) {
+        RuntimeException last = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            try {
+                String eTag = uploadPart(key, uploadId, partNumber, length,
+                        RequestBody.fromContentProvider(() -> new ByteArrayInputStream(buffer, 0, length),
+                                length, "application/octet-stream"));
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            } catch (RuntimeException e) {
+                last = e;
+                log.warn("Part {} of {} failed (attempt {}): {}", partNumber, key, attempt, e.getMessage());
+            }
+        }
+        throw last;
+    }
+
+    // Server-side copy in parts with UploadPartCopy: S3 reads the source ranges itself, so the
+    // parts only cost a request each here and all of them can run at once
+    public void copy(String sourceKey, String key, String contentType, long contentLength) {
+        long size = partSizeFor(contentLength);
+        int partCount = (int) ((contentLength + size - 1) / size);
+
+        String uploadId = create(key, contentType);
+
+        List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+        try {
+            for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+                int number = partNumber;
+                long start = (partNumber - 1) * size;
+                long end = Math.min(contentLength, start + size) - 1;
+                parts.add(CompletableFuture.supplyAsync(
+                        () -> copyPart(sourceKey, key, uploadId, number, start, end), partExecutor));
+            }
+
+            List<CompletedPart> completed = new ArrayList<>();
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completed.add(part.join());
+            }
+
+            complete(key, uploadId, completed);
+        } catch (Exception e) {
+            parts.forEach(part -> part.cancel(true));
+            abort(key, uploadId);
+            throw e instanceof CompletionException && e.getCause() instanceof RuntimeException cause
+                    ? cause
+                    : new IllegalStateException("Multipart copy of " + sourceKey + " to " + key + " failed", e);
+        }
+    }
+
+    private CompletedPart copyPart(String sourceKey, String key, String uploadId, int partNumber, long start, long end) {
+        RuntimeException last = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            try {
+                String eTag = s3Client.uploadPartCopy(UploadPartCopyRequest.builder()
+                        .sourceBucket(bucketName)
+                        .sourceKey(sourceKey)
+                        .destinationBucket(bucketName)
+                        .destinationKey(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .copySourceRange("bytes=" + start + "-" + end)
+                        .build()).copyPartResult().eTag();
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            } catch (RuntimeException e) {
+                last = e;
+                log.warn("Copy of part {} of {} failed (attempt {}): {}", partNumber, key, attempt, e.getMessage());
+            }
+        }
+        throw last;
+    }
+
+    public String create(String key, String contentType) {
+        return s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build()).uploadId();
+    }
+
+    public String uploadPart(String key, String uploadId, int partNumber, long length, RequestBody body) {
+        return s3Client.uploadPart(UploadPartRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength(length)
+                .build(), body).eTag();
+    }
+
+    public void complete(String key, String uploadId, List<CompletedPart> parts) {
+        s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                .build());
+    }
+
+    public void abort(String key, String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+        } catch (Exception e) {
+            log.warn("Could not abort multipart upload {} of {}: {}", uploadId, key, e.getMessage());
+        }
+    }
+
+    // The next length bytes of in; closing the slice leaves in open for the next part
+    private static InputStream slice(InputStream in, long length) {
+        return new FilterInputStream(in) {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int n = super.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0) {
+                    remaining -= n;
+                }
+                return n;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private void readFully(InputStream in, byte[] buffer, int length) {
+        try {
+            int read = in.readNBytes(buffer, 0, length);
+            if (read < length) {
+                throw new IllegalStateException("Stream ended early: expected " + length + " bytes, got " + read);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
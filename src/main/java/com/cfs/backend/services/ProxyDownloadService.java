@@ -0,0 +1,139 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.entity.FileNode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.UUID;
+
+// Serves object bytes through the app instead of redirecting to storage. Each requested range
+// becomes a ranged GetObject that is copied to the response as it arrives, so seeking in a
+// video or resuming a download never pulls the whole object through the JVM.
+@Service
+@RequiredArgsConstructor
+public class ProxyDownloadService {
+
+    private final StorageService storageService;
+
+    @Value("${download.proxy.max-ranges:16}")
+    private int maxRanges;
+
+    // Access and lock checks are the caller's job
+    public ResponseEntity<?> serve(FileNode file, String rangeHeader, String ifRange) {
+        HeadObjectResponse head = storageService.headObject(file.getStoragePath());
+        if (head == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("File content is missing");
+        }
+        long length = head.contentLength();
+        String eTag = head.eTag();
+        Instant lastModified = head.lastModified();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setETag(eTag);
+        headers.setLastModified(lastModified);
+        headers.setContentDisposition(ContentDisposition.inline()
+                .filename(file.getFileName(), StandardCharsets.UTF_8).build());
+        MediaType contentType = file.getMimeType() != null
+                ? MediaType.parseMediaType(file.getMimeType())
+                : MediaType.APPLICATION_OCTET_STREAM;
+
+        // A stale If-Range means the client's partial copy is of another version: send it all
+        if (rangeHeader == null || !ifRangeMatches(ifRange, eTag, lastModified)) {
+            headers.setContentType(contentType);
+            headers.setContentLength(length);
+            return ResponseEntity.ok().headers(headers)
+                    .body((StreamingResponseBody) out -> copy(file, 0, length - 1, length, out));
+        }
+
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+            long requested = 0;
+            for (HttpRange range : ranges) {
+                long start = range.getRangeStart(length);
+                if (start >= length) {
+                    throw new IllegalArgumentException("Range starts past the end");
+                }
+                requested += range.getRangeEnd(length) - start + 1;
+            }
+            // Overlapping ranges that add up to more than the object are an amplification trick
+            if (ranges.isEmpty() || ranges.size() > maxRanges || requested > length) {
+                throw new IllegalArgumentException("Too many ranges");
+            }
+        } catch (IllegalArgumentException e) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers).build();
+        }
+
+        if (ranges.size() == 1) {
+            long start = ranges.get(0).getRangeStart(length);
+            long end = ranges.get(0).getRangeEnd(length);
+            headers.setContentType(contentType);
+            headers.setContentLength(end - start + 1);
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers)
+                    .body((StreamingResponseBody) out -> copy(file, start, end, length, out));
+        }
+
+        String boundary = UUID.randomUUID().toString();
+        headers.setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers)
+                .body((StreamingResponseBody) out -> {
+                    for (HttpRange range : ranges) {
+                        long start = range.getRangeStart(length);
+                        long end = range.getRangeEnd(length);
+                        out.write(("\r\n--" + boundary + "\r\n"
+                                + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                                + HttpHeaders.CONTENT_RANGE + ": bytes " + start + "-" + end + "/" + length + "\r\n\r\n")
+                                .getBytes(StandardCharsets.US_ASCII));
+                        copy(file, start, end, length, out);
+                    }
+                    out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+                });
+    }
+
+    private void copy(FileNode file, long start, long end, long length, OutputStream out) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        try (InputStream in = start == 0 && end == length - 1
+                ? storageService.openFile(file.getStoragePath())
+                : storageService.openFileRange(file.getStoragePath(), start, end)) {
+            in.transferTo(out);
+        }
+    }
+
+    // If-Range holds either a strong ETag or an HTTP date
+    private boolean ifRangeMatches(String ifRange, String eTag, Instant lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return !ifRange.startsWith("W/") && ifRange.equals(eTag);
+        }
+        try {
+            Instant date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return lastModified != null && lastModified.getEpochSecond() == date.getEpochSecond();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.PurgeItem;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.PurgeJob;
+import com.cfs.backend.entity.PurgeStatus;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileAccessLogRepo;
+import com.cfs.backend.repo.FileNodeRepo;
+import com.cfs.backend.repo.PurgeJobRepo;
+import com.cfs.backend.repo.SharePermissionRepo;
+import com.cfs.backend.repo.UploadSessionChunkRepo;
+import com.cfs.backend.repo.UploadSessionRepo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+// Hard delete in two halves: the request only marks the subtree with a PurgeJob, and this
+// service drains it in the background with multi-object deletes, outside any HTTP transaction.
+// Every node polls for jobs, so a run starts with a conditional claim in the database and
+// keeps a heartbeat; a runner that loses its claim stops at the next batch.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PurgeService {
+
+    private final FileNodeRepo fileNodeRepo;
+    private final PurgeJobRepo purgeJobRepo;
+    private final FileTreeService fileTreeService;
+    private final SharePermissionRepo sharePermissionRepo;
+    private final FileAccessLogRepo fileAccessLogRepo;
+    private final StorageService storageService;
+    private final BlobService blobService;
+    private final SearchIndexService searchIndexService;
+    private final UploadSessionService uploadSessionService;
+    private final UploadSessionRepo uploadSessionRepo;
+    private final UploadSessionChunkRepo uploadSessionChunkRepo;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${purge.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${purge.concurrency:4}")
+    private int concurrency;
+
+    @Value("${purge.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${purge.max-job-attempts:10}")
+    private int maxJobAttempts;
+
+    @Value("${purge.retry-backoff-ms:60000}")
+    private long retryBackoffMs;
+
+    @Value("${purge.heartbeat-timeout-ms:300000}")
+    private long heartbeatTimeoutMs;
+
+    // Identifies this node's runs in PurgeJob.runner
+    private final String runnerId = UUID.randomUUID().toString();
+
+    private ExecutorService jobExecutor;
+    private ExecutorService deleteExecutor;
+    private final Set<Long> runningJobs = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    void start() {
+        jobExecutor = Executors.newFixedThreadPool(2);
+        deleteExecutor = Executors.newFixedThreadPool(concurrency);
+    }
+
+    @PreDestroy
+    void stop() {
+        jobExecutor.shutdownNow();
+        deleteExecutor.shutdownNow();
+    }
+
+    // Marks the subtree and returns immediately; the job starts once the caller's transaction
+    // commits. Returns null when another job already has the root.
+    @Transactional
+    public PurgeJob schedule(FileNode root, User owner) {
+        PurgeJob job = new PurgeJob();
+        job.setOwner(owner);
+        job.setRootNodeId(root.getId());
+        job.setCreatedAt(Instant.now());
+        job = purgeJobRepo.save(job);
+
+        if (fileNodeRepo.claimForPurge(root.getId(), job.getId()) == 0) {
+            purgeJobRepo.delete(job);
+            return null;
+        }
+        fileTreeService.detachForPurge(root, job.getId());
+        fileNodeRepo.markForPurge(root.getPath(), job.getId());
+        job.setTotalObjects(fileNodeRepo.countPurgeFiles(job.getId()));
+        root.setPurgeJobId(job.getId());
+
+        Long jobId = job.getId();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(jobId);
+                }
+            });
+        } else {
+            submit(jobId);
+        }
+        return job;
+    }
+
+    // Picks up jobs left over by a restart and retries the ones that had failures, backing off
+    // between attempts; a job out of attempts stays FAILED until someone looks at it
+    @Scheduled(fixedDelayString = "${purge.poll-interval-ms:60000}")
+    public void resumeUnfinished() {
+        Instant now = Instant.now();
+        for (PurgeJob job : purgeJobRepo.findResumable(now, now.minusMillis(heartbeatTimeoutMs), maxJobAttempts)) {
+            submit(job.getId());
+        }
+    }
+
+    private void submit(Long jobId) {
+        if (!runningJobs.add(jobId)) {
+            return;
+        }
+        jobExecutor.execute(() -> {
+            try {
+                if (claim(jobId)) {
+                    run(jobId);
+                }
+            } catch (LostClaimException e) {
+                log.warn("Purge job {} was taken over by another node", jobId);
+            } catch (Exception e) {
+                log.error("Purge job {} failed", jobId, e);
+                try {
+                    updateOwnedJob(jobId, job -> {
+                        job.setStatus(PurgeStatus.FAILED);
+                        job.setLastError(e.getMessage());
+                        job.setRetryAt(nextRetry(job));
+                    });
+                } catch (LostClaimException lost) {
+                    log.warn("Purge job {} was taken over by another node", jobId);
+                }
+            } finally {
+                runningJobs.remove(jobId);
+            }
+        });
+    }
+
+    private boolean claim(Long jobId) {
+        Instant now = Instant.now();
+        Integer claimed = transactionTemplate.execute(status ->
+                purgeJobRepo.claim(jobId, runnerId, now, now.minusMillis(heartbeatTimeoutMs), maxJobAttempts));
+        return claimed != null && claimed == 1;
+    }
+
+    private void run(Long jobId) {
+        purgeFiles(jobId);
+        long failed = fileNodeRepo.countPurgeFiles(jobId);
+        if (failed == 0) {
+            purgeDirectories(jobId);
+        }
+
+        updateOwnedJob(jobId, job -> {
+            job.setStatus(failed == 0 ? PurgeStatus.COMPLETED : PurgeStatus.FAILED);
+            job.setFailedObjects(failed);
+            job.setFinishedAt(Instant.now());
+            job.setRetryAt(failed == 0 ? null : nextRetry(job));
+        });
+        log.info("Purge job {} finished, {} objects left", jobId, failed);
+    }
+
+    // Walks the job's files by id; up to `concurrency` batches are in flight at once
+    private void purgeFiles(Long jobId) {
+        Long afterId = 0L;
+        Deque<CompletableFuture<Integer>> inFlight = new ArrayDeque<>();
+        while (true) {
+            List<PurgeItem> batch = fileNodeRepo.findPurgeBatch(jobId, false, afterId, PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                break;
+            }
+            afterId = batch.get(batch.size() - 1).id();
+            inFlight.add(CompletableFuture.supplyAsync(() -> purgeBatch(jobId, batch), deleteExecutor));
+            if (inFlight.size() >= concurrency) {
+                finishBatch(jobId, inFlight.poll().join());
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            finishBatch(jobId, inFlight.poll().join());
+        }
+    }
+
+    // Returns how many nodes of the batch are gone
+    private int purgeBatch(Long jobId, List<PurgeItem> batch) {
+        List<PurgeItem> blobs = new ArrayList<>();
+        List<PurgeItem> objects = new ArrayList<>();
+        for (PurgeItem item : batch) {
+            (item.contentHash() != null ? blobs : objects).add(item);
+        }
+        return purgeBlobReferences(jobId, blobs) + purgeObjects(objects);
+    }
+
+    // Shared blobs: the rows and their references go together, and only blobs that dropped to
+    // zero lose their object. Only rows this transaction actually deletes give back a reference,
+    // so a batch run twice never releases twice. Hashes are released in sorted order to keep
+    // lock order stable.
+    private int purgeBlobReferences(Long jobId, List<PurgeItem> items) {
+        if (items.isEmpty()) {
+            return 0;
+        }
+        List<String> freed = transactionTemplate.execute(status -> {
+            Set<Long> present = new HashSet<>(fileNodeRepo.lockPurgeRows(
+                    items.stream().map(PurgeItem::id).toList(), jobId));
+            Map<String, Long> references = new TreeMap<>();
+            List<Long> ids = new ArrayList<>();
+            for (PurgeItem item : items) {
+                if (present.contains(item.id())) {
+                    references.merge(item.contentHash(), 1L, Long::sum);
+                    ids.add(item.id());
+                }
+            }
+            deleteRows(ids);
+            return blobService.release(references);
+        });
+        List<String> failed = deleteWithRetry(freed);
+        if (!failed.isEmpty()) {
+            log.warn("Could not delete {} unreferenced blob objects: {}", failed.size(), failed);
+        }
+        return items.size();
+    }
+
+    // Nodes that own their object outright. Ones whose object could not be deleted stay
+    // marked and are retried on the next run.
+    private int purgeObjects(List<PurgeItem> items) {
+        Map<String, List<Long>> idsByKey = new HashMap<>();
+        List<Long> done = new ArrayList<>();
+        for (PurgeItem item : items) {
+            if (item.storagePath() == null || item.storagePath().isEmpty()) {
+                done.add(item.id());
+            } else {
+                idsByKey.computeIfAbsent(item.storagePath(), k -> new ArrayList<>()).add(item.id());
+            }
+        }
+
+        Set<String> failedKeys = new HashSet<>(deleteWithRetry(new ArrayList<>(idsByKey.keySet())));
+        idsByKey.forEach((key, ids) -> {
+            if (!failedKeys.contains(key)) {
+                done.addAll(ids);
+            }
+        });
+        transactionTemplate.executeWithoutResult(status -> deleteRows(done));
+        return done.size();
+    }
+
+    // Returns the keys still not deleted after all attempts
+    private List<String> deleteWithRetry(List<String> keys) {
+        List<String> pending = keys;
+        for (int attempt = 1; attempt <= maxAttempts && !pending.isEmpty(); attempt++) {
+            try {
+                pending = storageService.deleteFiles(pending);
+            } catch (Exception e) {
+                log.warn("DeleteObjects attempt {} failed: {}", attempt, e.getMessage());
+            }
+            if (!pending.isEmpty() && attempt < maxAttempts) {
+                sleep(200L << attempt);
+            }
+        }
+        return pending;
+    }
+
+    // Progress doubles as the heartbeat
+    private void finishBatch(Long jobId, int purged) {
+        updateOwnedJob(jobId, job -> job.setPurgedObjects(job.getPurgedObjects() + purged));
+    }
+
+    // Folders go last, deepest level first, so no row is deleted before its children
+    private void purgeDirectories(Long jobId) {
+        TreeMap<Integer, List<Long>> byDepth = new TreeMap<>(Comparator.reverseOrder());
+        Long afterId = 0L;
+        while (true) {
+            List<PurgeItem> batch = fileNodeRepo.findPurgeBatch(jobId, true, afterId, PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                break;
+            }
+            afterId = batch.get(batch.size() - 1).id();
+            for (PurgeItem dir : batch) {
+                int depth = (int) dir.path().chars().filter(c -> c == '/').count();
+                byDepth.computeIfAbsent(depth, d -> new ArrayList<>()).add(dir.id());
+            }
+        }
+        for (List<Long> level : byDepth.values()) {
+            for (int from = 0; from < level.size(); from += batchSize) {
+                List<Long> chunk = level.subList(from, Math.min(from + batchSize, level.size()));
+                // Upload sessions reference their folder; open ones are aborted outside the delete
+                uploadSessionService.abortInFolders(chunk);
+                transactionTemplate.executeWithoutResult(status -> deleteRows(chunk));
+                heartbeat(jobId);
+            }
+        }
+    }
+
+    private void deleteRows(List<Long> nodeIds) {
+        if (nodeIds.isEmpty()) {
+            return;
+        }
+        sharePermissionRepo.deleteByFileNodeIds(nodeIds);
+        fileAccessLogRepo.deleteByFileNodeIds(nodeIds);
+        uploadSessionChunkRepo.deleteByParentIds(nodeIds);
+        uploadSessionRepo.deleteByParentIds(nodeIds);
+        searchIndexService.remove(nodeIds);
+        fileNodeRepo.deleteByIdIn(nodeIds);
+    }
+
+    // Doubles from retry-backoff per attempt, up to a day
+    private Instant nextRetry(PurgeJob job) {
+        long delay = retryBackoffMs << Math.min(Math.max(job.getAttempts() - 1, 0), 20);
+        return Instant.now().plusMillis(Math.min(delay, Duration.ofDays(1).toMillis()));
+    }
+
+    private void heartbeat(Long jobId) {
+        updateOwnedJob(jobId, job -> {
+        });
+    }
+
+    // Changes the job only while this node still holds it, and refreshes the heartbeat.
+    // Throws LostClaimException once another node has taken the job over.
+    private void updateOwnedJob(Long jobId, Consumer<PurgeJob> change) {
+        Boolean owned = transactionTemplate.execute(status -> purgeJobRepo.lockById(jobId)
+                .filter(job -> runnerId.equals(job.getRunner()))
+                .map(job -> {
+                    change.accept(job);
+                    job.setHeartbeatAt(Instant.now());
+                    return true;
+                })
+                .orElse(false));
+        if (!Boolean.TRUE.equals(owned)) {
+            throw new LostClaimException();
+        }
+    }
+
+    private static class LostClaimException extends RuntimeException {
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
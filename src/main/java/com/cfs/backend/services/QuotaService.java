@@ -0,0 +1,170 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.UserRepo;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-user storage accounting. Every change is one conditional UPDATE on the user row, so two
+// concurrent uploads can never both fit into the last free bytes, and no entity is read first.
+//
+// With quota.lease.enabled, each user also gets an in-memory lease: a chunk of quota reserved
+// in the database up front and handed out locally, so a user with many parallel uploads hits
+// their row once per lease instead of once per file. Unused lease bytes count as used in the
+// database until the periodic flush gives them back.
+@Service
+@Slf4j
+public class QuotaService {
+
+    private final UserRepo userRepo;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate leaseTransactionTemplate;
+    private final boolean leaseEnabled;
+    private final long leaseSize;
+
+    // Bytes reserved in the database for a user but not handed out yet
+    private static final class Lease {
+        long available;
+    }
+
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    public QuotaService(UserRepo userRepo,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${quota.lease.enabled:false}") boolean leaseEnabled,
+                        @Value("${quota.lease.size-bytes:268435456}") long leaseSize) {
+        this.userRepo = userRepo;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Leases outlive the request that took them, so they never ride on the caller's transaction
+        this.leaseTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.leaseTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.leaseEnabled = leaseEnabled;
+        this.leaseSize = leaseSize;
+    }
+
+    // A cheap early answer before a long transfer; reserve() is still the one that counts
+    public boolean fits(User user, long bytes) {
+        return userRepo.findStorageUsed(user.getId()) + bytes <= user.getStorageAlloted();
+    }
+
+    // Joins the caller's transaction, so a rollback there undoes the reservation too.
+    // Reserve before inserting rows that reference the user: with leases on, a lease refill
+    // updates the user row from a separate transaction.
+    public boolean reserve(Long userId, long bytes) {
+        if (bytes <= 0) {
+            return true;
+        }
+        if (!leaseEnabled) {
+            Integer updated = transactionTemplate.execute(status -> userRepo.tryReserveStorage(userId, bytes));
+            return updated != null && updated == 1;
+        }
+        Lease lease = leases.computeIfAbsent(userId, id -> new Lease());
+        synchronized (lease) {
+            if (lease.available < bytes) {
+                long need = bytes - lease.available;
+                // A full lease if it fits. Near the limit: this request first, then the biggest
+                // slice of what is left that still fits, so the last free bytes are not taken
+                // one database write per file.
+                if (takeFromDatabase(userId, need + leaseSize)) {
+                    lease.available += need + leaseSize;
+                } else if (takeFromDatabase(userId, need)) {
+                    lease.available += need;
+                    for (long extra = leaseSize / 2; extra >= leaseSize / 64 && extra > 0; extra /= 2) {
+                        if (takeFromDatabase(userId, extra)) {
+                            lease.available += extra;
+                            break;
+                        }
+                    }
+                } else {
+                    return false;
+                }
+            }
+            lease.available -= bytes;
+        }
+        afterRollback(() -> giveBack(userId, bytes));
+        return true;
+    }
+
+    // Joins the caller's transaction like reserve(); with leases on, the bytes return to the
+    // lease once that transaction commits
+    public void release(Long userId, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        if (!leaseEnabled) {
+            transactionTemplate.executeWithoutResult(status -> userRepo.releaseStorage(userId, bytes));
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    giveBack(userId, bytes);
+                }
+            });
+        } else {
+            giveBack(userId, bytes);
+        }
+    }
+
+    // Returns every lease's unused bytes, so idle users stop holding quota they are not using
+    @Scheduled(fixedDelayString = "${quota.lease.flush-interval-ms:5000}")
+    @PreDestroy
+    public void flush() {
+        if (!leaseEnabled) {
+            return;
+        }
+        for (Map.Entry<Long, Lease> entry : leases.entrySet()) {
+            long unused;
+            synchronized (entry.getValue()) {
+                unused = entry.getValue().available;
+                entry.getValue().available = 0;
+            }
+            if (unused > 0) {
+                try {
+                    leaseTransactionTemplate.executeWithoutResult(
+                            status -> userRepo.releaseStorage(entry.getKey(), unused));
+                } catch (Exception e) {
+                    log.warn("Could not return {} leased bytes for user {}", unused, entry.getKey(), e);
+                    giveBack(entry.getKey(), unused);
+                }
+            }
+        }
+    }
+
+    private boolean takeFromDatabase(Long userId, long bytes) {
+        Integer updated = leaseTransactionTemplate.execute(status -> userRepo.tryReserveStorage(userId, bytes));
+        return updated != null && updated == 1;
+    }
+
+    private void giveBack(Long userId, long bytes) {
+        Lease lease = leases.computeIfAbsent(userId, id -> new Lease());
+        synchronized (lease) {
+            lease.available += bytes;
+        }
+    }
+
+    private void afterRollback(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        action.run();
+                    }
+                }
+            });
+        }
+    }
+}
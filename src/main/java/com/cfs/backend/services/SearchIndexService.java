@@ -0,0 +1,193 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNameTrigramRepo;
+import com.cfs.backend.repo.FileNodeRepo;
+import com.cfs.backend.repo.SharePermissionRepo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// Keeps the file name trigram index in step with the tree. Only names are indexed: a move
+// changes which shares reach a node, and search resolves that from the live path.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SearchIndexService {
+
+    private static final int GRAM = 3;
+
+    private final FileNameTrigramRepo fileNameTrigramRepo;
+    private final FileNodeRepo fileNodeRepo;
+    private final SharePermissionRepo sharePermissionRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    // Name search over what the user owns plus everything under folders shared with them. The
+    // share roots are resolved first so each becomes a plain path prefix the path index can
+    // range-scan; candidates then come from the trigram index (every query gram must be present),
+    // and the LIKE only re-checks those rows for the exact substring.
+    public Page<FileNode> search(User user, String query, Pageable pageable) {
+        List<Object> args = new ArrayList<>();
+        String candidates = query.codePointCount(0, query.length()) < GRAM
+                ? shortCandidates(user, args)
+                : gramCandidates(user, grams(query), args);
+        String from = "FROM (" + candidates + ") c JOIN file_nodes f ON f.id = c.node_id " +
+                "WHERE f.is_deleted = false AND f.purge_job_id IS NULL AND LOWER(f.file_name) LIKE ?";
+        args.add("%" + query.toLowerCase(Locale.ROOT) + "%");
+
+        List<Object> pageArgs = new ArrayList<>(args);
+        pageArgs.add(pageable.getPageSize());
+        pageArgs.add(pageable.getOffset());
+        List<Long> ids = jdbcTemplate.queryForList("SELECT f.id " + from + " ORDER BY f.id LIMIT ? OFFSET ?",
+                Long.class, pageArgs.toArray());
+        Map<Long, FileNode> byId = new HashMap<>();
+        fileNodeRepo.findAllById(ids).forEach(node -> byId.put(node.getId(), node));
+        List<FileNode> page = ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+        return PageableExecutionUtils.getPage(page, pageable,
+                () -> jdbcTemplate.queryForObject("SELECT COUNT(*) " + from, Long.class, args.toArray()));
+    }
+
+    // Nodes holding every query gram: the user's own through the owner index, and one
+    // path-prefix scan per share root
+    private String gramCandidates(User user, List<Long> grams, List<Object> args) {
+        String in = String.join(", ", Collections.nCopies(grams.size(), "?"));
+        List<String> parts = new ArrayList<>();
+        parts.add("SELECT t.node_id FROM file_name_trigrams t WHERE t.owner_id = ? AND t.gram IN (" + in + ") " +
+                "GROUP BY t.node_id HAVING COUNT(*) = ?");
+        args.add(user.getId());
+        args.addAll(grams);
+        args.add(grams.size());
+        for (String prefix : sharedPrefixes(user)) {
+            parts.add("SELECT t.node_id FROM file_nodes g JOIN file_name_trigrams t ON t.node_id = g.id " +
+                    "WHERE g.path LIKE ? AND t.gram IN (" + in + ") GROUP BY t.node_id HAVING COUNT(*) = ?");
+            args.add(prefix);
+            args.addAll(grams);
+            args.add(grams.size());
+        }
+        return String.join(" UNION ", parts);
+    }
+
+    // Queries shorter than a trigram cannot use the index; the name is checked row by row
+    private String shortCandidates(User user, List<Object> args) {
+        List<String> parts = new ArrayList<>();
+        parts.add("SELECT g.id AS node_id FROM file_nodes g WHERE g.owner_id = ?");
+        args.add(user.getId());
+        for (String prefix : sharedPrefixes(user)) {
+            parts.add("SELECT g.id FROM file_nodes g WHERE g.path LIKE ?");
+            args.add(prefix);
+        }
+        return String.join(" UNION ", parts);
+    }
+
+    // LIKE patterns for the user's share roots, leaving out any root inside another (its
+    // subtree is already covered). Paths are made of ids and slashes, so need no escaping.
+    private List<String> sharedPrefixes(User user) {
+        List<String> paths = new ArrayList<>(sharePermissionRepo.findSharedPaths(user.getId()));
+        Collections.sort(paths);
+        List<String> prefixes = new ArrayList<>();
+        String covering = null;
+        for (String path : paths) {
+            if (covering == null || !path.startsWith(covering)) {
+                covering = path;
+                prefixes.add(path + "%");
+            }
+        }
+        return prefixes;
+    }
+
+    // For a node just created; runs in the caller's transaction
+    public void index(FileNode node) {
+        indexAll(List.of(node));
+    }
+
+    // Many new nodes, with one JDBC batch for all their grams
+    public void indexAll(List<FileNode> nodes) {
+        List<long[]> rows = new ArrayList<>();
+        for (FileNode node : nodes) {
+            for (Long gram : grams(node.getFileName())) {
+                rows.add(new long[]{node.getId(), gram, node.getOwner().getId()});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO file_name_trigrams (node_id, gram, owner_id) VALUES (?, ?, ?)",
+                rows, rows.size(), (ps, row) -> {
+                    ps.setLong(1, row[0]);
+                    ps.setLong(2, row[1]);
+                    ps.setLong(3, row[2]);
+                });
+    }
+
+    public void reindex(FileNode node) {
+        fileNameTrigramRepo.deleteByNodeIds(List.of(node.getId()));
+        index(node);
+    }
+
+    public void remove(List<Long> nodeIds) {
+        if (!nodeIds.isEmpty()) {
+            fileNameTrigramRepo.deleteByNodeIds(nodeIds);
+        }
+    }
+
+    // Indexes nodes created before the index existed, a batch per transaction
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        long indexed = 0;
+        Long afterId = 0L;
+        while (true) {
+            Long from = afterId;
+            List<FileNode> batch = transactionTemplate.execute(status -> {
+                List<FileNode> nodes = fileNodeRepo.findUnindexed(from, PageRequest.of(0, 1000));
+                nodes.forEach(this::index);
+                return nodes;
+            });
+            if (batch == null || batch.isEmpty()) {
+                break;
+            }
+            afterId = batch.get(batch.size() - 1).getId();
+            indexed += batch.size();
+        }
+        if (indexed > 0) {
+            log.info("Indexed {} file names for search", indexed);
+        }
+    }
+
+    // Distinct trigrams of the lower-cased text, by code point
+    static List<Long> grams(String text) {
+        int[] cps = text.toLowerCase(Locale.ROOT).codePoints().toArray();
+        Set<Long> grams = new LinkedHashSet<>();
+        if (cps.length < GRAM) {
+            grams.add(pack(cps, 0, cps.length));
+        }
+        for (int i = 0; i + GRAM <= cps.length; i++) {
+            grams.add(pack(cps, i, GRAM));
+        }
+        return new ArrayList<>(grams);
+    }
+
+    private static long pack(int[] cps, int from, int length) {
+        long gram = 0;
+        for (int i = 0; i < GRAM; i++) {
+            gram = (gram << 21) | (i < length ? cps[from + i] : 0);
+        }
+        return gram;
+    }
+}
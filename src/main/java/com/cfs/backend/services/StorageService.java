@@ -1,5 +1,7 @@
 package com.cfs.backend.services;
 
+import com.cfs.backend.cache.PresignedUrlCache;
+import com.cfs.backend.dto.PresignedPartUrl;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -7,15 +9,39 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.Delete;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.Part;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedUploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.Duration;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 
 @Service
@@ -23,43 +49,205 @@ import java.util.UUID;
 @Slf4j
 public class StorageService {
 
+    // Largest object a single CopyObject may copy
+    private static final long MAX_COPY_OBJECT_SIZE = 5L * 1024 * 1024 * 1024;
+
     private final S3Client s3Client;
     private final S3Presigner s3Presigner;
+    private final MultipartUploader multipartUploader;
+    private final PresignedUrlCache presignedUrlCache;
 
     @Value("${minio.bucket-name}")
     private String bucketName;
 
+    @Value("${storage.presign.ttl-minutes:10}")
+    private long presignTtlMinutes;
+
     public String uploadFile (MultipartFile file , Long userId) throws IOException {
-        String storagePath = "user-"+ userId +"/" + UUID.randomUUID().toString() + "-" + file.getOriginalFilename();
+        String storagePath = newStoragePath(userId, file.getOriginalFilename());
+        try (InputStream in = file.getInputStream()) {
+            putObject(storagePath, file.getContentType(), in, file.getSize());
+        }
+        return storagePath;
+    }
+
+    // Pipes a raw request body straight into the bucket. The SDK reads it through a fixed-size
+    // buffer, so nothing is spooled to memory or disk. Fails if the stream is not exactly
+    // contentLength bytes long.
+    public String uploadStream(InputStream in, long contentLength, String contentType, String fileName, Long userId) {
+        String storagePath = newStoragePath(userId, fileName);
+        CountingInputStream counting = new CountingInputStream(in);
+        putObject(storagePath, contentType, counting, contentLength);
+        if (counting.getCount() != contentLength) {
+            deleteFile(storagePath);
+            throw new IllegalStateException("Upload ended after " + counting.getCount() + " of " + contentLength + " bytes");
+        }
+        return storagePath;
+    }
+
+    // Single PUT for small objects, parallel multipart upload above storage.multipart.threshold
+    private void putObject(String storagePath, String contentType, InputStream in, long contentLength) {
+        if (multipartUploader.shouldUseMultipart(contentLength)) {
+            multipartUploader.upload(storagePath, contentType, in, contentLength);
+            return;
+        }
         PutObjectRequest putObjectRequest = PutObjectRequest.builder()
                 .bucket(bucketName)
                 .key(storagePath)
-                .contentType(file.getContentType())
-                .contentLength(file.getSize())
+                .contentType(contentType)
+                .contentLength(contentLength)
                 .build();
 
-        s3Client.putObject(putObjectRequest , RequestBody.fromInputStream(file.getInputStream() ,file.getSize()));
-        return storagePath;
+        s3Client.putObject(putObjectRequest, RequestBody.fromInputStream(in, contentLength));
     }
 
-    public String generateDownloadUrl(String storagePath){
-        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+    // Copies an object within the bucket on the S3 side; no bytes pass through here. Large
+    // objects are copied in parallel parts, like they are uploaded.
+    public void copyObject(String sourcePath, String targetPath, String contentType, long contentLength) {
+        if (contentLength > MAX_COPY_OBJECT_SIZE || multipartUploader.shouldUseMultipart(contentLength)) {
+            multipartUploader.copy(sourcePath, targetPath, contentType, contentLength);
+            return;
+        }
+        s3Client.copyObject(CopyObjectRequest.builder()
+                .sourceBucket(bucketName)
+                .sourceKey(sourcePath)
+                .destinationBucket(bucketName)
+                .destinationKey(targetPath)
+                .build());
+    }
+
+    public boolean shouldUseMultipart(long contentLength) {
+        return multipartUploader.shouldUseMultipart(contentLength);
+    }
+
+    // Chunk-at-a-time multipart primitives for resumable upload sessions
+
+    public String startMultipartUpload(String storagePath, String contentType) {
+        return multipartUploader.create(storagePath, contentType);
+    }
+
+    public String uploadPart(String storagePath, String uploadId, int partNumber, InputStream in, long length) {
+        return multipartUploader.uploadPart(storagePath, uploadId, partNumber, length,
+                RequestBody.fromInputStream(in, length));
+    }
+
+    // partETags maps part number to ETag
+    public void completeMultipartUpload(String storagePath, String uploadId, Map<Integer, String> partETags) {
+        List<CompletedPart> parts = new TreeMap<>(partETags).entrySet().stream()
+                .map(e -> CompletedPart.builder().partNumber(e.getKey()).eTag(e.getValue()).build())
+                .toList();
+        multipartUploader.complete(storagePath, uploadId, parts);
+    }
+
+    public void abortMultipartUpload(String storagePath, String uploadId) {
+        multipartUploader.abort(storagePath, uploadId);
+    }
+
+    // Presigned uploads: the client sends the bytes straight to the bucket
+
+    // sha256 (hex) is optional; when given, S3 rejects a body with any other content
+    public PresignedPartUrl presignUpload(String storagePath, String contentType, long contentLength, String sha256) {
+        PutObjectRequest.Builder putObjectRequest = PutObjectRequest.builder()
                 .bucket(bucketName)
                 .key(storagePath)
-                .build();
+                .contentType(contentType)
+                .contentLength(contentLength);
+        if (sha256 != null) {
+            putObjectRequest.checksumSHA256(toBase64(sha256));
+        }
+        PresignedPutObjectRequest presigned = s3Presigner.presignPutObject(PutObjectPresignRequest.builder()
+                .signatureDuration(Duration.ofMinutes(presignTtlMinutes))
+                .putObjectRequest(putObjectRequest.build())
+                .build());
+        return new PresignedPartUrl(0, presigned.url().toString(), presigned.expiration());
+    }
 
-        GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
-                .signatureDuration(Duration.ofMinutes(10))
-                .getObjectRequest(getObjectRequest)
-                .build();
+    public PresignedPartUrl presignUploadPart(String storagePath, String uploadId, int partNumber, long length) {
+        PresignedUploadPartRequest presigned = s3Presigner.presignUploadPart(UploadPartPresignRequest.builder()
+                .signatureDuration(Duration.ofMinutes(presignTtlMinutes))
+                .uploadPartRequest(UploadPartRequest.builder()
+                        .bucket(bucketName)
+                        .key(storagePath)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength(length)
+                        .build())
+                .build());
+        return new PresignedPartUrl(partNumber, presigned.url().toString(), presigned.expiration());
+    }
+
+    // Parts the client has uploaded so far, part number -> part
+    public Map<Integer, Part> listUploadedParts(String storagePath, String uploadId) {
+        Map<Integer, Part> parts = new TreeMap<>();
+        s3Client.listPartsPaginator(ListPartsRequest.builder()
+                        .bucket(bucketName)
+                        .key(storagePath)
+                        .uploadId(uploadId)
+                        .build())
+                .parts()
+                .forEach(part -> parts.put(part.partNumber(), part));
+        return parts;
+    }
+
+    // Size and, where S3 has one for the whole object, the SHA-256 checksum; null if missing
+    public HeadObjectResponse headObject(String storagePath) {
+        try {
+            return s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(storagePath)
+                    .checksumMode(ChecksumMode.ENABLED)
+                    .build());
+        } catch (NoSuchKeyException e) {
+            return null;
+        }
+    }
+
+    public static String toBase64(String hex) {
+        return Base64.getEncoder().encodeToString(HexFormat.of().parseHex(hex));
+    }
+
+    public String newStoragePath(Long userId, String fileName) {
+        return "user-"+ userId +"/" + UUID.randomUUID().toString() + "-" + fileName;
+    }
+
+    // Caller must close the stream; it holds an HTTP connection from the client's pool
+    public InputStream openFile(String storagePath) {
+        return s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(storagePath)
+                .build());
+    }
 
-        PresignedGetObjectRequest presignedRequest = s3Presigner.presignGetObject(presignRequest);
+    // Inclusive byte range, as in an HTTP Range header
+    public InputStream openFileRange(String storagePath, long start, long end) {
+        return s3Client.getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(storagePath)
+                .range("bytes=" + start + "-" + end)
+                .build());
+    }
 
-        // Return the URL
-        log.info("Generated presigned URL: {}", presignedRequest.url());
-        return presignedRequest.url().toString();
+    public String generateDownloadUrl(String storagePath){
+        return presignDownload(storagePath).url();
+    }
 
+    // Served from the presigned URL cache while the cached URL still has enough life left
+    public PresignedUrlCache.Entry presignDownload(String storagePath) {
+        return presignedUrlCache.get(storagePath, () -> {
+            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(storagePath)
+                    .build();
 
+            GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
+                    .signatureDuration(Duration.ofMinutes(presignTtlMinutes))
+                    .getObjectRequest(getObjectRequest)
+                    .build();
+
+            PresignedGetObjectRequest presignedRequest = s3Presigner.presignGetObject(presignRequest);
+            log.debug("Generated presigned URL for {}", storagePath);
+            return new PresignedUrlCache.Entry(presignedRequest.url().toString(), presignedRequest.expiration());
+        });
     }
 
     public void deleteFile(String storagePath) {
@@ -72,6 +260,25 @@ public class StorageService {
                 .key(storagePath).build();
 
         s3Client.deleteObject(deleteObjectRequest);
+        presignedUrlCache.evict(storagePath);
+
+    }
+
+    // Multi-object delete, at most 1000 keys per call. Returns the keys S3 could not delete.
+    public List<String> deleteFiles(List<String> storagePaths) {
+        if (storagePaths.isEmpty()) {
+            return List.of();
+        }
+        storagePaths.forEach(presignedUrlCache::evict);
+        List<ObjectIdentifier> objects = storagePaths.stream()
+                .map(key -> ObjectIdentifier.builder().key(key).build())
+                .toList();
+        DeleteObjectsRequest deleteObjectsRequest = DeleteObjectsRequest.builder()
+                .bucket(bucketName)
+                .delete(Delete.builder().objects(objects).quiet(true).build())
+                .build();
 
+        DeleteObjectsResponse response = s3Client.deleteObjects(deleteObjectsRequest);
+        return response.errors().stream().map(S3Error::key).toList();
     }
 }
@@ -0,0 +1,106 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.SubtreeTotals;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+// Trash and restore a whole subtree with one UPDATE each, instead of a query and a save per
+// node. Sizes come from the folder rollups, so neither has to sum the subtree.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TrashService {
+
+    private final FileNodeRepo fileNodeRepo;
+    private final FileTreeService fileTreeService;
+
+    // Returns the bytes moved to trash so the caller can adjust quota once
+    @Transactional
+    public long softDelete(FileNode file, User user) {
+        if (file.isDeleted()) {
+            return 0;
+        }
+        SubtreeTotals totals = fileTreeService.subtreeTotals(file);
+        // Restore matches the batch on deletedAt, so store exactly what the column can hold
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+        int rows = fileNodeRepo.softDeleteSubtree(file.getPath(), user, now);
+        // keep the managed entity in line with the bulk update
+        file.setDeleted(true);
+        file.setDeletedAt(now);
+        fileTreeService.adjustAncestors(file, totals, -1);
+        log.info("Deleted {} nodes under {}", rows, file.getId());
+        return totals.size();
+    }
+
+    // Many roots at once, none inside another and all live. Files go in one UPDATE; each folder
+    // still needs its own subtree UPDATE. Returns the bytes moved to trash.
+    @Transactional
+    public long softDeleteAll(List<FileNode> roots, User user) {
+        if (roots.isEmpty()) {
+            return 0;
+        }
+        List<SubtreeTotals> totals = roots.stream().map(fileTreeService::subtreeTotals).toList();
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+        List<Long> fileIds = roots.stream().filter(node -> !node.getIsDirectory()).map(FileNode::getId).toList();
+        int rows = fileIds.isEmpty() ? 0 : fileNodeRepo.softDeleteFiles(fileIds, user, now);
+        for (FileNode root : roots) {
+            if (root.getIsDirectory()) {
+                rows += fileNodeRepo.softDeleteSubtree(root.getPath(), user, now);
+            }
+            root.setDeleted(true);
+            root.setDeletedAt(now);
+        }
+        fileTreeService.adjustAncestors(roots, totals, -1);
+        log.info("Deleted {} nodes under {} roots", rows, roots.size());
+        return totals.stream().mapToLong(SubtreeTotals::size).sum();
+    }
+
+    public long getRestoreSize(FileNode file, User user) {
+        if (!file.isDeleted()) {
+            return 0;
+        }
+        return fileTreeService.subtreeTotals(file).size();
+    }
+
+    @Transactional
+    public void restore(FileNode file, User user) {
+        if (!file.isDeleted()) {
+            return;
+        }
+        SubtreeTotals totals = fileTreeService.subtreeTotals(file);
+        int rows = fileNodeRepo.restoreSubtree(file.getPath(), user, file.getDeletedAt());
+        file.setDeleted(false);
+        file.setDeletedAt(null);
+        fileTreeService.adjustAncestors(file, totals, 1);
+        log.info("Restored {} nodes under {}", rows, file.getId());
+    }
+
+    // Many trashed roots at once, parents before children; each folder brings back its own batch
+    @Transactional
+    public void restoreAll(List<FileNode> roots, User user) {
+        if (roots.isEmpty()) {
+            return;
+        }
+        List<SubtreeTotals> totals = roots.stream().map(fileTreeService::subtreeTotals).toList();
+        List<Long> fileIds = roots.stream().filter(node -> !node.getIsDirectory()).map(FileNode::getId).toList();
+        int rows = fileIds.isEmpty() ? 0 : fileNodeRepo.restoreFiles(fileIds, user);
+        for (FileNode root : roots) {
+            if (root.getIsDirectory()) {
+                rows += fileNodeRepo.restoreSubtree(root.getPath(), user, root.getDeletedAt());
+            }
+            root.setDeleted(false);
+            root.setDeletedAt(null);
+        }
+        fileTreeService.adjustAncestors(roots, totals, 1);
+        log.info("Restored {} nodes under {} roots", rows, roots.size());
+    }
+}
@@ -0,0 +1,309 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.ImportEntry;
+import com.cfs.backend.dto.ImportResponse;
+import com.cfs.backend.dto.StoredObject;
+import com.cfs.backend.entity.ContentBlob;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.PermissionType;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Creates a whole directory tree from one manifest. Uploaded parts are stored first, on a
+// bounded pool and outside any transaction. Then one transaction takes the quota for everything
+// with a single reservation, takes the blob references a hash at a time, and inserts the nodes
+// in JDBC batches, a chunk at a time, with ids from the pooled generator.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TreeImportService {
+
+    private final FileNodeRepo fileNodeRepo;
+    private final FileTreeService fileTreeService;
+    private final BlobService blobService;
+    private final QuotaService quotaService;
+    private final AccessService accessService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${import.max-entries:100000}")
+    private int maxEntries;
+
+    @Value("${import.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${import.threads:8}")
+    private int threads;
+
+    private ExecutorService storeExecutor;
+
+    // A manifest entry checked and split into names
+    private record Item(List<String> names, ImportEntry entry) {
+    }
+
+    @PostConstruct
+    void start() {
+        storeExecutor = Executors.newFixedThreadPool(threads);
+    }
+
+    @PreDestroy
+    void stop() {
+        storeExecutor.shutdownNow();
+    }
+
+    // The parent has been authorized and unlocked by the caller. Returns null when the tree does
+    // not fit the user's quota. Nothing is created unless everything is.
+    public ImportResponse importTree(User user, FileNode parent, List<ImportEntry> entries,
+                                     Map<String, MultipartFile> parts) {
+        List<Item> items = validate(entries, parts);
+        checkReachable(user, items);
+        Set<String> taken = new HashSet<>();
+        fileNodeRepo.findByParentAndOwnerAndIsDeletedFalse(parent, user).forEach(node -> taken.add(node.getFileName()));
+        for (Item item : items) {
+            if (taken.contains(item.names().get(0))) {
+                throw new IllegalArgumentException("File already exists: " + item.names().get(0));
+            }
+        }
+        long declared = items.stream().filter(item -> !item.entry().isDirectory())
+                .mapToLong(item -> item.entry().getSize() == null ? 0 : item.entry().getSize()).sum();
+        if (!quotaService.fits(user, declared)) {
+            return null;
+        }
+
+        Map<Item, StoredObject> stored = storeParts(items, parts, user);
+        try {
+            ImportResponse response = transactionTemplate.execute(status -> {
+                ImportResponse inserted = insert(user, parent, items, stored, parts);
+                if (inserted == null) {
+                    // Gives back the blob references taken before the quota turned out short
+                    status.setRollbackOnly();
+                }
+                return inserted;
+            });
+            if (response == null) {
+                discard(stored.values());
+            }
+            return response;
+        } catch (RuntimeException e) {
+            discard(stored.values());
+            throw e;
+        }
+    }
+
+    private ImportResponse insert(User user, FileNode parent, List<Item> items, Map<Item, StoredObject> stored,
+                                  Map<String, MultipartFile> parts) {
+        // One reference per node, taken per hash rather than per node
+        Map<String, Long> references = new HashMap<>();
+        items.stream().filter(item -> !item.entry().isDirectory() && item.entry().getPart() == null)
+                .forEach(item -> references.merge(item.entry().getSha256(), 1L, Long::sum));
+        Map<String, ContentBlob> blobs = blobService.acquireAll(references);
+
+        Map<String, FileNode> folders = new HashMap<>();
+        List<FileNode> nodes = new ArrayList<>();
+        int files = 0;
+        long bytes = 0;
+        for (Item item : items) {
+            FileNode folder = folderFor(item.names().subList(0, item.names().size() - 1), parent, user, folders, nodes);
+            if (item.entry().isDirectory()) {
+                folderFor(item.names(), parent, user, folders, nodes);
+                continue;
+            }
+            FileNode file = newNode(item.names().get(item.names().size() - 1), false, folder, user);
+            file.setMimeType(item.entry().getMimeType());
+            StoredObject object = stored.get(item);
+            if (object != null) {
+                file.setFileSize(parts.get(item.entry().getPart()).getSize());
+                file.setStoragePath(object.storagePath());
+                file.setContentHash(object.contentHash());
+            } else {
+                ContentBlob blob = blobs.get(item.entry().getSha256());
+                file.setFileSize(blob.getSize());
+                file.setStoragePath(blob.getStoragePath());
+                file.setContentHash(blob.getSha256());
+            }
+            nodes.add(file);
+            files++;
+            bytes += file.getFileSize();
+        }
+
+        if (!quotaService.reserve(user.getId(), bytes)) {
+            return null;
+        }
+        // Parents come before children, so every chunk's parents are already saved and stamped
+        fileTreeService.attachTree(nodes, batchSize);
+        return new ImportResponse(folders.size(), files, bytes);
+    }
+
+    // The folder at names below parent, created along with any missing folders above it
+    private FileNode folderFor(List<String> names, FileNode parent, User user, Map<String, FileNode> folders,
+                               List<FileNode> nodes) {
+        FileNode folder = parent;
+        StringBuilder key = new StringBuilder();
+        for (String name : names) {
+            key.append('/').append(name);
+            FileNode current = folder;
+            folder = folders.computeIfAbsent(key.toString(), k -> {
+                FileNode created = newNode(name, true, current, user);
+                nodes.add(created);
+                return created;
+            });
+        }
+        return folder;
+    }
+
+    private FileNode newNode(String name, boolean directory, FileNode parent, User owner) {
+        FileNode node = new FileNode();
+        node.setFileName(name);
+        node.setIsDirectory(directory);
+        node.setFileSize(0L);
+        node.setOwner(owner);
+        node.setDeleted(false);
+        node.setIsLocked(false);
+        node.setParent(parent);
+        return node;
+    }
+
+    private List<Item> validate(List<ImportEntry> entries, Map<String, MultipartFile> parts) {
+        if (entries == null || entries.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to import");
+        }
+        if (entries.size() > maxEntries) {
+            throw new IllegalArgumentException("At most " + maxEntries + " entries per import");
+        }
+        Map<String, Item> byPath = new LinkedHashMap<>();
+        for (ImportEntry entry : entries) {
+            String path = entry.getPath() == null ? "" : entry.getPath().trim();
+            List<String> names = List.of(path.split("/", -1));
+            for (String name : names) {
+                if (name.isEmpty() || name.equals(".") || name.equals("..") || name.contains("\\")) {
+                    throw new IllegalArgumentException("Invalid path: " + path);
+                }
+            }
+            if (!entry.isDirectory()) {
+                if (entry.getPart() != null) {
+                    if (!parts.containsKey(entry.getPart())) {
+                        throw new IllegalArgumentException("Missing part " + entry.getPart() + " for " + path);
+                    }
+                } else if (entry.getSha256() == null || !entry.getSha256().matches("[0-9a-f]{64}")) {
+                    throw new IllegalArgumentException("No content for " + path);
+                }
+            }
+            if (byPath.putIfAbsent(String.join("/", names), new Item(names, entry)) != null) {
+                throw new IllegalArgumentException("Duplicate path: " + path);
+            }
+        }
+        // A file cannot also be a folder on the way to another entry
+        for (Item item : byPath.values()) {
+            for (int i = 1; i < item.names().size(); i++) {
+                Item above = byPath.get(String.join("/", item.names().subList(0, i)));
+                if (above != null && !above.entry().isDirectory()) {
+                    throw new IllegalArgumentException("Not a folder: " + String.join("/", above.names()));
+                }
+            }
+        }
+        return new ArrayList<>(byPath.values());
+    }
+
+    // A hash may only stand for content the caller can already read: a file of their own, or a
+    // live one they can VIEW outside any locked folder. Anything else is refused just like an
+    // unknown hash, so guessing hashes tells nothing about other users' files.
+    private void checkReachable(User user, List<Item> items) {
+        List<String> hashes = items.stream()
+                .filter(item -> !item.entry().isDirectory() && item.entry().getPart() == null)
+                .map(item -> item.entry().getSha256())
+                .distinct()
+                .toList();
+        Set<String> reachable = new HashSet<>();
+        for (int from = 0; from < hashes.size(); from += 1000) {
+            reachable.addAll(fileNodeRepo.findOwnedContentHashes(user.getId(),
+                    hashes.subList(from, Math.min(hashes.size(), from + 1000))));
+        }
+        List<String> others = hashes.stream().filter(hash -> !reachable.contains(hash)).toList();
+        for (int from = 0; from < others.size(); from += 1000) {
+            List<FileNode> candidates = fileNodeRepo.findLiveByContentHashNotOwnedBy(user.getId(),
+                    others.subList(from, Math.min(others.size(), from + 1000)));
+            Map<Long, PermissionType> permissions = accessService.resolvePermissions(user, candidates);
+            for (FileNode candidate : candidates) {
+                PermissionType permission = permissions.get(candidate.getId());
+                if (!reachable.contains(candidate.getContentHash()) && permission != null
+                        && accessService.hasSufficientPermission(permission, PermissionType.VIEW)
+                        && accessService.findFirstLocked(candidate) == null) {
+                    reachable.add(candidate.getContentHash());
+                }
+            }
+        }
+        for (Item item : items) {
+            if (!item.entry().isDirectory() && item.entry().getPart() == null
+                    && !reachable.contains(item.entry().getSha256())) {
+                throw new IllegalArgumentException("No content for " + String.join("/", item.names()));
+            }
+        }
+    }
+
+    // Stores every uploaded part with no transaction open; only its blob row is written, in a
+    // short transaction. On failure, what was stored is given back before the error is rethrown.
+    private Map<Item, StoredObject> storeParts(List<Item> items, Map<String, MultipartFile> parts, User user) {
+        Map<Item, CompletableFuture<StoredObject>> transfers = new LinkedHashMap<>();
+        for (Item item : items) {
+            if (!item.entry().isDirectory() && item.entry().getPart() != null) {
+                MultipartFile part = parts.get(item.entry().getPart());
+                transfers.put(item, CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return blobService.storeUpload(part, user.getId());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, storeExecutor));
+            }
+        }
+        Map<Item, StoredObject> stored = new HashMap<>();
+        RuntimeException failure = null;
+        // Waits for every transfer, failed or not, so none is still writing during cleanup
+        for (Map.Entry<Item, CompletableFuture<StoredObject>> transfer : transfers.entrySet()) {
+            try {
+                stored.put(transfer.getKey(), transfer.getValue().join());
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException cause ? cause
+                            : new IllegalStateException("Import failed", e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            discard(stored.values());
+            throw failure;
+        }
+        return stored;
+    }
+
+    private void discard(Iterable<StoredObject> objects) {
+        for (StoredObject object : objects) {
+            try {
+                blobService.discard(object);
+            } catch (Exception e) {
+                log.warn("Could not discard {} of an abandoned import", object.storagePath(), e);
+            }
+        }
+    }
+}
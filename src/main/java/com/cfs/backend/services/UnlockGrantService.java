@@ -0,0 +1,116 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.UnlockGrantResponse;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.User;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+
+// Locked folders are checked with bcrypt, which is deliberately slow. An unlock grant pays that
+// once: it is an HMAC over (user, locked folder, expiry) and the folder's current password
+// hash, so checking it later is one HMAC, and it stops working as soon as the password changes
+// or the folder is relocked. A grant opens everything whose nearest locked folder is its folder.
+@Service
+@Slf4j
+public class UnlockGrantService {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final PasswordEncoder passwordEncoder;
+    private final SecretKeySpec key;
+    private final long ttlMs;
+
+    public UnlockGrantService(PasswordEncoder passwordEncoder,
+                              @Value("${unlock.grant.key:}") String grantKey,
+                              @Value("${jwt.secret.key:}") String jwtKey,
+                              @Value("${unlock.grant.ttl-ms:900000}") long ttlMs) {
+        this.passwordEncoder = passwordEncoder;
+        this.key = new SecretKeySpec(keyBytes(grantKey, jwtKey), ALGORITHM);
+        this.ttlMs = ttlMs;
+    }
+
+    // The caller has checked that the user may see the folder and that the password is right
+    public UnlockGrantResponse issue(User user, FileNode locked) {
+        Instant expiresAt = Instant.now().plusMillis(ttlMs);
+        String payload = user.getId() + "." + locked.getId() + "." + expiresAt.getEpochSecond();
+        return new UnlockGrantResponse(locked.getId(), payload + "." + sign(payload, locked), expiresAt);
+    }
+
+    // Any of the grants (comma separated), else the password. A null locked folder needs neither.
+    public boolean unlocks(User user, FileNode locked, String password, String grants) {
+        if (locked == null) {
+            return true;
+        }
+        if (grants != null) {
+            for (String grant : grants.split(",")) {
+                if (isValid(user, locked, grant.trim())) {
+                    return true;
+                }
+            }
+        }
+        return password != null && passwordEncoder.matches(password, locked.getFolderPassword());
+    }
+
+    private boolean isValid(User user, FileNode locked, String grant) {
+        String[] parts = grant.split("\\.");
+        if (parts.length != 4 || !parts[0].equals(String.valueOf(user.getId()))
+                || !parts[1].equals(String.valueOf(locked.getId()))) {
+            return false;
+        }
+        try {
+            if (Instant.ofEpochSecond(Long.parseLong(parts[2])).isBefore(Instant.now())) {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        String payload = parts[0] + "." + parts[1] + "." + parts[2];
+        return MessageDigest.isEqual(sign(payload, locked).getBytes(StandardCharsets.US_ASCII),
+                parts[3].getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String sign(String payload, FileNode locked) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            mac.update(payload.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(String.valueOf(locked.getFolderPassword()).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Every node must share the key for a grant to work on any of them: unlock.grant.key, or one
+    // derived from jwt.secret.key. Without either, grants only work on the node that issued them.
+    private static byte[] keyBytes(String grantKey, String jwtKey) {
+        if (grantKey != null && !grantKey.isBlank()) {
+            return Base64.getDecoder().decode(grantKey.trim());
+        }
+        if (jwtKey != null && !jwtKey.isBlank()) {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(new SecretKeySpec(Base64.getDecoder().decode(jwtKey.trim()), ALGORITHM));
+                return mac.doFinal("unlock-grant".getBytes(StandardCharsets.UTF_8));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        log.warn("Neither unlock.grant.key nor jwt.secret.key is set; unlock grants only work on the node that issued them");
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        return random;
+    }
+}
@@ -0,0 +1,370 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.PresignedPartUrl;
+import com.cfs.backend.dto.StoredObject;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.UploadSession;
+import com.cfs.backend.entity.UploadSessionChunk;
+import com.cfs.backend.entity.UploadSessionStatus;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import com.cfs.backend.repo.UploadSessionChunkRepo;
+import com.cfs.backend.repo.UploadSessionRepo;
+import com.cfs.backend.repo.UserRepo;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.Part;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Resumable uploads. Authorization, lock and name checks happen in the controller when the
+// session is created; here the session's quota reservation, chunks and lifecycle are handled.
+// Direct sessions hand out presigned URLs instead of receiving chunks through this JVM.
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UploadSessionService {
+
+    private static final Set<UploadSessionStatus> UNFINISHED =
+            EnumSet.of(UploadSessionStatus.OPEN, UploadSessionStatus.COMMITTING);
+
+    private final UploadSessionRepo uploadSessionRepo;
+    private final UploadSessionChunkRepo uploadSessionChunkRepo;
+    private final FileNodeRepo fileNodeRepo;
+    private final UserRepo userRepo;
+    private final StorageService storageService;
+    private final FileTreeService fileTreeService;
+    private final TransactionTemplate transactionTemplate;
+    private final BlobService blobService;
+    private final QuotaService quotaService;
+
+    @Value("${upload.session.chunk-size:8388608}")
+    private long chunkSize;
+
+    @Value("${upload.session.ttl-hours:24}")
+    private long ttlHours;
+
+    @Value("${upload.session.max-expire-attempts:3}")
+    private int maxExpireAttempts;
+
+    // Reserves totalSize against the user's quota; returns null when it does not fit
+    @Transactional
+    public UploadSession create(User user, FileNode parent, String fileName, long totalSize, String mimeType,
+                                boolean direct, String sha256) {
+        if (!quotaService.reserve(user.getId(), totalSize)) {
+            return null;
+        }
+        User owner = userRepo.findById(user.getId())
+                .orElseThrow(() -> new RuntimeException("User not found"));
+
+        String storagePath = storageService.newStoragePath(user.getId(), fileName);
+        UploadSession session = new UploadSession();
+        session.setOwner(owner);
+        session.setParent(parent);
+        session.setFileName(fileName);
+        session.setMimeType(mimeType);
+        session.setTotalSize(totalSize);
+        session.setStoragePath(storagePath);
+        session.setDirectUpload(direct);
+        session.setSha256(sha256);
+        if (direct && !storageService.shouldUseMultipart(totalSize)) {
+            session.setChunkSize(totalSize);
+            session.setTotalChunks(1);
+        } else {
+            session.setChunkSize(chunkSize);
+            session.setTotalChunks((int) Math.max(1, (totalSize + chunkSize - 1) / chunkSize));
+            session.setS3UploadId(storageService.startMultipartUpload(storagePath, mimeType));
+        }
+        session.setCreatedAt(Instant.now());
+        session.setExpiresAt(session.getCreatedAt().plus(Duration.ofHours(ttlHours)));
+        return uploadSessionRepo.save(session);
+    }
+
+    public long expectedChunkLength(UploadSession session, int chunkNumber) {
+        long offset = (long) (chunkNumber - 1) * session.getChunkSize();
+        return Math.min(session.getChunkSize(), session.getTotalSize() - offset);
+    }
+
+    // Streams one chunk into its part; a chunk sent twice simply replaces the earlier ETag.
+    // No transaction is open while the bytes are in flight.
+    public void putChunk(UploadSession session, int chunkNumber, InputStream in, long length) {
+        String eTag = storageService.uploadPart(session.getStoragePath(), session.getS3UploadId(),
+                chunkNumber, in, length);
+        transactionTemplate.executeWithoutResult(status -> {
+            UploadSessionChunk chunk = uploadSessionChunkRepo.findBySessionAndChunkNumber(session, chunkNumber)
+                    .orElseGet(UploadSessionChunk::new);
+            chunk.setSession(session);
+            chunk.setChunkNumber(chunkNumber);
+            chunk.setETag(eTag);
+            chunk.setSize(length);
+            uploadSessionChunkRepo.save(chunk);
+
+            UploadSession current = uploadSessionRepo.findById(session.getId()).orElseThrow();
+            current.setExpiresAt(Instant.now().plus(Duration.ofHours(ttlHours)));
+        });
+    }
+
+    public List<Integer> receivedChunks(UploadSession session) {
+        if (session.isDirectUpload()) {
+            return session.getS3UploadId() == null
+                    ? List.of()
+                    : List.copyOf(storageService.listUploadedParts(session.getStoragePath(), session.getS3UploadId()).keySet());
+        }
+        return uploadSessionChunkRepo.findChunkNumbers(session);
+    }
+
+    // Fresh presigned URLs for a direct session: one PUT, or one per part
+    public List<PresignedPartUrl> uploadUrls(UploadSession session) {
+        if (session.getS3UploadId() == null) {
+            return List.of(storageService.presignUpload(session.getStoragePath(), session.getMimeType(),
+                    session.getTotalSize(), session.getSha256()));
+        }
+        List<PresignedPartUrl> urls = new ArrayList<>();
+        for (int partNumber = 1; partNumber <= session.getTotalChunks(); partNumber++) {
+            urls.add(storageService.presignUploadPart(session.getStoragePath(), session.getS3UploadId(),
+                    partNumber, expectedChunkLength(session, partNumber)));
+        }
+        return urls;
+    }
+
+    // Completes the object and creates its FileNode. Quota was charged at creation. The session is
+    // claimed as COMMITTING in a short transaction, so no row lock is held while S3 assembles the
+    // object; a second commit or an abort meanwhile finds it no longer OPEN. A failure before the
+    // object is final reopens the session for another try, a failure after that gives it up.
+    public FileNode commit(UploadSession open) {
+        UploadSession session = transactionTemplate.execute(status -> {
+            UploadSession claimed = lock(open, Set.of(UploadSessionStatus.OPEN));
+            claimed.setStatus(UploadSessionStatus.COMMITTING);
+            claimed.setExpiresAt(Instant.now().plus(Duration.ofHours(ttlHours)));
+            return uploadSessionRepo.save(claimed);
+        });
+        boolean assembled = false;
+        try {
+            if (session.getS3UploadId() != null) {
+                completeParts(session);
+                assembled = true;
+            }
+            boolean verified = session.isDirectUpload() && verifyDirect(session);
+            assembled = true;
+            return transactionTemplate.execute(status -> {
+                UploadSession committing = lock(session, Set.of(UploadSessionStatus.COMMITTING));
+                // The folder may have been trashed or claimed for purge since the session began
+                FileNode parent = fileNodeRepo.lockLive(committing.getParent().getId())
+                        .orElseThrow(() -> new IllegalStateException("Target folder no longer exists"));
+                StoredObject stored = verified
+                        ? blobService.register(committing.getSha256(), committing.getStoragePath(), committing.getTotalSize())
+                        : new StoredObject(committing.getStoragePath(), null);
+                return finish(committing, parent, stored);
+            });
+        } catch (RuntimeException e) {
+            if (assembled) {
+                discard(session);
+            } else {
+                reopen(session);
+            }
+            throw e;
+        }
+    }
+
+    // Assembles the multipart object from the chunks received here, or for a direct session from
+    // the parts S3 holds, once every part is there with the size the session expects
+    private void completeParts(UploadSession session) {
+        Map<Integer, String> eTags = new HashMap<>();
+        if (session.isDirectUpload()) {
+            Map<Integer, Part> parts = storageService.listUploadedParts(session.getStoragePath(), session.getS3UploadId());
+            if (parts.size() != session.getTotalChunks()) {
+                throw new IllegalStateException("Missing " + (session.getTotalChunks() - parts.size()) + " chunks");
+            }
+            for (Part part : parts.values()) {
+                if (part.size() != expectedChunkLength(session, part.partNumber())) {
+                    throw new IllegalStateException("Chunk " + part.partNumber() + " has the wrong size");
+                }
+                eTags.put(part.partNumber(), part.eTag());
+            }
+        } else {
+            List<UploadSessionChunk> chunks = uploadSessionChunkRepo.findBySessionOrderByChunkNumber(session);
+            if (chunks.size() != session.getTotalChunks()) {
+                throw new IllegalStateException("Missing " + (session.getTotalChunks() - chunks.size()) + " chunks");
+            }
+            chunks.forEach(chunk -> eTags.put(chunk.getChunkNumber(), chunk.getETag()));
+        }
+        storageService.completeMultipartUpload(session.getStoragePath(), session.getS3UploadId(), eTags);
+    }
+
+    // The client wrote the object itself, so nothing is trusted until S3 confirms it. Returns
+    // whether the content was checked against the declared hash.
+    private boolean verifyDirect(UploadSession session) {
+        HeadObjectResponse head = storageService.headObject(session.getStoragePath());
+        if (head == null) {
+            throw new IllegalStateException("File has not been uploaded");
+        }
+        if (head.contentLength() != session.getTotalSize()) {
+            throw new IllegalStateException("Uploaded " + head.contentLength() + " bytes, expected " + session.getTotalSize());
+        }
+        // S3 only keeps a whole-object SHA-256 for single PUTs; multipart objects get size checks
+        boolean verified = session.getSha256() != null && session.getS3UploadId() == null;
+        if (verified && !StorageService.toBase64(session.getSha256()).equals(head.checksumSHA256())) {
+            throw new IllegalStateException("Checksum mismatch");
+        }
+        return verified;
+    }
+
+    private FileNode finish(UploadSession session, FileNode parent, StoredObject stored) {
+        FileNode newFile = new FileNode();
+        newFile.setFileName(session.getFileName());
+        newFile.setIsDirectory(false);
+        newFile.setFileSize(session.getTotalSize());
+        newFile.setMimeType(session.getMimeType());
+        newFile.setStoragePath(stored.storagePath());
+        newFile.setContentHash(stored.contentHash());
+        newFile.setOwner(session.getOwner());
+        newFile.setDeleted(false);
+        newFile.setIsLocked(false);
+        FileNode saved = fileTreeService.attach(newFile, parent);
+
+        uploadSessionChunkRepo.deleteBySession(session);
+        session.setStatus(UploadSessionStatus.COMMITTED);
+        uploadSessionRepo.save(session);
+        return saved;
+    }
+
+    // The object was not assembled, so the client may fix what is missing and commit again
+    private void reopen(UploadSession session) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                UploadSession committing = lock(session, Set.of(UploadSessionStatus.COMMITTING));
+                committing.setStatus(UploadSessionStatus.OPEN);
+                uploadSessionRepo.save(committing);
+            });
+        } catch (RuntimeException e) {
+            log.warn("Could not reopen upload session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    // The object is final but could not be committed, so the session ends. Should that fail too,
+    // it stays COMMITTING until expiry cleans it up.
+    private void discard(UploadSession session) {
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    end(lock(session, Set.of(UploadSessionStatus.COMMITTING)), UploadSessionStatus.ABORTED));
+        } catch (RuntimeException e) {
+            log.warn("Could not discard upload session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    @Transactional
+    public void abort(UploadSession open, UploadSessionStatus finalStatus) {
+        end(lock(open, Set.of(UploadSessionStatus.OPEN)), finalStatus);
+    }
+
+    // Drops what was uploaded, then closes the session. One caught while committing may already
+    // have its object assembled, so that goes as well.
+    private void end(UploadSession session, UploadSessionStatus finalStatus) {
+        if (session.getS3UploadId() != null) {
+            storageService.abortMultipartUpload(session.getStoragePath(), session.getS3UploadId());
+        }
+        // A direct client may have finished its PUT (or completed parts) without committing
+        if (session.isDirectUpload() || session.getStatus() == UploadSessionStatus.COMMITTING) {
+            storageService.deleteFile(session.getStoragePath());
+        }
+        close(session, finalStatus);
+    }
+
+    private void close(UploadSession session, UploadSessionStatus finalStatus) {
+        uploadSessionChunkRepo.deleteBySession(session);
+        quotaService.release(session.getOwner().getId(), session.getTotalSize());
+        session.setStatus(finalStatus);
+        uploadSessionRepo.save(session);
+    }
+
+    // The session row, locked for the rest of the transaction, if its status is one of expected.
+    // A concurrent commit or abort of the same session waits here and then finds it moved on. The
+    // status is read again under the lock, since an entity already in the persistence context is
+    // not refreshed by the locking query.
+    private UploadSession lock(UploadSession session, Set<UploadSessionStatus> expected) {
+        UploadSession locked = uploadSessionRepo.lockById(session.getId())
+                .orElseThrow(() -> new IllegalStateException("Upload session not found"));
+        UploadSessionStatus status = uploadSessionRepo.findStatus(session.getId());
+        if (!expected.contains(status)) {
+            throw new IllegalStateException("Upload session is " + status);
+        }
+        locked.setStatus(status);
+        return locked;
+    }
+
+    // Unfinished sessions targeting folders that are about to be purged: their parts and quota go
+    // first. The purger then deletes the session rows together with the folders.
+    public void abortInFolders(List<Long> folderIds) {
+        for (UploadSession session : uploadSessionRepo.findByParentIds(folderIds, UNFINISHED)) {
+            transactionTemplate.executeWithoutResult(status -> end(lock(session, UNFINISHED), UploadSessionStatus.ABORTED));
+        }
+    }
+
+    // Abandoned sessions give their reserved quota back and drop their uploaded parts; finished
+    // ones past their expiry are deleted. A session that fails to clean up is skipped until the
+    // next sweep, and after max-expire-attempts it is expired with its storage left behind.
+    @Scheduled(fixedDelayString = "${upload.session.sweep-interval-ms:600000}")
+    public void expireAbandoned() {
+        Instant now = Instant.now();
+        transactionTemplate.executeWithoutResult(status -> {
+            uploadSessionChunkRepo.deleteFinished(UNFINISHED, now);
+            uploadSessionRepo.deleteFinished(UNFINISHED, now);
+        });
+        Long afterId = 0L;
+        while (true) {
+            List<UploadSession> expired = uploadSessionRepo.findExpired(UNFINISHED, now, afterId, PageRequest.of(0, 100));
+            if (expired.isEmpty()) {
+                break;
+            }
+            afterId = expired.get(expired.size() - 1).getId();
+            for (UploadSession session : expired) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> {
+                        UploadSession locked = lock(session, UNFINISHED);
+                        // Renewed by a chunk or a commit since the page was read
+                        if (locked.getExpiresAt().isBefore(now)) {
+                            end(locked, UploadSessionStatus.EXPIRED);
+                        }
+                    });
+                } catch (Exception e) {
+                    expireFailed(session, e);
+                }
+            }
+        }
+    }
+
+    private void expireFailed(UploadSession session, Exception cause) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                UploadSession locked = lock(session, UNFINISHED);
+                locked.setExpireAttempts(locked.getExpireAttempts() + 1);
+                if (locked.getExpireAttempts() < maxExpireAttempts) {
+                    log.warn("Could not expire upload session {} (attempt {}): {}",
+                            locked.getId(), locked.getExpireAttempts(), cause.getMessage());
+                    uploadSessionRepo.save(locked);
+                    return;
+                }
+                log.error("Expiring upload session {} after {} failed attempts; {} may be left in storage: {}",
+                        locked.getId(), locked.getExpireAttempts(), locked.getStoragePath(), cause.getMessage());
+                close(locked, UploadSessionStatus.EXPIRED);
+            });
+        } catch (RuntimeException e) {
+            log.warn("Could not expire upload session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.cfs.backend.cache;
+
+import com.cfs.backend.entity.PermissionType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Eviction only reaches this instance, so expiry is what bounds staleness across instances
+class PermissionCacheTest {
+
+    private static final PermissionCache.Entry EDIT = new PermissionCache.Entry("/1/5/", PermissionType.EDIT);
+    private static final PermissionCache.Entry DENIED = new PermissionCache.Entry("/1/5/", null);
+
+    @Test
+    void entriesAreServedWithinTheirTtl() {
+        PermissionCache cache = cache(60_000, 60_000);
+        cache.put(1L, 5L, EDIT, cache.generation());
+        cache.put(2L, 5L, DENIED, cache.generation());
+
+        assertThat(cache.get(1L, 5L)).isEqualTo(EDIT);
+        assertThat(cache.get(2L, 5L)).isEqualTo(DENIED);
+    }
+
+    @Test
+    void expiredEntriesAreDropped() {
+        PermissionCache cache = cache(0, 0);
+        cache.put(1L, 5L, EDIT, cache.generation());
+
+        assertThat(cache.get(1L, 5L)).isNull();
+    }
+
+    // A share granted through another instance has to show up soon, so denials expire first
+    @Test
+    void denialsExpireBeforeGrants() {
+        PermissionCache cache = cache(60_000, 0);
+        cache.put(1L, 5L, EDIT, cache.generation());
+        cache.put(2L, 5L, DENIED, cache.generation());
+
+        assertThat(cache.get(1L, 5L)).isEqualTo(EDIT);
+        assertThat(cache.get(2L, 5L)).isNull();
+    }
+
+    @Test
+    void denialTtlNeverOutlivesTheTtl() {
+        PermissionCache cache = cache(0, 60_000);
+        cache.put(2L, 5L, DENIED, cache.generation());
+
+        assertThat(cache.get(2L, 5L)).isNull();
+    }
+
+    @Test
+    void lookupThatRacedAnEvictionIsNotStored() {
+        PermissionCache cache = cache(60_000, 60_000);
+        long startedAt = cache.generation();
+        cache.evictSubtree("/1/");
+        cache.put(1L, 5L, EDIT, startedAt);
+
+        assertThat(cache.get(1L, 5L)).isNull();
+    }
+
+    @Test
+    void subtreeEvictionDropsOnlyThatSubtree() {
+        PermissionCache cache = cache(60_000, 60_000);
+        cache.put(1L, 5L, EDIT, cache.generation());
+        cache.put(1L, 9L, new PermissionCache.Entry("/1/9/", PermissionType.VIEW), cache.generation());
+
+        cache.evictSubtreeForUser(1L, "/1/5/");
+
+        assertThat(cache.get(1L, 5L)).isNull();
+        assertThat(cache.get(1L, 9L)).isNotNull();
+    }
+
+    private static PermissionCache cache(long ttlMs, long denialTtlMs) {
+        return new PermissionCache(100, ttlMs, denialTtlMs, new SimpleMeterRegistry());
+    }
+}
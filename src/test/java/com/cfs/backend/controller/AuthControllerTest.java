@@ -0,0 +1,49 @@
+package com.cfs.backend.controller;
+
+import com.cfs.backend.dto.CurrentUserResponse;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.UserRepo;
+import com.cfs.backend.security.SecurityUser;
+import com.cfs.backend.services.FileTreeService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// The principal is a snapshot without usage or root folder; /me must read them from the row
+class AuthControllerTest {
+
+    private final UserRepo userRepo = mock(UserRepo.class);
+    private final AuthController authController =
+            new AuthController(userRepo, mock(PasswordEncoder.class), mock(FileTreeService.class));
+
+    @Test
+    void meReportsLiveUsageAndRootFolder() {
+        FileNode root = new FileNode();
+        root.setId(7L);
+        User row = new User();
+        row.setId(1L);
+        row.setUsername("a@b.c");
+        row.setPassword("hash");
+        row.setStorageAlloted(1_000L);
+        row.setStorageUsed(123L);
+        row.setRootFolder(root);
+        when(userRepo.findById(1L)).thenReturn(Optional.of(row));
+
+        ResponseEntity<?> response = authController.getLoggedInUser(new SecurityUser(row));
+
+        assertThat(response.getStatusCode().value()).isEqualTo(200);
+        assertThat(response.getBody()).isEqualTo(new CurrentUserResponse(1L, "a@b.c", 1_000L, 123L, 7L));
+    }
+
+    @Test
+    void meWithoutPrincipal() {
+        assertThat(authController.getLoggedInUser(null).getStatusCode().value()).isEqualTo(400);
+    }
+}
@@ -0,0 +1,99 @@
+package com.cfs.backend.security;
+
+import com.cfs.backend.dto.TokenResponse;
+import com.cfs.backend.entity.User;
+import com.nimbusds.jose.jwk.source.ImmutableSecret;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.NimbusJwtEncoder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// No Spring context: the service is built straight from its properties
+class TokenServiceTest {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+    private static final String OTHER_KEY = Base64.getEncoder().encodeToString("a different key of 32 bytes, ok!".getBytes());
+    private static final long HOUR_MS = 3_600_000L;
+
+    private final SecurityUser securityUser;
+
+    TokenServiceTest() {
+        User user = new User();
+        user.setId(42L);
+        user.setUsername("alice@example.com");
+        user.setPassword("hash");
+        securityUser = new SecurityUser(user);
+    }
+
+    @Test
+    void issuedTokenVerifiesWithTheUserInIt() {
+        TokenService tokens = new TokenService(KEY, HOUR_MS, true);
+
+        TokenResponse issued = tokens.issue(securityUser);
+        Jwt jwt = tokens.decoder().decode(issued.token());
+
+        assertThat(jwt.getSubject()).isEqualTo("42");
+        assertThat(jwt.getClaimAsString("username")).isEqualTo("alice@example.com");
+        assertThat(jwt.getExpiresAt()).isEqualTo(issued.expiresAt().truncatedTo(ChronoUnit.SECONDS));
+        assertThat(jwt.getClaims()).doesNotContainKey("password");
+    }
+
+    // Any node with the same key verifies it; one with another key does not
+    @Test
+    void onlyTheSharedKeyVerifies() {
+        String token = new TokenService(KEY, HOUR_MS, true).issue(securityUser).token();
+
+        assertThat(new TokenService(KEY, HOUR_MS, true).decoder().decode(token).getSubject()).isEqualTo("42");
+        assertThatThrownBy(() -> new TokenService(OTHER_KEY, HOUR_MS, true).decoder().decode(token))
+                .isInstanceOf(JwtException.class);
+    }
+
+    @Test
+    void alteredClaimsAreRejected() {
+        TokenService tokens = new TokenService(KEY, HOUR_MS, true);
+        String[] parts = tokens.issue(securityUser).token().split("\\.");
+        String forgedClaims = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                new String(Base64.getUrlDecoder().decode(parts[1])).replace("\"42\"", "\"1\"").getBytes());
+
+        assertThatThrownBy(() -> tokens.decoder().decode(parts[0] + "." + forgedClaims + "." + parts[2]))
+                .isInstanceOf(JwtException.class);
+    }
+
+    // Signed with the right key but an hour old, well past the decoder's clock-skew allowance
+    @Test
+    void expiredTokenIsRejected() {
+        TokenService tokens = new TokenService(KEY, HOUR_MS, true);
+        Instant issuedAt = Instant.now().minus(2, ChronoUnit.HOURS);
+        JwtClaimsSet claims = JwtClaimsSet.builder()
+                .subject("42")
+                .issuedAt(issuedAt)
+                .expiresAt(issuedAt.plusMillis(HOUR_MS))
+                .build();
+        String token = new NimbusJwtEncoder(new ImmutableSecret<>(new SecretKeySpec(Base64.getDecoder().decode(KEY), "HmacSHA256")))
+                .encode(JwtEncoderParameters.from(JwsHeader.with(MacAlgorithm.HS256).build(), claims))
+                .getTokenValue();
+
+        assertThatThrownBy(() -> tokens.decoder().decode(token)).isInstanceOf(JwtException.class);
+    }
+
+    @Test
+    void statelessModeNeedsAKeyOfAtLeast32Bytes() {
+        String shortKey = Base64.getEncoder().encodeToString(new byte[16]);
+
+        assertThatThrownBy(() -> new TokenService("", HOUR_MS, true)).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> new TokenService(shortKey, HOUR_MS, false)).isInstanceOf(IllegalStateException.class);
+        assertThat(new TokenService("", HOUR_MS, false).decoder()).isNotNull();
+    }
+}
@@ -0,0 +1,139 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.cache.PermissionCache;
+import com.cfs.backend.dto.AncestorAccess;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.PermissionType;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// No database: the repo answers the ancestor query with fixed rows, one per node on the path,
+// and the tree helpers are the real ones
+class AccessServiceTest {
+
+    private final FileNodeRepo fileNodeRepo = mock(FileNodeRepo.class);
+    private final FileTreeService fileTreeService = new FileTreeService(fileNodeRepo, null, null, null, null);
+    private final AccessService access = new AccessService(fileNodeRepo, fileTreeService,
+            new PermissionCache(100, 60_000, 60_000, new SimpleMeterRegistry()));
+    private final User alice = user(1L);
+    private final User bob = user(2L);
+
+    // Alice's tree /1/5/7/, with a file 9 in folder 7
+    private final FileNode file = node(9L, "/1/5/7/9/", alice);
+
+    @Test
+    void ownerAlwaysHasEdit() {
+        assertThat(access.resolvePermission(alice, file)).isEqualTo(PermissionType.EDIT);
+        verify(fileNodeRepo, never()).findAncestorAccess(anyList(), any());
+    }
+
+    @Test
+    void nearestShareOnThePathDecides() {
+        givenAncestors(row(1L, alice, PermissionType.EDIT), row(5L, alice, null),
+                row(7L, alice, PermissionType.VIEW), row(9L, alice, null));
+
+        assertThat(access.resolvePermission(bob, file)).isEqualTo(PermissionType.VIEW);
+    }
+
+    @Test
+    void ancestorSharesReachDescendants() {
+        givenAncestors(row(1L, alice, null), row(5L, alice, PermissionType.EDIT),
+                row(7L, alice, null), row(9L, alice, null));
+
+        assertThat(access.hasAccess(bob, file, PermissionType.EDIT)).isTrue();
+    }
+
+    // Bob's own folder inside a tree shared with him only as VIEW
+    @Test
+    void owningANodeOnThePathGrantsEditBelowIt() {
+        FileNode inBobsFolder = node(9L, "/1/5/7/9/", alice);
+        givenAncestors(row(1L, alice, PermissionType.VIEW), row(5L, alice, null),
+                row(7L, bob, null), row(9L, alice, null));
+
+        assertThat(access.resolvePermission(bob, inBobsFolder)).isEqualTo(PermissionType.EDIT);
+    }
+
+    @Test
+    void noShareOnThePathMeansNoAccess() {
+        givenAncestors(row(1L, alice, null), row(5L, alice, null), row(7L, alice, null), row(9L, alice, null));
+
+        assertThat(access.resolvePermission(bob, file)).isNull();
+        assertThat(access.hasAccess(bob, file, PermissionType.VIEW)).isFalse();
+    }
+
+    @Test
+    void onePathQueryAskedForEveryNodeOnThePath() {
+        givenAncestors();
+
+        access.resolvePermission(bob, file);
+
+        ArgumentCaptor<List<Long>> ids = ArgumentCaptor.captor();
+        verify(fileNodeRepo).findAncestorAccess(ids.capture(), eq(bob));
+        assertThat(ids.getValue()).containsExactly(1L, 5L, 7L, 9L);
+    }
+
+    @Test
+    void manyNodesShareOneAncestorQuery() {
+        FileNode sibling = node(10L, "/1/5/7/10/", alice);
+        FileNode elsewhere = node(20L, "/1/20/", alice);
+        givenAncestors(row(1L, alice, null), row(5L, alice, null), row(7L, alice, PermissionType.VIEW),
+                row(9L, alice, null), row(10L, alice, PermissionType.EDIT), row(20L, alice, null));
+
+        Map<Long, PermissionType> resolved = access.resolvePermissions(bob, List.of(file, sibling, elsewhere));
+
+        assertThat(resolved).containsEntry(9L, PermissionType.VIEW)
+                .containsEntry(10L, PermissionType.EDIT)
+                .containsEntry(20L, null);
+        verify(fileNodeRepo, times(1)).findAncestorAccess(anyList(), eq(bob));
+    }
+
+    @Test
+    void nearestLockedNodeOnThePathIsFound() {
+        FileNode outer = node(5L, "/1/5/", alice);
+        FileNode inner = node(7L, "/1/5/7/", alice);
+        when(fileNodeRepo.findLockedAmong(anyList())).thenReturn(List.of(outer, inner));
+
+        assertThat(access.findFirstLocked(file)).isSameAs(inner);
+        assertThat(access.findFirstLockedAncestor(file)).isSameAs(inner);
+        verify(fileNodeRepo).findLockedAmong(List.of(1L, 5L, 7L, 9L));
+        verify(fileNodeRepo).findLockedAmong(List.of(1L, 5L, 7L));
+    }
+
+    private void givenAncestors(AncestorAccess... rows) {
+        when(fileNodeRepo.findAncestorAccess(anyList(), any())).thenReturn(List.of(rows));
+    }
+
+    private static AncestorAccess row(Long nodeId, User owner, PermissionType shared) {
+        return new AncestorAccess(nodeId, owner.getId(), shared);
+    }
+
+    private static FileNode node(Long id, String path, User owner) {
+        FileNode node = new FileNode();
+        node.setId(id);
+        node.setPath(path);
+        node.setOwner(owner);
+        return node;
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+}
@@ -0,0 +1,162 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.StoredObject;
+import com.cfs.backend.entity.ContentBlob;
+import com.cfs.backend.repo.ContentBlobRepo;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+// No database or bucket: the transaction template runs its callback in place, and the async
+// prepare pool is whatever each test makes of it
+class BlobServiceTest {
+
+    private final ContentBlobRepo contentBlobRepo = mock(ContentBlobRepo.class);
+    private final StorageService storageService = mock(StorageService.class);
+    private final AsyncStorageService asyncStorageService = mock(AsyncStorageService.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    private final BlobService blobs =
+            new BlobService(contentBlobRepo, storageService, asyncStorageService, transactionTemplate);
+    private final MockMultipartFile file = new MockMultipartFile("file", "a.txt", "text/plain", "hello".getBytes());
+
+    BlobServiceTest() {
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(storageService.newStoragePath(anyLong(), anyString())).thenReturn("user-1/new-a.txt");
+        when(asyncStorageService.upload(anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    // The request thread only hands the file over; hashing and the lookup wait for the pool
+    @Test
+    void asyncUploadLeavesHashingAndLookupToThePool() {
+        when(asyncStorageService.prepare(any())).thenReturn(new CompletableFuture<>());
+
+        CompletableFuture<StoredObject> stored = blobs.storeUploadAsync(file, 1L);
+
+        assertThat(stored).isNotDone();
+        verifyNoInteractions(contentBlobRepo, storageService);
+    }
+
+    @Test
+    void duplicateContentIsNotWrittenAgain() {
+        runPrepareInPlace();
+        when(contentBlobRepo.acquireExisting(anyString())).thenReturn(1);
+        when(contentBlobRepo.findStoragePath(anyString())).thenReturn("user-2/existing");
+
+        assertThat(blobs.storeUploadAsync(file, 1L).join().storagePath()).isEqualTo("user-2/existing");
+        verify(asyncStorageService, never()).upload(anyString(), any());
+    }
+
+    @Test
+    void objectIsDeletedWhenItsBlobCannotBeRegistered() {
+        runPrepareInPlace();
+        when(contentBlobRepo.insertOrAcquire(anyString(), eq("user-1/new-a.txt"), anyLong(), any()))
+                .thenThrow(new IllegalStateException("database down"));
+
+        assertThatThrownBy(() -> blobs.storeUploadAsync(file, 1L).join())
+                .isInstanceOf(CompletionException.class)
+                .hasRootCauseMessage("database down");
+        verify(storageService).deleteFile("user-1/new-a.txt");
+    }
+
+    // Another upload of the same content won: ours goes, the winner's object stays
+    @Test
+    void losingCopyIsDeleted() {
+        runPrepareInPlace();
+        when(contentBlobRepo.findStoragePath(anyString())).thenReturn("user-2/winner");
+
+        assertThat(blobs.storeUploadAsync(file, 1L).join().storagePath()).isEqualTo("user-2/winner");
+        verify(storageService).deleteFile("user-1/new-a.txt");
+        verify(storageService, never()).deleteFile("user-2/winner");
+    }
+
+    @Test
+    void releasingWhatWasAcquiredLeavesCountsAsTheyWere() {
+        Map<String, Long> refCounts = blobTable(Map.of("a", 1L, "b", 2L));
+
+        blobs.acquireAll(Map.of("a", 3L, "b", 1L));
+        assertThat(refCounts).containsEntry("a", 4L).containsEntry("b", 3L);
+
+        assertThat(blobs.release(Map.of("a", 3L, "b", 1L))).isEmpty();
+        assertThat(refCounts).containsEntry("a", 1L).containsEntry("b", 2L);
+    }
+
+    // Only blobs whose last reference went are freed, and their rows go with them
+    @Test
+    void releasingTheLastReferenceFreesTheObject() {
+        Map<String, Long> refCounts = blobTable(Map.of("a", 2L, "b", 2L));
+
+        assertThat(blobs.release(Map.of("a", 2L, "b", 1L))).containsExactly("objects/a");
+        assertThat(refCounts).doesNotContainKey("a").containsEntry("b", 1L);
+    }
+
+    @Test
+    void acquiringAMissingBlobFails() {
+        blobTable(Map.of("a", 1L));
+
+        assertThatThrownBy(() -> blobs.acquireAll(Map.of("a", 1L, "gone", 1L)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Blob gone no longer exists");
+    }
+
+    @Test
+    void discardGivesBackOneReference() {
+        Map<String, Long> refCounts = blobTable(Map.of("a", 2L, "b", 1L));
+
+        blobs.discard(new StoredObject("objects/a", "a"));
+        blobs.discard(new StoredObject("objects/b", "b"));
+
+        assertThat(refCounts).containsEntry("a", 1L).doesNotContainKey("b");
+        verify(storageService).deleteFile("objects/b");
+        verify(storageService, never()).deleteFile("objects/a");
+    }
+
+    // A content_blobs table in memory, hash -> refCount, with each object stored at objects/<hash>
+    private Map<String, Long> blobTable(Map<String, Long> initial) {
+        Map<String, Long> refCounts = new HashMap<>(initial);
+        when(contentBlobRepo.findLive(any())).thenAnswer(invocation -> invocation.<List<String>>getArgument(0).stream()
+                .filter(refCounts::containsKey)
+                .map(sha256 -> new ContentBlob(sha256, "objects/" + sha256, 5L, refCounts.get(sha256), Instant.EPOCH))
+                .toList());
+        when(contentBlobRepo.acquireExisting(anyString(), anyLong())).thenAnswer(invocation ->
+                refCounts.computeIfPresent(invocation.getArgument(0), (sha256, count) -> count + invocation.<Long>getArgument(1)) == null ? 0 : 1);
+        when(contentBlobRepo.release(anyString(), anyLong())).thenAnswer(invocation ->
+                refCounts.computeIfPresent(invocation.getArgument(0), (sha256, count) -> count - invocation.<Long>getArgument(1)) == null ? 0 : 1);
+        when(contentBlobRepo.findUnreferenced(anyList())).thenAnswer(invocation -> invocation.<List<String>>getArgument(0).stream()
+                .filter(sha256 -> refCounts.getOrDefault(sha256, 1L) <= 0)
+                .map(sha256 -> new ContentBlob(sha256, "objects/" + sha256, 5L, 0L, Instant.EPOCH))
+                .toList());
+        when(contentBlobRepo.deleteUnreferenced(anyList())).thenAnswer(invocation -> {
+            List<String> hashes = invocation.getArgument(0);
+            return (int) hashes.stream().filter(sha256 -> refCounts.remove(sha256, 0L)).count();
+        });
+        return refCounts;
+    }
+
+    private void runPrepareInPlace() {
+        when(asyncStorageService.prepare(any())).thenAnswer(invocation ->
+                CompletableFuture.completedFuture(invocation.<Supplier<?>>getArgument(0).get()));
+    }
+}
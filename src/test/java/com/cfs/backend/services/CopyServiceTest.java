@@ -0,0 +1,167 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.SubtreeTotals;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.PermissionType;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// No database or bucket: transactions run in place and saving a page hands out ids. The source
+// is folder 5 holding two plain objects (6, 7) and one content-addressed file (8), 10 bytes each,
+// all on one page.
+class CopyServiceTest {
+
+    private final FileNodeRepo fileNodeRepo = mock(FileNodeRepo.class);
+    private final StorageService storageService = mock(StorageService.class);
+    private final BlobService blobService = mock(BlobService.class);
+    private final AccessService accessService = mock(AccessService.class);
+    private final FileTreeService fileTreeService = mock(FileTreeService.class);
+    private final QuotaService quotaService = mock(QuotaService.class);
+    private final PurgeService purgeService = mock(PurgeService.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    private final CopyService copies = new CopyService(fileNodeRepo, storageService, blobService, accessService,
+            fileTreeService, quotaService, mock(UnlockGrantService.class), purgeService, transactionTemplate);
+    private final User user = user(1L);
+    private final AtomicLong ids = new AtomicLong(100);
+    private final List<FileNode> saved = new ArrayList<>();
+
+    private final FileNode source = node(5L, "/1/5/", true, null, null);
+    private final FileNode target = node(9L, "/1/9/", true, null, null);
+    private final List<FileNode> page = List.of(node(6L, "/1/5/6/", false, "objects/6", null),
+            node(7L, "/1/5/7/", false, "objects/7", null), node(8L, "/1/5/8/", false, "objects/8", "h8"));
+
+    CopyServiceTest() {
+        ReflectionTestUtils.setField(copies, "pageSize", 500);
+        ReflectionTestUtils.setField(copies, "threads", 2);
+        copies.start();
+        when(quotaService.reserve(1L, 30L)).thenReturn(true);
+        when(fileNodeRepo.sumLiveSubtreeByOwner("/1/5/")).thenReturn(List.of(new SubtreeTotals(1L, 30L, 4L)));
+        when(fileNodeRepo.findSubtreePage(eq("/1/5/"), anyString(), any())).thenReturn(page, List.of());
+        when(fileNodeRepo.findById(anyLong())).thenAnswer(invocation ->
+                saved.stream().filter(node -> node.getId().equals(invocation.getArgument(0))).findFirst());
+        when(accessService.resolvePermissions(user, page))
+                .thenReturn(Map.of(6L, PermissionType.VIEW, 7L, PermissionType.VIEW, 8L, PermissionType.VIEW));
+        when(accessService.hasSufficientPermission(any(), any())).thenCallRealMethod();
+        when(fileTreeService.ancestorIds(any())).thenAnswer(invocation ->
+                new FileTreeService(null, null, null, null, null).ancestorIds(invocation.getArgument(0)));
+        when(fileTreeService.attachAll(anyList())).thenAnswer(invocation -> {
+            List<FileNode> nodes = invocation.getArgument(0);
+            nodes.forEach(node -> node.setId(ids.getAndIncrement()));
+            saved.addAll(nodes);
+            return nodes;
+        });
+        when(storageService.newStoragePath(eq(1L), anyString())).thenAnswer(invocation -> "copies/" + invocation.getArgument(1));
+        when(storageService.deleteFiles(anyList())).thenReturn(List.of());
+        doAnswer(invocation -> {
+            invocation.<Consumer<TransactionStatus>>getArgument(0).accept(null);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+    }
+
+    @AfterEach
+    void stop() {
+        copies.stop();
+    }
+
+    // The first page (the root folder) is saved; the second fails on one object
+    @Test
+    void failedObjectCopyAbandonsTheWholeCopy() {
+        doThrow(new IllegalStateException("copy failed")).when(storageService)
+                .copyObject(eq("objects/7"), anyString(), any(), anyLong());
+
+        assertThatThrownBy(() -> copies.copy(user, source, target, null, null)).hasMessage("copy failed");
+
+        verify(storageService).deleteFiles(List.of("copies/6.bin"));
+        verify(quotaService).release(1L, 30L);
+        verify(purgeService).schedule(saved.get(0), user);
+        verify(blobService, never()).acquireAll(Map.of("h8", 1L));
+    }
+
+    @Test
+    void pageThatCannotBeSavedDeletesItsObjects() {
+        when(blobService.acquireAll(Map.of("h8", 1L))).thenThrow(new IllegalStateException("Blob h8 no longer exists"));
+
+        assertThatThrownBy(() -> copies.copy(user, source, target, null, null))
+                .hasMessage("Blob h8 no longer exists");
+
+        verify(storageService).deleteFiles(argThatContainsOnly("copies/6.bin", "copies/7.bin"));
+        verify(quotaService).release(1L, 30L);
+        verify(purgeService).schedule(saved.get(0), user);
+    }
+
+    // Saving the root rolled back: it has an id but no row, so there is nothing to purge
+    @Test
+    void rootThatWasNeverSavedIsNotPurged() {
+        when(fileTreeService.attachAll(anyList())).thenAnswer(invocation -> {
+            invocation.<List<FileNode>>getArgument(0).forEach(node -> node.setId(ids.getAndIncrement()));
+            throw new IllegalStateException("rolled back");
+        });
+
+        assertThatThrownBy(() -> copies.copy(user, source, target, null, null)).hasMessage("rolled back");
+
+        verify(quotaService).release(1L, 30L);
+        verify(purgeService, never()).schedule(any(), any());
+        verify(blobService, never()).acquireAll(Map.of("h8", 1L));
+    }
+
+    @Test
+    void quotaIsReservedBeforeAnythingIsCopied() {
+        when(quotaService.reserve(1L, 30L)).thenReturn(false);
+
+        assertThatThrownBy(() -> copies.copy(user, source, target, null, null))
+                .isInstanceOf(IllegalStateException.class);
+
+        verify(transactionTemplate, never()).executeWithoutResult(any());
+        verify(quotaService, never()).release(anyLong(), anyLong());
+        verify(blobService, never()).acquireAll(anyMap());
+    }
+
+    private static List<String> argThatContainsOnly(String... paths) {
+        return argThat(list -> list.size() == paths.length && list.containsAll(List.of(paths)));
+    }
+
+    private FileNode node(Long id, String path, boolean directory, String storagePath, String contentHash) {
+        FileNode node = new FileNode();
+        node.setId(id);
+        node.setPath(path);
+        node.setFileName(directory ? "folder-" + id : id + ".bin");
+        node.setIsDirectory(directory);
+        node.setFileSize(directory ? null : 10L);
+        node.setStoragePath(storagePath);
+        node.setContentHash(contentHash);
+        node.setOwner(user);
+        return node;
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+}
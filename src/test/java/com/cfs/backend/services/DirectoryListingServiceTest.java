@@ -0,0 +1,128 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.FileNodeSummary;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.repo.FileNodeRepo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// No database: the repo hands back a fixed window, and the test reads the keyset position the
+// next request would seek from
+class DirectoryListingServiceTest {
+
+    private static final Instant CREATED = Instant.parse("2024-05-01T10:15:30.123456Z");
+
+    private final FileNodeRepo fileNodeRepo = mock(FileNodeRepo.class);
+    private final DirectoryListingService listing =
+            new DirectoryListingService(fileNodeRepo, new ObjectMapper().registerModule(new JavaTimeModule()));
+    private final FileNode folder = new FileNode();
+
+    DirectoryListingServiceTest() {
+        ReflectionTestUtils.setField(listing, "maxPageSize", 50);
+    }
+
+    @Test
+    void cursorCarriesTheLastRowsKeysForEachSort() {
+        FileNodeSummary last = summary(7L, "report.pdf", 2048L);
+
+        assertThat(nextPosition("name", last)).containsExactly(Map.entry("fileName", "report.pdf"), Map.entry("id", 7L));
+        assertThat(nextPosition("size", last)).containsExactly(Map.entry("fileSize", 2048L), Map.entry("id", 7L));
+        assertThat(nextPosition("date", last)).containsExactly(Map.entry("createdAt", CREATED), Map.entry("id", 7L));
+    }
+
+    // The cursor keeps its own sort, whatever the next request asks for
+    @Test
+    void cursorOverridesTheRequestedSort() {
+        givenWindow(true, summary(1L, "a", 1L), summary(2L, "b", 5L));
+        String cursor = listing.list(folder, "size", true, null, 2).nextCursor();
+
+        givenWindow(false);
+        listing.list(folder, "name", false, cursor, 2);
+
+        ArgumentCaptor<Sort> sort = ArgumentCaptor.forClass(Sort.class);
+        verify(fileNodeRepo, times(2))
+                .findByParentAndIsDeletedFalseAndPurgeJobIdIsNull(eq(folder), any(), sort.capture(), any());
+        assertThat(sort.getValue()).isEqualTo(Sort.by(Sort.Direction.DESC, "fileSize", "id"));
+    }
+
+    // A null key would seek on "> NULL" and end the listing early
+    @Test
+    void nullSizeSeeksFromZero() {
+        assertThat(nextPosition("size", summary(3L, "imported", null)))
+                .containsExactly(Map.entry("fileSize", 0L), Map.entry("id", 3L));
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        givenWindow(false, summary(1L, "a", 1L));
+
+        assertThat(listing.list(folder, "name", false, null, 10).nextCursor()).isNull();
+    }
+
+    @Test
+    void pageSizeIsClamped() {
+        givenWindow(false);
+        listing.list(folder, "name", false, null, 10_000);
+        listing.list(folder, "name", false, null, 0);
+
+        ArgumentCaptor<Limit> limit = ArgumentCaptor.forClass(Limit.class);
+        verify(fileNodeRepo, times(2))
+                .findByParentAndIsDeletedFalseAndPurgeJobIdIsNull(eq(folder), any(), any(), limit.capture());
+        assertThat(limit.getAllValues()).extracting(Limit::max).containsExactly(50, 1);
+    }
+
+    @Test
+    void badCursorOrSortIsRejected() {
+        assertThatThrownBy(() -> listing.list(folder, "name", false, "not-a-cursor", 10))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> listing.list(folder, "owner", false, null, 10))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // Lists a page ending in last, then follows its cursor and returns the keys the repo got
+    private Map<String, Object> nextPosition(String sort, FileNodeSummary last) {
+        givenWindow(true, last);
+        String cursor = listing.list(folder, sort, false, null, 1).nextCursor();
+        assertThat(cursor).isNotNull();
+
+        givenWindow(false);
+        listing.list(folder, sort, false, cursor, 1);
+        ArgumentCaptor<ScrollPosition> position = ArgumentCaptor.forClass(ScrollPosition.class);
+        verify(fileNodeRepo, atLeastOnce())
+                .findByParentAndIsDeletedFalseAndPurgeJobIdIsNull(eq(folder), position.capture(), any(), any());
+        KeysetScrollPosition keyset = (KeysetScrollPosition) position.getValue();
+        assertThat(keyset.scrollsForward()).isTrue();
+        return keyset.getKeys();
+    }
+
+    private void givenWindow(boolean hasNext, FileNodeSummary... items) {
+        when(fileNodeRepo.findByParentAndIsDeletedFalseAndPurgeJobIdIsNull(eq(folder), any(), any(), any()))
+                .thenReturn(Window.from(List.of(items), index -> ScrollPosition.keyset(), hasNext));
+    }
+
+    private static FileNodeSummary summary(Long id, String name, Long size) {
+        return new FileNodeSummary(id, name, false, "application/pdf", size, false, CREATED, null, null);
+    }
+}
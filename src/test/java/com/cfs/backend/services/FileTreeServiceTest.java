@@ -0,0 +1,232 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.cache.PermissionCache;
+import com.cfs.backend.dto.SubtreeTotals;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// No database: the repo is a mock, so these check what the tree asks of it. Paths are
+// "/<root id>/.../<own id>/", and the subtree of a node is every path starting with its own.
+class FileTreeServiceTest {
+
+    private final FileNodeRepo fileNodeRepo = mock(FileNodeRepo.class);
+    private final PermissionCache permissionCache = mock(PermissionCache.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final FileTreeService tree = new FileTreeService(fileNodeRepo, permissionCache,
+            mock(SearchIndexService.class), jdbcTemplate, mock(EntityManager.class));
+    private final User owner = user(1L);
+
+    @Test
+    void movingAFolderRewritesItsSubtreePrefix() {
+        FileNode folder = node(5L, "/1/5/", true);
+        FileNode target = node(9L, "/1/9/", true);
+
+        tree.move(folder, target);
+
+        assertThat(folder.getPath()).isEqualTo("/1/9/5/");
+        assertThat(folder.getParent()).isSameAs(target);
+        // The folder's own row first, then every row below it in one statement
+        var order = inOrder(fileNodeRepo);
+        order.verify(fileNodeRepo).saveAndFlush(folder);
+        order.verify(fileNodeRepo).rewritePathPrefix("/1/5/", "/1/9/5/");
+        verify(permissionCache).evictSubtree("/1/5/");
+    }
+
+    @Test
+    void movingAFileOnlyChangesItsOwnRow() {
+        FileNode file = node(7L, "/1/5/7/", false);
+
+        tree.moveAll(List.of(file), node(9L, "/1/9/", true));
+
+        assertThat(file.getPath()).isEqualTo("/1/9/7/");
+        verify(fileNodeRepo).save(file);
+        verify(fileNodeRepo, never()).rewritePathPrefix(anyString(), anyString());
+    }
+
+    @Test
+    void movingToTheTopLevelStartsAFreshPath() {
+        FileNode folder = node(5L, "/1/5/", true);
+
+        tree.move(folder, null);
+
+        verify(fileNodeRepo).rewritePathPrefix("/1/5/", "/5/");
+    }
+
+    @Test
+    void attachStampsThePathFromTheGeneratedId() {
+        FileNode parent = node(9L, "/1/9/", true);
+        FileNode child = node(null, null, false);
+        when(fileNodeRepo.save(any(FileNode.class))).thenAnswer(invocation -> {
+            FileNode saved = invocation.getArgument(0);
+            if (saved.getId() == null) {
+                saved.setId(12L);
+            }
+            return saved;
+        });
+
+        tree.attach(child, parent);
+
+        assertThat(child.getPath()).isEqualTo("/1/9/12/");
+        assertThat(child.getCreatedAt()).isNotNull();
+    }
+
+    @Test
+    void ancestorsComeFromThePathRootFirst() {
+        FileNode deep = node(12L, "/1/9/40/12/", false);
+
+        assertThat(tree.pathIds(deep)).containsExactly(1L, 9L, 40L, 12L);
+        assertThat(tree.ancestorIds(deep)).containsExactly(1L, 9L, 40L);
+        assertThat(tree.ancestorIds(node(1L, "/1/", true))).isEmpty();
+    }
+
+    // The trailing slash keeps /1/5/ from claiming /1/50/ as its own
+    @Test
+    void subtreeMembershipFollowsWholePathSegments() {
+        FileNode folder = node(5L, "/1/5/", true);
+
+        assertThat(tree.isInSubtree(node(7L, "/1/5/7/", false), folder)).isTrue();
+        assertThat(tree.isInSubtree(folder, folder)).isTrue();
+        assertThat(tree.isInSubtree(node(50L, "/1/50/", true), folder)).isFalse();
+        assertThat(tree.isAncestor(folder, node(7L, "/1/5/7/", false))).isTrue();
+        assertThat(tree.isAncestor(folder, folder)).isFalse();
+        assertThat(tree.isAncestor(node(7L, "/1/5/7/", false), folder)).isFalse();
+    }
+
+    // Folder 5 moves from under 2 to under 9; root 1 holds it either way. Alice's and Bob's nodes
+    // inside it each count in their own owner's rollups.
+    @Test
+    void moveTakesTheSubtreeFromOldAncestorsAndGivesItToNewOnes() {
+        FileNode folder = node(5L, "/1/2/5/", true);
+        when(fileNodeRepo.sumLiveSubtreeByOwner("/1/2/5/"))
+                .thenReturn(List.of(new SubtreeTotals(1L, 100L, 3L), new SubtreeTotals(2L, 40L, 1L)));
+
+        tree.move(folder, node(9L, "/1/9/", true));
+
+        assertThat(rollupDeltas()).containsOnlyKeys("2/1", "2/2", "9/1", "9/2")
+                .containsEntry("2/1", List.of(-100L, -3L))
+                .containsEntry("2/2", List.of(-40L, -1L))
+                .containsEntry("9/1", List.of(100L, 3L))
+                .containsEntry("9/2", List.of(40L, 1L));
+    }
+
+    @Test
+    void filesMovedTogetherShareOneDeltaPerFolder() {
+        FileNode a = node(7L, "/1/2/7/", false);
+        FileNode b = node(8L, "/1/2/8/", false);
+
+        tree.moveAll(List.of(a, b), node(9L, "/1/9/", true));
+
+        assertThat(rollupDeltas()).containsOnlyKeys("2/1", "9/1")
+                .containsEntry("2/1", List.of(-20L, -2L))
+                .containsEntry("9/1", List.of(20L, 2L));
+    }
+
+    // A trashed file already left its folders' rollups when it was deleted
+    @Test
+    void movingATrashedFileLeavesRollupsAlone() {
+        FileNode file = node(7L, "/1/2/7/", false);
+        file.setDeleted(true);
+
+        tree.moveAll(List.of(file), node(9L, "/1/9/", true));
+
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(Collection.class), anyInt(),
+                any(ParameterizedPreparedStatementSetter.class));
+    }
+
+    @Test
+    void trashAndRestoreMoveTheTotalsThroughEveryAncestor() {
+        FileNode folder = node(5L, "/1/2/5/", true);
+        SubtreeTotals totals = new SubtreeTotals(1L, 300L, 4L);
+
+        tree.adjustAncestors(folder, totals, -1);
+        tree.adjustAncestors(folder, totals, 1);
+
+        verify(fileNodeRepo).adjustRollups(List.of(1L, 2L), 1L, -300L, -4L);
+        verify(fileNodeRepo).adjustRollups(List.of(1L, 2L), 1L, 300L, 4L);
+    }
+
+    @Test
+    void nothingToAdjustForTopLevelOrEmptyNodes() {
+        tree.adjustAncestors(node(1L, "/1/", true), new SubtreeTotals(1L, 300L, 4L), -1);
+        tree.adjustAncestors(node(5L, "/1/5/", true), new SubtreeTotals(1L, 0L, 0L), -1);
+
+        verify(fileNodeRepo, never()).adjustRollups(anyList(), anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    void siblingsTrashedTogetherShareTheirAncestorsDelta() {
+        FileNode a = node(7L, "/1/2/7/", false);
+        FileNode b = node(8L, "/1/8/", false);
+
+        tree.adjustAncestors(List.of(a, b), List.of(new SubtreeTotals(1L, 10L, 1L), new SubtreeTotals(1L, 10L, 1L)), -1);
+
+        assertThat(rollupDeltas()).containsOnlyKeys("1/1", "2/1")
+                .containsEntry("1/1", List.of(-20L, -2L))
+                .containsEntry("2/1", List.of(-10L, -1L));
+    }
+
+    // Replays the rollup batch against a mock statement: "folder/owner" -> [bytes, nodes]
+    @SuppressWarnings("unchecked")
+    private Map<String, List<Long>> rollupDeltas() {
+        ArgumentCaptor<Collection<Object>> rows = ArgumentCaptor.captor();
+        ArgumentCaptor<ParameterizedPreparedStatementSetter<Object>> setter = ArgumentCaptor.captor();
+        verify(jdbcTemplate).batchUpdate(anyString(), rows.capture(), anyInt(), setter.capture());
+        Map<String, List<Long>> deltas = new HashMap<>();
+        try {
+            for (Object row : rows.getValue()) {
+                PreparedStatement ps = mock(PreparedStatement.class);
+                setter.getValue().setValues(ps, row);
+                ArgumentCaptor<Long> values = ArgumentCaptor.forClass(Long.class);
+                for (int i = 1; i <= 4; i++) {
+                    verify(ps).setLong(eq(i), values.capture());
+                }
+                List<Long> v = values.getAllValues();
+                deltas.put(v.get(2) + "/" + v.get(3), List.of(v.get(0), v.get(1)));
+            }
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        return deltas;
+    }
+
+    private FileNode node(Long id, String path, boolean directory) {
+        FileNode node = new FileNode();
+        node.setId(id);
+        node.setPath(path);
+        node.setIsDirectory(directory);
+        node.setFileSize(directory ? 0L : 10L);
+        node.setOwner(owner);
+        return node;
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+}
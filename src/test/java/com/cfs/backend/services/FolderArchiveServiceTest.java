@@ -0,0 +1,58 @@
+package com.cfs.backend.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Archive entry names only: whatever a user named their files, extracting the ZIP must not
+// write outside the target folder, and no two entries may share a name
+class FolderArchiveServiceTest {
+
+    @Test
+    void namesCannotClimbOutOfTheArchive() {
+        Path target = Path.of("/tmp/extract");
+        for (String hostile : List.of("..", ".", "../../etc/passwd", "..\\..\\windows\\win.ini", "/etc/passwd",
+                "a/../../b", "C:\\evil", "", "\\\\server\\share")) {
+            String entry = "docs/" + FolderArchiveService.safeName(hostile);
+
+            assertThat(target.resolve(entry).normalize().getParent()).isEqualTo(target.resolve("docs"));
+            assertThat(FolderArchiveService.safeName(hostile)).doesNotContain("/", "\\").isNotIn("", ".", "..");
+        }
+        assertThat(FolderArchiveService.safeName(null)).isEqualTo("_");
+    }
+
+    @Test
+    void ordinaryNamesAreKept() {
+        assertThat(FolderArchiveService.safeName("report v2.final.pdf")).isEqualTo("report v2.final.pdf");
+        assertThat(FolderArchiveService.safeName("...")).isEqualTo("...");
+        assertThat(FolderArchiveService.safeName(".hidden")).isEqualTo(".hidden");
+    }
+
+    @Test
+    void duplicateNamesGetNumberedBeforeTheExtension() {
+        Set<String> used = new HashSet<>();
+
+        assertThat(FolderArchiveService.uniqueName(used, "docs/a.txt")).isEqualTo("docs/a.txt");
+        assertThat(FolderArchiveService.uniqueName(used, "docs/a.txt")).isEqualTo("docs/a (1).txt");
+        assertThat(FolderArchiveService.uniqueName(used, "docs/a.txt")).isEqualTo("docs/a (2).txt");
+        assertThat(FolderArchiveService.uniqueName(used, "docs/a (1).txt")).isEqualTo("docs/a (1) (1).txt");
+    }
+
+    @Test
+    void duplicateFoldersAndDotNamesStayWellFormed() {
+        Set<String> used = new HashSet<>();
+
+        assertThat(FolderArchiveService.uniqueName(used, "v1.0/")).isEqualTo("v1.0/");
+        assertThat(FolderArchiveService.uniqueName(used, "v1.0/")).isEqualTo("v1.0 (1)/");
+        // A dot in a parent folder is not an extension
+        assertThat(FolderArchiveService.uniqueName(used, "v1.0/README")).isEqualTo("v1.0/README");
+        assertThat(FolderArchiveService.uniqueName(used, "v1.0/README")).isEqualTo("v1.0/README (1)");
+        assertThat(FolderArchiveService.uniqueName(used, "v1.0/.env")).isEqualTo("v1.0/.env");
+        assertThat(FolderArchiveService.uniqueName(used, "v1.0/.env")).isEqualTo("v1.0/.env (1)");
+    }
+}
@@ -0,0 +1,123 @@
+package com.cfs.backend.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// S3 is a mock that reads each part body, so a part counts as in flight (holding its buffer)
+// until it has been read
+class MultipartUploaderTest {
+
+    private static final long MIB = 1024 * 1024;
+
+    private final S3Client s3Client = mock(S3Client.class);
+    private final MultipartUploader uploader = new MultipartUploader(s3Client);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    MultipartUploaderTest() {
+        ReflectionTestUtils.setField(uploader, "bucketName", "bucket");
+        ReflectionTestUtils.setField(uploader, "partSize", 5 * MIB);
+        ReflectionTestUtils.setField(uploader, "parallelism", 4);
+        ReflectionTestUtils.setField(uploader, "threads", 8);
+        ReflectionTestUtils.setField(uploader, "maxAttempts", 1);
+        ReflectionTestUtils.setField(uploader, "bufferMemory", 10 * MIB);
+        ReflectionTestUtils.setField(uploader, "maxBufferedPartSize", 64 * MIB);
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload").build());
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try (InputStream body = invocation.<RequestBody>getArgument(1).contentStreamProvider().newStream()) {
+                Thread.sleep(20);
+                UploadPartRequest request = invocation.getArgument(0);
+                assertThat(body.readAllBytes()).hasSize(request.contentLength().intValue());
+                return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+    }
+
+    @AfterEach
+    void stop() {
+        uploader.stop();
+    }
+
+    // Room for two 5 MiB buffers: three uploads at once still finish, two parts at a time
+    @Test
+    void uploadsShareOneBufferBudget() throws Exception {
+        uploader.start();
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        List<Future<?>> uploads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String key = "key-" + i;
+            uploads.add(callers.submit(() -> uploader.upload(key, "application/octet-stream",
+                    new ByteArrayInputStream(new byte[(int) (20 * MIB)]), 20 * MIB)));
+        }
+        for (Future<?> upload : uploads) {
+            upload.get();
+        }
+        callers.shutdown();
+
+        assertThat(maxInFlight.get()).isBetween(1, 2);
+        assertThat(permits().availablePermits()).isEqualTo((int) (10 * MIB));
+    }
+
+    @Test
+    void failedUploadGivesItsBuffersBack() {
+        uploader.start();
+        long length = 20 * MIB;
+
+        assertThatThrownBy(() -> uploader.upload("short", "application/octet-stream",
+                new ByteArrayInputStream(new byte[100]), length)).isInstanceOf(RuntimeException.class);
+
+        verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        assertThat(permits().availablePermits()).isEqualTo((int) (10 * MIB));
+    }
+
+    // Parts over the buffered limit never enter the heap budget
+    @Test
+    void oversizedPartsAreStreamed() {
+        ReflectionTestUtils.setField(uploader, "partSize", 8 * MIB);
+        ReflectionTestUtils.setField(uploader, "maxBufferedPartSize", 6 * MIB);
+        uploader.start();
+        long length = 17 * MIB;
+
+        uploader.upload("big", "application/octet-stream", new ByteArrayInputStream(new byte[(int) length]), length);
+
+        verify(s3Client).completeMultipartUpload(argThat((CompleteMultipartUploadRequest request) ->
+                request.multipartUpload().parts().size() == 3));
+        assertThat(maxInFlight.get()).isEqualTo(1);
+        assertThat(permits().availablePermits()).isEqualTo((int) (10 * MIB));
+    }
+
+    private Semaphore permits() {
+        return (Semaphore) ReflectionTestUtils.getField(uploader, "bufferPermits");
+    }
+}
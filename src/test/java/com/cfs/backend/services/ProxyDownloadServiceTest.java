@@ -0,0 +1,144 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.entity.FileNode;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// No storage: the object is a byte array behind a mocked StorageService
+class ProxyDownloadServiceTest {
+
+    private static final String KEY = "objects/video";
+    private static final String ETAG = "\"abc123\"";
+    private static final Instant LAST_MODIFIED = Instant.parse("2024-05-01T10:15:30Z");
+    private static final byte[] CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+
+    private final StorageService storageService = mock(StorageService.class);
+    private final ProxyDownloadService proxy = new ProxyDownloadService(storageService);
+    private final FileNode file = new FileNode();
+
+    ProxyDownloadServiceTest() {
+        ReflectionTestUtils.setField(proxy, "maxRanges", 4);
+        file.setFileName("video.mp4");
+        file.setMimeType("video/mp4");
+        file.setStoragePath(KEY);
+        when(storageService.headObject(KEY)).thenReturn(HeadObjectResponse.builder()
+                .contentLength((long) CONTENT.length).eTag(ETAG).lastModified(LAST_MODIFIED).build());
+        when(storageService.openFile(KEY)).thenAnswer(invocation -> new ByteArrayInputStream(CONTENT));
+        when(storageService.openFileRange(eq(KEY), anyLong(), anyLong())).thenAnswer(invocation -> {
+            long start = invocation.getArgument(1);
+            long end = invocation.getArgument(2);
+            return new ByteArrayInputStream(Arrays.copyOfRange(CONTENT, (int) start, (int) end + 1));
+        });
+    }
+
+    @Test
+    void noRangeSendsTheWholeObject() throws Exception {
+        ResponseEntity<?> response = proxy.serve(file, null, null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(CONTENT.length);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(body(response)).isEqualTo(new String(CONTENT, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void singleRangeSendsOnlyThoseBytes() throws Exception {
+        ResponseEntity<?> response = proxy.serve(file, "bytes=10-15", null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 10-15/36");
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(6);
+        assertThat(body(response)).isEqualTo("abcdef");
+    }
+
+    @Test
+    void suffixRangeSendsTheTail() throws Exception {
+        ResponseEntity<?> response = proxy.serve(file, "bytes=-4", null);
+
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 32-35/36");
+        assertThat(body(response)).isEqualTo("wxyz");
+    }
+
+    @Test
+    void multipleRangesSendMultipartByteranges() throws Exception {
+        ResponseEntity<?> response = proxy.serve(file, "bytes=0-1,30-31", null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        String contentType = response.getHeaders().getContentType().toString();
+        assertThat(contentType).startsWith("multipart/byteranges");
+        String boundary = response.getHeaders().getContentType().getParameter("boundary");
+        assertThat(body(response)).isEqualTo(
+                "\r\n--" + boundary + "\r\nContent-Type: video/mp4\r\nContent-Range: bytes 0-1/36\r\n\r\n01"
+                        + "\r\n--" + boundary + "\r\nContent-Type: video/mp4\r\nContent-Range: bytes 30-31/36\r\n\r\nuv"
+                        + "\r\n--" + boundary + "--\r\n");
+    }
+
+    @Test
+    void matchingIfRangeHonoursTheRange() {
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(LAST_MODIFIED.atZone(ZoneOffset.UTC));
+
+        assertThat(proxy.serve(file, "bytes=0-3", ETAG).getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(proxy.serve(file, "bytes=0-3", date).getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+    }
+
+    // A partial copy of another version must not be patched with bytes of this one
+    @Test
+    void staleIfRangeSendsTheWholeObject() {
+        String olderDate = DateTimeFormatter.RFC_1123_DATE_TIME.format(LAST_MODIFIED.minusSeconds(60).atZone(ZoneOffset.UTC));
+
+        assertThat(proxy.serve(file, "bytes=0-3", "\"other\"").getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(proxy.serve(file, "bytes=0-3", "W/" + ETAG).getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(proxy.serve(file, "bytes=0-3", olderDate).getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(proxy.serve(file, "bytes=0-3", "not a date").getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void overlappingRangesLargerThanTheObjectAreRefused() {
+        ResponseEntity<?> response = proxy.serve(file, "bytes=0-35,0-35", null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */36");
+    }
+
+    @Test
+    void tooManyOrUnsatisfiableRangesAreRefused() {
+        assertThat(proxy.serve(file, "bytes=0-0,1-1,2-2,3-3,4-4", null).getStatusCode())
+                .isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertThat(proxy.serve(file, "bytes=36-40", null).getStatusCode())
+                .isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertThat(proxy.serve(file, "bytes=garbage", null).getStatusCode())
+                .isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+    }
+
+    @Test
+    void missingObjectIsNotFound() {
+        when(storageService.headObject(KEY)).thenReturn(null);
+
+        assertThat(proxy.serve(file, null, null).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    private static String body(ResponseEntity<?> response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingResponseBody) response.getBody()).writeTo(out);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,154 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.repo.UserRepo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// No database: the repo is a mock whose conditional UPDATE is an atomic compare-and-set,
+// which is what the row lock gives the real query
+class QuotaServiceTest {
+
+    private static final long ALLOTTED = 10_000_000L;
+    private static final long FILE_SIZE = 1_000L;
+    private static final int THREADS = 32;
+    private static final int ATTEMPTS_PER_THREAD = 1_000;
+
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicInteger databaseWrites = new AtomicInteger();
+    private final UserRepo userRepo = mock(UserRepo.class);
+
+    QuotaServiceTest() {
+        when(userRepo.tryReserveStorage(any(), anyLong())).thenAnswer(invocation -> {
+            long bytes = invocation.getArgument(1);
+            databaseWrites.incrementAndGet();
+            while (true) {
+                long current = used.get();
+                if (current + bytes > ALLOTTED) {
+                    return 0;
+                }
+                if (used.compareAndSet(current, current + bytes)) {
+                    return 1;
+                }
+            }
+        });
+        when(userRepo.releaseStorage(any(), anyLong())).thenAnswer(invocation -> {
+            long bytes = invocation.getArgument(1);
+            databaseWrites.incrementAndGet();
+            used.updateAndGet(current -> Math.max(0, current - bytes));
+            return 1;
+        });
+    }
+
+    private QuotaService quotaService(boolean leaseEnabled) {
+        return new QuotaService(userRepo, mock(PlatformTransactionManager.class),
+                leaseEnabled, 1_000_000L);
+    }
+
+    @Test
+    @Timeout(30)
+    void concurrentReservationsNeverOvershoot() throws Exception {
+        QuotaService quota = quotaService(false);
+
+        int granted = reserveConcurrently(quota, ATTEMPTS_PER_THREAD);
+
+        assertThat(granted).isEqualTo((int) (ALLOTTED / FILE_SIZE));
+        assertThat(used.get()).isEqualTo(granted * FILE_SIZE);
+    }
+
+    @Test
+    @Timeout(30)
+    void leasesNeverOvershootAndUseTheWholeQuota() throws Exception {
+        QuotaService quota = quotaService(true);
+
+        int granted = reserveConcurrently(quota, ATTEMPTS_PER_THREAD);
+        quota.flush();
+
+        assertThat(granted).isEqualTo((int) (ALLOTTED / FILE_SIZE));
+        assertThat(used.get()).isEqualTo(granted * FILE_SIZE);
+    }
+
+    // The throughput side: below the limit, a lease serves hundreds of files per database write
+    @Test
+    @Timeout(30)
+    void leasesCutDatabaseWritesWhileQuotaRemains() throws Exception {
+        QuotaService quota = quotaService(true);
+        int attempts = (int) (ALLOTTED / FILE_SIZE / THREADS);
+
+        int granted = reserveConcurrently(quota, attempts);
+        quota.flush();
+
+        assertThat(granted).isEqualTo(attempts * THREADS);
+        assertThat(used.get()).isEqualTo(granted * FILE_SIZE);
+        assertThat(databaseWrites.get()).isLessThan(granted / 100);
+    }
+
+    @Test
+    @Timeout(30)
+    void reserveAndReleaseUnderContentionBalanceOut() throws Exception {
+        QuotaService quota = quotaService(true);
+
+        runConcurrently(() -> {
+            for (int i = 0; i < ATTEMPTS_PER_THREAD; i++) {
+                if (quota.reserve(1L, FILE_SIZE)) {
+                    quota.release(1L, FILE_SIZE);
+                }
+            }
+            return 0;
+        });
+        quota.flush();
+
+        assertThat(used.get()).isZero();
+    }
+
+    private int reserveConcurrently(QuotaService quota, int attemptsPerThread) throws Exception {
+        return runConcurrently(() -> {
+            int granted = 0;
+            for (int i = 0; i < attemptsPerThread; i++) {
+                if (quota.reserve(1L, FILE_SIZE)) {
+                    granted++;
+                }
+                assertThat(used.get()).isLessThanOrEqualTo(ALLOTTED);
+            }
+            return granted;
+        });
+    }
+
+    private int runConcurrently(Callable<Integer> work) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    return work.call();
+                }));
+            }
+            start.countDown();
+            int total = 0;
+            for (Future<Integer> future : futures) {
+                total += future.get();
+            }
+            return total;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
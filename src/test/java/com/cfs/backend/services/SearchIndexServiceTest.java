@@ -0,0 +1,66 @@
+package com.cfs.backend.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// The trigram split on its own. Search finds a name when the name holds every gram of the
+// query, so the properties that matter are containment and that distinct trigrams never collide.
+class SearchIndexServiceTest {
+
+    @Test
+    void gramsAreDistinctAndInOrder() {
+        List<Long> grams = SearchIndexService.grams("banana");
+
+        assertThat(grams).hasSize(3);
+        assertThat(grams).containsExactly(gram('b', 'a', 'n'), gram('a', 'n', 'a'), gram('n', 'a', 'n'));
+    }
+
+    @Test
+    void caseDoesNotMatter() {
+        assertThat(SearchIndexService.grams("Quarterly REPORT.pdf"))
+                .isEqualTo(SearchIndexService.grams("quarterly report.pdf"));
+    }
+
+    @Test
+    void everySubstringGramIsInTheName() {
+        String name = "2024-q3 Quarterly Report (final).xlsx";
+        List<Long> nameGrams = SearchIndexService.grams(name);
+
+        for (String query : List.of("report", "Q3 q", "(final)", ".xlsx", "24-")) {
+            assertThat(nameGrams).containsAll(SearchIndexService.grams(query));
+        }
+        assertThat(nameGrams).doesNotContainAnyElementsOf(SearchIndexService.grams("zzz"));
+    }
+
+    @Test
+    void orderAndPositionAreKeptWithinAGram() {
+        assertThat(SearchIndexService.grams("abc")).doesNotContainAnyElementsOf(SearchIndexService.grams("acb"));
+        assertThat(SearchIndexService.grams("abc")).doesNotContainAnyElementsOf(SearchIndexService.grams("cba"));
+    }
+
+    // Code points, not chars: a surrogate pair is one character of a gram
+    @Test
+    void supplementaryCharactersAreOneCodePoint() {
+        String rocket = new String(Character.toChars(0x1F680));
+        List<Long> grams = SearchIndexService.grams("a" + rocket + "b");
+
+        assertThat(grams).containsExactly(gram('a', 0x1F680, 'b'));
+        assertThat(grams.get(0)).isPositive();
+        assertThat(SearchIndexService.grams("日本語の資料")).hasSize(4);
+    }
+
+    // Shorter than a gram: one padded gram, which a longer name never produces
+    @Test
+    void shortTextIsOnePaddedGram() {
+        assertThat(SearchIndexService.grams("ab")).containsExactly(gram('a', 'b', 0));
+        assertThat(SearchIndexService.grams("")).containsExactly(0L);
+        assertThat(SearchIndexService.grams("abc")).doesNotContain(gram('a', 'b', 0));
+    }
+
+    private static long gram(int first, int second, int third) {
+        return ((long) first << 42) | ((long) second << 21) | third;
+    }
+}
@@ -0,0 +1,169 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.SubtreeTotals;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+// No database: each trash or restore should be a fixed number of bulk UPDATEs, whatever the
+// size of the subtree. Sizes come from a mocked tree service.
+class TrashServiceTest {
+
+    private final FileNodeRepo fileNodeRepo = mock(FileNodeRepo.class);
+    private final FileTreeService fileTreeService = mock(FileTreeService.class);
+    private final TrashService trash = new TrashService(fileNodeRepo, fileTreeService);
+    private final User user = user(1L);
+
+    TrashServiceTest() {
+        when(fileTreeService.subtreeTotals(any())).thenAnswer(invocation -> {
+            FileNode node = invocation.getArgument(0);
+            return new SubtreeTotals(1L, node.getIsDirectory() ? 300L : node.getFileSize(), 1L);
+        });
+    }
+
+    @Test
+    void folderGoesToTrashInOneUpdate() {
+        FileNode folder = node(5L, "/1/5/", true);
+
+        assertThat(trash.softDelete(folder, user)).isEqualTo(300L);
+
+        ArgumentCaptor<Instant> at = ArgumentCaptor.forClass(Instant.class);
+        verify(fileNodeRepo).softDeleteSubtree(eq("/1/5/"), eq(user), at.capture());
+        assertThat(folder.isDeleted()).isTrue();
+        assertThat(folder.getDeletedAt()).isEqualTo(at.getValue());
+        // Restore matches on this value, so it must survive the column's precision
+        assertThat(at.getValue().getNano() % 1000).isZero();
+    }
+
+    @Test
+    void alreadyTrashedIsLeftAlone() {
+        FileNode folder = node(5L, "/1/5/", true);
+        folder.setDeleted(true);
+
+        assertThat(trash.softDelete(folder, user)).isZero();
+
+        verifyNoInteractions(fileNodeRepo);
+    }
+
+    @Test
+    void manyRootsShareOneFileUpdateAndOneUpdatePerFolder() {
+        FileNode a = node(7L, "/1/7/", false);
+        FileNode b = node(8L, "/1/8/", false);
+        FileNode folder = node(5L, "/1/5/", true);
+        FileNode other = node(6L, "/1/6/", true);
+
+        assertThat(trash.softDeleteAll(List.of(a, folder, b, other), user)).isEqualTo(10 + 300 + 10 + 300);
+
+        ArgumentCaptor<Instant> at = ArgumentCaptor.forClass(Instant.class);
+        verify(fileNodeRepo).softDeleteFiles(eq(List.of(7L, 8L)), eq(user), at.capture());
+        verify(fileNodeRepo).softDeleteSubtree("/1/5/", user, at.getValue());
+        verify(fileNodeRepo).softDeleteSubtree("/1/6/", user, at.getValue());
+        assertThat(List.of(a, b, folder, other)).allMatch(node -> node.isDeleted() && at.getValue().equals(node.getDeletedAt()));
+    }
+
+    @Test
+    void foldersOnlyNeedNoFileUpdate() {
+        trash.softDeleteAll(List.of(node(5L, "/1/5/", true)), user);
+
+        verify(fileNodeRepo, never()).softDeleteFiles(anyList(), any(), any());
+    }
+
+    // Only the batch trashed with the folder comes back, not what was trashed inside it earlier
+    @Test
+    void restoreBringsBackTheBatchItWasTrashedWith() {
+        Instant trashedAt = Instant.parse("2026-01-02T03:04:05.123456Z");
+        FileNode folder = trashed(node(5L, "/1/5/", true), trashedAt);
+
+        trash.restore(folder, user);
+
+        verify(fileNodeRepo).restoreSubtree("/1/5/", user, trashedAt);
+        assertThat(folder.isDeleted()).isFalse();
+        assertThat(folder.getDeletedAt()).isNull();
+    }
+
+    @Test
+    void restoringALiveNodeDoesNothing() {
+        trash.restore(node(5L, "/1/5/", true), user);
+
+        verify(fileNodeRepo, never()).restoreSubtree(anyString(), any(), any());
+    }
+
+    @Test
+    void manyRootsRestoreWithOneFileUpdateAndEachFoldersOwnBatch() {
+        Instant first = Instant.parse("2026-01-02T03:04:05Z");
+        Instant second = Instant.parse("2026-02-02T03:04:05Z");
+        FileNode file = trashed(node(7L, "/1/7/", false), first);
+        FileNode folder = trashed(node(5L, "/1/5/", true), first);
+        FileNode later = trashed(node(6L, "/1/6/", true), second);
+
+        trash.restoreAll(List.of(file, folder, later), user);
+
+        verify(fileNodeRepo).restoreFiles(List.of(7L), user);
+        verify(fileNodeRepo).restoreSubtree("/1/5/", user, first);
+        verify(fileNodeRepo).restoreSubtree("/1/6/", user, second);
+        assertThat(List.of(file, folder, later)).noneMatch(FileNode::isDeleted);
+    }
+
+    // The subtree leaves its ancestors' rollups when trashed and comes back with a restore
+    @Test
+    void trashAndRestoreAdjustAncestorsInOppositeDirections() {
+        FileNode folder = node(5L, "/1/5/", true);
+        SubtreeTotals totals = new SubtreeTotals(1L, 300L, 1L);
+
+        trash.softDelete(folder, user);
+        trash.restore(folder, user);
+
+        verify(fileTreeService).adjustAncestors(folder, totals, -1);
+        verify(fileTreeService).adjustAncestors(folder, totals, 1);
+    }
+
+    @Test
+    void manyRootsAdjustAncestorsInOneBatch() {
+        List<FileNode> roots = List.of(node(7L, "/1/7/", false), node(5L, "/1/5/", true));
+        List<SubtreeTotals> totals = List.of(new SubtreeTotals(1L, 10L, 1L), new SubtreeTotals(1L, 300L, 1L));
+
+        trash.softDeleteAll(roots, user);
+        trash.restoreAll(roots, user);
+
+        verify(fileTreeService).adjustAncestors(roots, totals, -1);
+        verify(fileTreeService).adjustAncestors(roots, totals, 1);
+    }
+
+    private static FileNode trashed(FileNode node, Instant at) {
+        node.setDeleted(true);
+        node.setDeletedAt(at);
+        return node;
+    }
+
+    private FileNode node(Long id, String path, boolean directory) {
+        FileNode node = new FileNode();
+        node.setId(id);
+        node.setPath(path);
+        node.setIsDirectory(directory);
+        node.setFileSize(directory ? 0L : 10L);
+        node.setOwner(user);
+        return node;
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+}
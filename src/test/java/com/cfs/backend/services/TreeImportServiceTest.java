@@ -0,0 +1,100 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.dto.ImportEntry;
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.PermissionType;
+import com.cfs.backend.entity.User;
+import com.cfs.backend.repo.FileNodeRepo;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+// No database: which hashes a manifest may name. The quota check is made to fail, so an import
+// that gets past the hash check stops there with null instead of touching storage.
+class TreeImportServiceTest {
+
+    private static final String HASH = "ab".repeat(32);
+
+    private final FileNodeRepo fileNodeRepo = mock(FileNodeRepo.class);
+    private final BlobService blobService = mock(BlobService.class);
+    private final QuotaService quotaService = mock(QuotaService.class);
+    private final AccessService accessService = mock(AccessService.class);
+    private final TreeImportService imports = new TreeImportService(fileNodeRepo, mock(FileTreeService.class),
+            blobService, quotaService, accessService, mock(TransactionTemplate.class));
+    private final User user = user(1L);
+    private final FileNode parent = new FileNode();
+    private final FileNode othersFile = new FileNode();
+
+    TreeImportServiceTest() {
+        ReflectionTestUtils.setField(imports, "maxEntries", 100);
+        othersFile.setId(50L);
+        othersFile.setOwner(user(2L));
+        othersFile.setContentHash(HASH);
+        when(quotaService.fits(any(), anyLong())).thenReturn(false);
+        when(accessService.hasSufficientPermission(any(), any())).thenCallRealMethod();
+    }
+
+    @Test
+    void ownContentMayBeReferenced() {
+        when(fileNodeRepo.findOwnedContentHashes(eq(1L), any())).thenReturn(List.of(HASH));
+
+        assertThat(imports.importTree(user, parent, List.of(entry("copy.bin")), Map.of())).isNull();
+    }
+
+    // Knowing the hash of someone else's file must not be enough to get a copy of it
+    @Test
+    void othersContentWithoutAccessIsRefused() {
+        when(fileNodeRepo.findLiveByContentHashNotOwnedBy(eq(1L), any())).thenReturn(List.of(othersFile));
+        when(accessService.resolvePermissions(user, List.of(othersFile))).thenReturn(Map.of());
+
+        assertThatThrownBy(() -> imports.importTree(user, parent, List.of(entry("stolen.bin")), Map.of()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("No content for stolen.bin");
+        verifyNoInteractions(blobService);
+    }
+
+    @Test
+    void sharedContentMayBeReferencedUnlessLocked() {
+        when(fileNodeRepo.findLiveByContentHashNotOwnedBy(eq(1L), any())).thenReturn(List.of(othersFile));
+        when(accessService.resolvePermissions(user, List.of(othersFile))).thenReturn(Map.of(50L, PermissionType.VIEW));
+
+        assertThat(imports.importTree(user, parent, List.of(entry("shared.bin")), Map.of())).isNull();
+
+        when(accessService.findFirstLocked(othersFile)).thenReturn(new FileNode());
+        assertThatThrownBy(() -> imports.importTree(user, parent, List.of(entry("locked.bin")), Map.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // Unknown and unreachable content are refused alike
+    @Test
+    void unknownHashIsRefused() {
+        assertThatThrownBy(() -> imports.importTree(user, parent, List.of(entry("missing.bin")), Map.of()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("No content for missing.bin");
+    }
+
+    private static ImportEntry entry(String path) {
+        ImportEntry entry = new ImportEntry();
+        entry.setPath(path);
+        entry.setSha256(HASH);
+        return entry;
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+}
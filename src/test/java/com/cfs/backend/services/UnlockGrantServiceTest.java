@@ -0,0 +1,116 @@
+package com.cfs.backend.services;
+
+import com.cfs.backend.entity.FileNode;
+import com.cfs.backend.entity.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// No database: grants are checked against plain entities, and bcrypt is a mock so a test can
+// tell whether a check fell back to the password
+class UnlockGrantServiceTest {
+
+    private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+    private static final String JWT_KEY = Base64.getEncoder().encodeToString("a shared token key of 32 bytes!!".getBytes());
+    private static final long TTL_MS = 900_000L;
+
+    private final PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+    private final UnlockGrantService grants = new UnlockGrantService(passwordEncoder, KEY, "", TTL_MS);
+    private final User user = user(1L);
+    private final FileNode locked = locked(10L, "$2a$10$hash-of-the-folder-password");
+
+    @Test
+    void grantUnlocksItsFolderWithoutBcrypt() {
+        String grant = grants.issue(user, locked).grant();
+
+        assertThat(grants.unlocks(user, locked, null, grant)).isTrue();
+        verify(passwordEncoder, never()).matches(any(), any());
+    }
+
+    @Test
+    void grantIsBoundToItsUserAndFolder() {
+        String grant = grants.issue(user, locked).grant();
+
+        assertThat(grants.unlocks(user(2L), locked, null, grant)).isFalse();
+        assertThat(grants.unlocks(user, locked(11L, locked.getFolderPassword()), null, grant)).isFalse();
+    }
+
+    @Test
+    void forgedGrantsAreRejected() {
+        String[] parts = grants.issue(user, locked).grant().split("\\.");
+        long later = Long.parseLong(parts[2]) + 86_400;
+
+        // A longer expiry under the old signature
+        assertThat(grants.unlocks(user, locked, null, parts[0] + "." + parts[1] + "." + later + "." + parts[3])).isFalse();
+        // Another user's id under the old signature
+        assertThat(grants.unlocks(user(2L), locked, null, "2." + parts[1] + "." + parts[2] + "." + parts[3])).isFalse();
+        // Signed with another key
+        UnlockGrantService otherNode = new UnlockGrantService(passwordEncoder,
+                Base64.getEncoder().encodeToString("another grant key, also 32 bytes".getBytes()), "", TTL_MS);
+        assertThat(grants.unlocks(user, locked, null, otherNode.issue(user, locked).grant())).isFalse();
+        assertThat(grants.unlocks(user, locked, null, "garbage")).isFalse();
+        assertThat(grants.unlocks(user, locked, null, "1.10.notanumber.sig")).isFalse();
+    }
+
+    @Test
+    void expiredGrantIsRejected() {
+        UnlockGrantService shortLived = new UnlockGrantService(passwordEncoder, KEY, "", -1_000L);
+
+        assertThat(shortLived.unlocks(user, locked, null, shortLived.issue(user, locked).grant())).isFalse();
+    }
+
+    // The grant signs the password hash, so a new password or a relock ends it at once
+    @Test
+    void passwordChangeOrRelockInvalidatesGrants() {
+        String grant = grants.issue(user, locked).grant();
+
+        locked.setFolderPassword("$2a$10$hash-of-a-new-password");
+        assertThat(grants.unlocks(user, locked, null, grant)).isFalse();
+
+        locked.setFolderPassword(null);
+        assertThat(grants.unlocks(user, locked, null, grant)).isFalse();
+    }
+
+    @Test
+    void anyValidGrantInTheListWorksAndPasswordIsTheFallback() {
+        String grant = grants.issue(user, locked).grant();
+        when(passwordEncoder.matches("right", locked.getFolderPassword())).thenReturn(true);
+
+        assertThat(grants.unlocks(user, locked, null, "stale.grant.value.x, " + grant)).isTrue();
+        assertThat(grants.unlocks(user, locked, "right", "stale.grant.value.x")).isTrue();
+        assertThat(grants.unlocks(user, locked, "wrong", null)).isFalse();
+        assertThat(grants.unlocks(user, null, null, null)).isTrue();
+    }
+
+    // Nodes configured with only the token key derive the same grant key
+    @Test
+    void nodesSharingTheTokenKeyAcceptEachOthersGrants() {
+        UnlockGrantService first = new UnlockGrantService(passwordEncoder, "", JWT_KEY, TTL_MS);
+        UnlockGrantService second = new UnlockGrantService(passwordEncoder, "", JWT_KEY, TTL_MS);
+
+        assertThat(second.unlocks(user, locked, null, first.issue(user, locked).grant())).isTrue();
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    private static FileNode locked(Long id, String passwordHash) {
+        FileNode folder = new FileNode();
+        folder.setId(id);
+        folder.setIsDirectory(true);
+        folder.setIsLocked(true);
+        folder.setFolderPassword(passwordHash);
+        return folder;
+    }
+}